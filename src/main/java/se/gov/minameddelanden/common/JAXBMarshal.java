@@ -2,19 +2,90 @@ package se.gov.minameddelanden.common;
 
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Unmarshaller;
 import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
+import org.w3c.dom.Node;
 
 public final class JAXBMarshal {
 
+	// Max number of idle unmarshallers kept per context, more than this are simply left for the GC
+	static final int MAX_POOLED_UNMARSHALLERS = 32;
+
+	// Creating a JAXBContext is expensive, while the context itself is thread safe. Contexts are therefore created once per
+	// package and kept for the lifetime of the application. Unmarshallers are cheap(er) but not thread safe, so they are
+	// pooled per context.
+	private static final Map<String, PooledContext> CONTEXTS = new ConcurrentHashMap<>();
+
 	private JAXBMarshal() {}
 
 	public static <T> T deserialize(final byte[] bytes, final Class<T> objectClass) throws JAXBException {
-		var jaxbContext = JAXBContext.newInstance(objectClass.getPackage().getName());
-		var unmarshaller = jaxbContext.createUnmarshaller();
-		var is = new ByteArrayInputStream(bytes);
-		var elem = unmarshaller.unmarshal(new StreamSource(is), objectClass);
+		return deserialize(new StreamSource(new ByteArrayInputStream(bytes)), objectClass);
+	}
+
+	/**
+	 * Deserialize directly from a DOM node, avoiding a serialize/parse round-trip when the XML already is available as
+	 * DOM.
+	 *
+	 * @param  node          the node to deserialize
+	 * @param  objectClass   the type to deserialize to
+	 * @return               the deserialized object
+	 * @throws JAXBException if the node could not be deserialized
+	 */
+	public static <T> T deserialize(final Node node, final Class<T> objectClass) throws JAXBException {
+		return deserialize(new DOMSource(node), objectClass);
+	}
+
+	private static <T> T deserialize(final Source source, final Class<T> objectClass) throws JAXBException {
+		var pooledContext = getPooledContext(objectClass);
+		var unmarshaller = pooledContext.borrowUnmarshaller();
+
+		try {
+			var elem = unmarshaller.unmarshal(source, objectClass);
+
+			return objectClass.cast(elem.getValue());
+		} finally {
+			pooledContext.returnUnmarshaller(unmarshaller);
+		}
+	}
+
+	static JAXBContext getContext(final Class<?> objectClass) throws JAXBException {
+		return getPooledContext(objectClass).context();
+	}
+
+	private static PooledContext getPooledContext(final Class<?> objectClass) throws JAXBException {
+		var contextPath = objectClass.getPackage().getName();
+		var pooledContext = CONTEXTS.get(contextPath);
+
+		if (pooledContext == null) {
+			// Creating the context outside computeIfAbsent to be able to propagate the checked exception. If two threads race
+			// here the first one stored wins and the other context is discarded.
+			var created = new PooledContext(JAXBContext.newInstance(contextPath), new ArrayBlockingQueue<>(MAX_POOLED_UNMARSHALLERS));
+			pooledContext = CONTEXTS.putIfAbsent(contextPath, created);
+			if (pooledContext == null) {
+				pooledContext = created;
+			}
+		}
+
+		return pooledContext;
+	}
+
+	private record PooledContext(JAXBContext context, BlockingQueue<Unmarshaller> unmarshallers) {
+
+		Unmarshaller borrowUnmarshaller() throws JAXBException {
+			var unmarshaller = unmarshallers.poll();
+			return unmarshaller != null ? unmarshaller : context.createUnmarshaller();
+		}
 
-		return objectClass.cast(elem.getValue());
+		void returnUnmarshaller(final Unmarshaller unmarshaller) {
+			// Discarded if the pool is full
+			unmarshallers.offer(unmarshaller);
+		}
 	}
 }
@@ -65,7 +65,12 @@ public class Xml {
 	}
 
 	private Document toDOM(final boolean namespaceAware) {
-		return toDOM(XmlUtil.createDocumentBuilder(namespaceAware));
+		var documentBuilder = XmlUtil.borrowDocumentBuilder(namespaceAware);
+		try {
+			return toDOM(documentBuilder);
+		} finally {
+			XmlUtil.releaseDocumentBuilder(documentBuilder, namespaceAware);
+		}
 	}
 
 	private Document toDOM(final DocumentBuilder documentBuilder) {
@@ -7,6 +7,8 @@ import java.nio.charset.Charset;
 import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.logging.Logger;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -34,19 +36,36 @@ import static se.gov.minameddelanden.common.EncodingUtils.stringToBytes;
 
 public final class XmlUtil {
 
+	// Max number of idle transformers and document builders kept, more than this are simply left for the GC
+	static final int MAX_POOLED_INSTANCES = 32;
+
+	// Looking up the factories means ServiceLoader/classpath scanning, so they are only created once. The XMLInputFactory
+	// is thread safe once configured, while the transformer and document builder factories are only used (synchronized)
+	// to create new instances. Transformers and document builders are not thread safe and are pooled, instead of kept per
+	// thread, since virtual threads are never reused.
 	private static final XMLInputFactory XML_INPUT_FACTORY = getXmlInputFactory();
+	private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+	private static final DocumentBuilderFactory NAMESPACE_AWARE_DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory(true);
+	private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory(false);
+
+	private static final BlockingQueue<Transformer> TRANSFORMERS = new ArrayBlockingQueue<>(MAX_POOLED_INSTANCES);
+	private static final BlockingQueue<DocumentBuilder> NAMESPACE_AWARE_DOCUMENT_BUILDERS = new ArrayBlockingQueue<>(MAX_POOLED_INSTANCES);
+	private static final BlockingQueue<DocumentBuilder> DOCUMENT_BUILDERS = new ArrayBlockingQueue<>(MAX_POOLED_INSTANCES);
 
 	private XmlUtil() {}
 
 	static byte[] domToBytes(final Document document) {
 		var byteArrayOutputStream = new ByteArrayOutputStream();
-		transform(getTransformer(), new DOMSource(document), new StreamResult(byteArrayOutputStream));
+		transform(new DOMSource(document), new StreamResult(byteArrayOutputStream));
 		return byteArrayOutputStream.toByteArray();
 	}
 
 	static Transformer getTransformer() {
 		try {
-			var transformer = TransformerFactory.newInstance().newTransformer();
+			Transformer transformer;
+			synchronized (TRANSFORMER_FACTORY) {
+				transformer = TRANSFORMER_FACTORY.newTransformer();
+			}
 			transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
 			return transformer;
 		} catch (TransformerException e) {
@@ -112,6 +131,35 @@ public final class XmlUtil {
 		};
 	}
 
+	/**
+	 * Create a new, empty, namespace aware document.
+	 *
+	 * @return a new document
+	 */
+	public static Document newDocument() {
+		var documentBuilder = borrowDocumentBuilder(true);
+		try {
+			return documentBuilder.newDocument();
+		} finally {
+			releaseDocumentBuilder(documentBuilder, true);
+		}
+	}
+
+	static DocumentBuilder borrowDocumentBuilder(final boolean namespaceAware) {
+		var documentBuilder = getDocumentBuilders(namespaceAware).poll();
+		return documentBuilder != null ? documentBuilder : createDocumentBuilder(namespaceAware);
+	}
+
+	static void releaseDocumentBuilder(final DocumentBuilder documentBuilder, final boolean namespaceAware) {
+		documentBuilder.reset();
+		// Discarded if the pool already is full
+		getDocumentBuilders(namespaceAware).offer(documentBuilder);
+	}
+
+	private static BlockingQueue<DocumentBuilder> getDocumentBuilders(final boolean namespaceAware) {
+		return namespaceAware ? NAMESPACE_AWARE_DOCUMENT_BUILDERS : DOCUMENT_BUILDERS;
+	}
+
 	private static DocumentBuilderFactory createDocumentBuilderFactory(final boolean namespaceAware) {
 		try {
 			var documentBuilderFactory = DocumentBuilderFactory.newInstance();
@@ -126,8 +174,11 @@ public final class XmlUtil {
 	}
 
 	static DocumentBuilder createDocumentBuilder(final boolean namespaceAware) {
+		var documentBuilderFactory = namespaceAware ? NAMESPACE_AWARE_DOCUMENT_BUILDER_FACTORY : DOCUMENT_BUILDER_FACTORY;
 		try {
-			return createDocumentBuilderFactory(namespaceAware).newDocumentBuilder();
+			synchronized (documentBuilderFactory) {
+				return documentBuilderFactory.newDocumentBuilder();
+			}
 		} catch (Exception e) {
 			throw Problem.builder()
 				.withTitle("Couldn't create document builder")
@@ -148,7 +199,7 @@ public final class XmlUtil {
 	private static XMLStreamReader createXmlStreamReader(final String s) {
 		XMLStreamReader xmlStreamReader;
 		try {
-			xmlStreamReader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(s));
+			xmlStreamReader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(s));
 		} catch (XMLStreamException e) {
 			throw Problem.builder()
 				.withTitle("Couldn't create XML stream reader")
@@ -182,6 +233,15 @@ public final class XmlUtil {
 	}
 
 	public static void transform(final Source source, final Result result) {
-		transform(getTransformer(), source, result);
+		var transformer = TRANSFORMERS.poll();
+		if (transformer == null) {
+			transformer = getTransformer();
+		}
+
+		transform(transformer, source, result);
+
+		// Only successfully used transformers are returned. No reset() here, it would also clear the output properties set
+		// at creation, and no parameters or resolvers are ever set on the pooled transformers.
+		TRANSFORMERS.offer(transformer);
 	}
 }
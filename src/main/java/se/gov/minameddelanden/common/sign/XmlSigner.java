@@ -0,0 +1,125 @@
+package se.gov.minameddelanden.common.sign;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.SignatureMethod;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import org.w3c.dom.Document;
+import se.gov.minameddelanden.common.X509CertificateWithPrivateKey;
+import se.sundsvall.dept44.problem.Problem;
+
+import static java.util.Collections.singletonList;
+import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static se.gov.minameddelanden.common.XmlUtil.removeXmlNsPrefixes;
+
+/**
+ * Creates enveloped signatures for a single certificate. Everything that does not depend on the document (algorithms
+ * and the KeyInfo with the certificate) is created once, the Reference and SignedInfo are created per signature since
+ * they hold state (digest values) while signing.
+ * <p>
+ * Instances are thread safe and meant to be shared. The shared XMLSignatureFactory is only used to create new objects,
+ * which is stateless in the JDK DOM implementation.
+ */
+public final class XmlSigner {
+
+	private final X509CertificateWithPrivateKey certificateWithPrivateKey;
+	private final XMLSignatureFactory xmlSignatureFactory;
+	private final DigestMethod digestMethod;
+	private final List<Transform> transforms;
+	private final CanonicalizationMethod canonicalizationMethod;
+	private final SignatureMethod signatureMethod;
+	private final KeyInfo keyInfo;
+
+	public XmlSigner(final X509CertificateWithPrivateKey certificateWithPrivateKey) {
+		this.certificateWithPrivateKey = certificateWithPrivateKey;
+
+		try {
+			// Om appservern (ex. vis WebSphere) använder egen implementation av krypto
+			// kan följande behövas användas :
+			// String providerName = "org.jcp.xml.dsig.internal.dom.XMLDSigRI";
+			// XMLSignatureFactory xmlSignatureFactory = XMLSignatureFactory.getInstance("DOM", (Provider)
+			// Class.forName(providerName).newInstance());
+			xmlSignatureFactory = XMLSignatureFactory.getInstance("DOM");
+
+			// SHA256 digest and the ENVELOPED transform for the reference to the signed document
+			digestMethod = xmlSignatureFactory.newDigestMethod(DigestMethod.SHA256, null);
+			transforms = singletonList(xmlSignatureFactory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null));
+
+			// Algorithms for the SignedInfo
+			canonicalizationMethod = xmlSignatureFactory.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE, (C14NMethodParameterSpec) null);
+			signatureMethod = xmlSignatureFactory.newSignatureMethod(SignatureMethod.RSA_SHA256, null);
+
+			// The KeyInfo containing the X509Data
+			var keyInfoFactory = xmlSignatureFactory.getKeyInfoFactory();
+			var x509Content = new ArrayList<>();
+			x509Content.add(certificateWithPrivateKey.certificate().getSubjectX500Principal().getName());
+			x509Content.add(certificateWithPrivateKey.certificate());
+			var x509Data = keyInfoFactory.newX509Data(x509Content);
+			keyInfo = keyInfoFactory.newKeyInfo(singletonList(x509Data));
+		} catch (Exception e) {
+			throw Problem.builder()
+				.withTitle("Couldn't create XML signer")
+				.withStatus(INTERNAL_SERVER_ERROR)
+				.build();
+		}
+	}
+
+	/**
+	 * Sign the document. If the document element has an Id attribute the signature will reference it, otherwise the whole
+	 * document is referenced.
+	 *
+	 * @param  doc the document to sign, the signature is added to the document element
+	 * @return     the created signature
+	 */
+	public XMLSignature sign(final Document doc) {
+		var element = doc.getDocumentElement();
+		var ref = element.getAttribute("Id");
+
+		if (ref.isEmpty()) {
+			ref = "";
+		} else {
+			ref = "#" + ref;
+			setId(doc);
+		}
+
+		return sign(doc, ref);
+	}
+
+	public XMLSignature sign(final Document doc, final String uriRef) {
+		removeXmlNsPrefixes(doc);
+
+		try {
+			var reference = xmlSignatureFactory.newReference(uriRef, digestMethod, transforms, null, null);
+			var signedInfo = xmlSignatureFactory.newSignedInfo(canonicalizationMethod, signatureMethod, singletonList(reference));
+
+			// Create a DOMSignContext and specify the RSA PrivateKey and
+			// location of the resulting XMLSignature's parent element.
+			var signContext = new DOMSignContext(certificateWithPrivateKey.privateKey(), doc.getDocumentElement());
+
+			// Marshal, generate, and sign the enveloped signature.
+			var signature = xmlSignatureFactory.newXMLSignature(signedInfo, keyInfo);
+			signature.sign(signContext);
+
+			return signature;
+		} catch (Exception e) {
+			throw Problem.builder()
+				.withTitle("Couldn't sign XML document")
+				.withStatus(INTERNAL_SERVER_ERROR)
+				.build();
+		}
+	}
+
+	private static void setId(final Document document) {
+		var element = document.getDocumentElement();
+		var attr = element.getAttributeNode("Id");
+		element.setIdAttributeNode(attr, true);
+	}
+}
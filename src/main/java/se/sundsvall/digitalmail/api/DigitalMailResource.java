@@ -7,38 +7,58 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotEmpty;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Optional;
 import org.hibernate.validator.constraints.UniqueElements;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import se.sundsvall.dept44.common.validators.annotation.ValidMunicipalityId;
 import se.sundsvall.dept44.common.validators.annotation.ValidOrganizationNumber;
 import se.sundsvall.dept44.common.validators.annotation.ValidUuid;
 import se.sundsvall.dept44.problem.Problem;
 import se.sundsvall.dept44.problem.violations.ConstraintViolationProblem;
+import se.sundsvall.digitalmail.api.model.AsyncDelivery;
+import se.sundsvall.digitalmail.api.model.BodyInformation;
+import se.sundsvall.digitalmail.api.model.DeliveryStatus;
 import se.sundsvall.digitalmail.api.model.DigitalInvoiceRequest;
 import se.sundsvall.digitalmail.api.model.DigitalInvoiceResponse;
+import se.sundsvall.digitalmail.api.model.DigitalMailBatchRequest;
 import se.sundsvall.digitalmail.api.model.DigitalMailRequest;
 import se.sundsvall.digitalmail.api.model.DigitalMailResponse;
 import se.sundsvall.digitalmail.api.model.Mailbox;
+import se.sundsvall.digitalmail.api.model.ReachabilityJob;
+import se.sundsvall.digitalmail.api.model.ReachabilityJobResults;
 import se.sundsvall.digitalmail.api.model.validation.HtmlValidator;
 import se.sundsvall.digitalmail.api.model.validation.annotation.ValidSender;
 import se.sundsvall.digitalmail.integration.kivra.InvoiceDto;
 import se.sundsvall.digitalmail.integration.skatteverket.DigitalMailDto;
+import se.sundsvall.digitalmail.service.AsyncDeliveryService;
 import se.sundsvall.digitalmail.service.DigitalMailService;
+import se.sundsvall.digitalmail.service.ReachabilityJobService;
+import tools.jackson.databind.json.JsonMapper;
 
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON_VALUE;
 import static org.springframework.http.MediaType.APPLICATION_PROBLEM_JSON_VALUE;
 import static org.springframework.http.MediaType.TEXT_HTML_VALUE;
+import static org.springframework.http.ResponseEntity.accepted;
 import static org.springframework.http.ResponseEntity.ok;
+import static org.springframework.web.util.UriComponentsBuilder.fromPath;
 
 @RestController
 @Validated
@@ -63,11 +83,21 @@ class DigitalMailResource {
 
 	private final DigitalMailService digitalMailService;
 
+	private final AsyncDeliveryService asyncDeliveryService;
+
 	private final HtmlValidator htmlValidator;
 
-	DigitalMailResource(final DigitalMailService digitalMailService, final HtmlValidator htmlValidator) {
+	private final ReachabilityJobService reachabilityJobService;
+
+	private final JsonMapper jsonMapper;
+
+	DigitalMailResource(final DigitalMailService digitalMailService, final AsyncDeliveryService asyncDeliveryService, final HtmlValidator htmlValidator,
+		final ReachabilityJobService reachabilityJobService, final JsonMapper jsonMapper) {
 		this.digitalMailService = digitalMailService;
+		this.asyncDeliveryService = asyncDeliveryService;
 		this.htmlValidator = htmlValidator;
+		this.reachabilityJobService = reachabilityJobService;
+		this.jsonMapper = jsonMapper;
 	}
 
 	@Operation(summary = "Send a digital mail")
@@ -85,20 +115,67 @@ class DigitalMailResource {
 		@Parameter(name = "organizationNumber", description = "The organization number of the sending organization", example = "5561234567") @ValidSender @ValidOrganizationNumber @PathVariable final String organizationNumber,
 		@Valid @RequestBody final DigitalMailRequest request) {
 
-		// Validate the body as HTML if the content type is text/html
-		Optional.ofNullable(request.getBodyInformation())
-			.filter(bodyInfo -> TEXT_HTML_VALUE.equals(bodyInfo.getContentType()) && !htmlValidator.validate(bodyInfo.getBody()))
-			.ifPresent(bodyInfo -> {
-				throw Problem.builder()
-					.withTitle("Body HTML is invalid")
-					.withStatus(BAD_REQUEST)
-					.withDetail("Use https://validator.w3.org/ to make sure your HTML validates")
-					.build();
-			});
+		validateHtmlBody(request.getBodyInformation());
 
 		return ok(digitalMailService.sendDigitalMail(new DigitalMailDto(request, organizationNumber), municipalityId));
 	}
 
+	@Operation(summary = "Send the same digital mail to multiple recipients. Returns a delivery status for each recipient.")
+	@PostMapping(
+		value = "/{organizationNumber}/send-digital-mail/batch",
+		consumes = APPLICATION_JSON_VALUE,
+		produces = APPLICATION_JSON_VALUE)
+	ResponseEntity<List<DeliveryStatus>> sendDigitalMailBatch(
+		@Parameter(name = "municipalityId", description = "Municipality id", example = "2281") @ValidMunicipalityId @PathVariable final String municipalityId,
+		@Parameter(name = "organizationNumber", description = "The organization number of the sending organization", example = "5561234567") @ValidSender @ValidOrganizationNumber @PathVariable final String organizationNumber,
+		@Valid @RequestBody final DigitalMailBatchRequest request) {
+
+		// The body is the same for all recipients, so it only needs to be validated once
+		validateHtmlBody(request.getBodyInformation());
+
+		return ok(digitalMailService.sendDigitalMailBatch(request, organizationNumber, municipalityId));
+	}
+
+	@Operation(summary = "Send a digital mail asynchronously. The mail is queued and the returned delivery id can be used to poll for the delivery status.")
+	@ApiResponse(responseCode = "202",
+		description = "Accepted",
+		useReturnTypeSchema = true)
+	@PostMapping(
+		value = "/{organizationNumber}/send-digital-mail/async",
+		consumes = APPLICATION_JSON_VALUE,
+		produces = APPLICATION_JSON_VALUE)
+	ResponseEntity<AsyncDelivery> sendDigitalMailAsync(
+		@Parameter(name = "municipalityId", description = "Municipality id", example = "2281") @ValidMunicipalityId @PathVariable final String municipalityId,
+		@Parameter(name = "organizationNumber", description = "The organization number of the sending organization", example = "5561234567") @ValidSender @ValidOrganizationNumber @PathVariable final String organizationNumber,
+		@Valid @RequestBody final DigitalMailRequest request) {
+
+		validateHtmlBody(request.getBodyInformation());
+
+		final var delivery = asyncDeliveryService.enqueue(request, organizationNumber, municipalityId);
+
+		return accepted()
+			.location(fromPath("/{municipalityId}/{organizationNumber}/deliveries/{deliveryId}")
+				.buildAndExpand(municipalityId, organizationNumber, delivery.getDeliveryId())
+				.toUri())
+			.body(delivery);
+	}
+
+	@Operation(summary = "Get the status of an asynchronous digital mail delivery")
+	@ApiResponse(responseCode = "404",
+		description = "Not Found",
+		content = @Content(
+			mediaType = APPLICATION_PROBLEM_JSON_VALUE,
+			schema = @Schema(implementation = Problem.class)))
+	@GetMapping(
+		value = "/{organizationNumber}/deliveries/{deliveryId}",
+		produces = APPLICATION_JSON_VALUE)
+	ResponseEntity<AsyncDelivery> getDelivery(
+		@Parameter(name = "municipalityId", description = "Municipality id", example = "2281") @ValidMunicipalityId @PathVariable final String municipalityId,
+		@Parameter(name = "organizationNumber", description = "The organization number of the sending organization", example = "5561234567") @ValidOrganizationNumber @PathVariable final String organizationNumber,
+		@Parameter(name = "deliveryId", description = "Id of the delivery", example = "b82bd8ac-1507-4d9a-958d-369261eecc15") @ValidUuid @PathVariable final String deliveryId) {
+		return ok(asyncDeliveryService.getDelivery(deliveryId, organizationNumber, municipalityId));
+	}
+
 	@Operation(summary = "Send a digital invoice")
 	@ApiResponse(responseCode = "404",
 		description = "Not Found",
@@ -127,4 +204,105 @@ class DigitalMailResource {
 		@RequestBody @UniqueElements @NotEmpty final List<@ValidUuid String> partyIds) {
 		return ok(digitalMailService.getMailboxes(partyIds, municipalityId, organizationNumber));
 	}
+
+	// Meant for very large lists of partyIds. Mailboxes are written as newline delimited JSON, one mailbox per line, as
+	// soon as each chunk of partyIds is done. An error after the first chunk has been written can't be turned into a
+	// problem response, the response is then cut off instead.
+	@Operation(summary = "Retrieve a stream of mailboxes, as newline delimited JSON. Contains partyId, supplier and if the mailbox is reachable for the given organization.")
+	@ApiResponse(responseCode = "200",
+		description = "Successful Operation",
+		content = @Content(
+			mediaType = APPLICATION_NDJSON_VALUE,
+			schema = @Schema(implementation = Mailbox.class)))
+	@PostMapping(
+		value = "/{organizationNumber}/mailboxes/stream",
+		consumes = APPLICATION_JSON_VALUE,
+		produces = APPLICATION_NDJSON_VALUE)
+	ResponseEntity<StreamingResponseBody> streamAvailableMailboxes(
+		@Parameter(name = "municipalityId", description = "Municipality id", example = "2281") @ValidMunicipalityId @PathVariable final String municipalityId,
+		@Parameter(name = "organizationNumber", description = "The organization number of the intended sending organization", example = "5561234567") @ValidSender @ValidOrganizationNumber @PathVariable final String organizationNumber,
+		@RequestBody @UniqueElements @NotEmpty final List<@ValidUuid String> partyIds) {
+		return ok()
+			.contentType(APPLICATION_NDJSON)
+			.body(outputStream -> digitalMailService.streamMailboxes(partyIds, municipalityId, organizationNumber, mailboxes -> {
+				try {
+					for (final var mailbox : mailboxes) {
+						outputStream.write(jsonMapper.writeValueAsBytes(mailbox));
+						outputStream.write('\n');
+					}
+					outputStream.flush();
+				} catch (final IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}));
+	}
+
+	@Operation(summary = "Submit a bulk reachability job for a large list of partyIds. The job is processed in the background and the returned job id can be used to poll for the status and fetch the results.")
+	@ApiResponse(responseCode = "202",
+		description = "Accepted",
+		useReturnTypeSchema = true)
+	@PostMapping(
+		value = "/{organizationNumber}/mailboxes/jobs",
+		consumes = APPLICATION_JSON_VALUE,
+		produces = APPLICATION_JSON_VALUE)
+	ResponseEntity<ReachabilityJob> submitReachabilityJob(
+		@Parameter(name = "municipalityId", description = "Municipality id", example = "2281") @ValidMunicipalityId @PathVariable final String municipalityId,
+		@Parameter(name = "organizationNumber", description = "The organization number of the intended sending organization", example = "5561234567") @ValidSender @ValidOrganizationNumber @PathVariable final String organizationNumber,
+		@RequestBody @UniqueElements @NotEmpty final List<@ValidUuid String> partyIds) {
+
+		final var job = reachabilityJobService.submit(partyIds, organizationNumber, municipalityId);
+
+		return accepted()
+			.location(fromPath("/{municipalityId}/{organizationNumber}/mailboxes/jobs/{jobId}")
+				.buildAndExpand(municipalityId, organizationNumber, job.getJobId())
+				.toUri())
+			.body(job);
+	}
+
+	@Operation(summary = "Get the status of a bulk reachability job")
+	@ApiResponse(responseCode = "404",
+		description = "Not Found",
+		content = @Content(
+			mediaType = APPLICATION_PROBLEM_JSON_VALUE,
+			schema = @Schema(implementation = Problem.class)))
+	@GetMapping(
+		value = "/{organizationNumber}/mailboxes/jobs/{jobId}",
+		produces = APPLICATION_JSON_VALUE)
+	ResponseEntity<ReachabilityJob> getReachabilityJob(
+		@Parameter(name = "municipalityId", description = "Municipality id", example = "2281") @ValidMunicipalityId @PathVariable final String municipalityId,
+		@Parameter(name = "organizationNumber", description = "The organization number of the intended sending organization", example = "5561234567") @ValidOrganizationNumber @PathVariable final String organizationNumber,
+		@Parameter(name = "jobId", description = "Id of the job", example = "b82bd8ac-1507-4d9a-958d-369261eecc15") @ValidUuid @PathVariable final String jobId) {
+		return ok(reachabilityJobService.getJob(jobId, organizationNumber, municipalityId));
+	}
+
+	@Operation(summary = "Get a page of the mailboxes processed so far by a bulk reachability job")
+	@ApiResponse(responseCode = "404",
+		description = "Not Found",
+		content = @Content(
+			mediaType = APPLICATION_PROBLEM_JSON_VALUE,
+			schema = @Schema(implementation = Problem.class)))
+	@GetMapping(
+		value = "/{organizationNumber}/mailboxes/jobs/{jobId}/results",
+		produces = APPLICATION_JSON_VALUE)
+	ResponseEntity<ReachabilityJobResults> getReachabilityJobResults(
+		@Parameter(name = "municipalityId", description = "Municipality id", example = "2281") @ValidMunicipalityId @PathVariable final String municipalityId,
+		@Parameter(name = "organizationNumber", description = "The organization number of the intended sending organization", example = "5561234567") @ValidOrganizationNumber @PathVariable final String organizationNumber,
+		@Parameter(name = "jobId", description = "Id of the job", example = "b82bd8ac-1507-4d9a-958d-369261eecc15") @ValidUuid @PathVariable final String jobId,
+		@Parameter(name = "page", description = "Page to fetch, starting at 0", example = "0") @RequestParam(defaultValue = "0") @Min(0) final int page,
+		@Parameter(name = "limit", description = "Max number of mailboxes per page", example = "1000") @RequestParam(defaultValue = "1000") @Min(1) @Max(10000) final int limit) {
+		return ok(reachabilityJobService.getResults(jobId, organizationNumber, municipalityId, page, limit));
+	}
+
+	// Validate the body as HTML if the content type is text/html
+	private void validateHtmlBody(final BodyInformation bodyInformation) {
+		Optional.ofNullable(bodyInformation)
+			.filter(bodyInfo -> TEXT_HTML_VALUE.equals(bodyInfo.getContentType()) && !htmlValidator.validate(bodyInfo.getBody()))
+			.ifPresent(bodyInfo -> {
+				throw Problem.builder()
+					.withTitle("Body HTML is invalid")
+					.withStatus(BAD_REQUEST)
+					.withDetail("Use https://validator.w3.org/ to make sure your HTML validates")
+					.build();
+			});
+	}
 }
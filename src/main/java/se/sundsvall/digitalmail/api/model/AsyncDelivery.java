@@ -0,0 +1,37 @@
+package se.sundsvall.digitalmail.api.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.OffsetDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import se.sundsvall.digitalmail.domain.delivery.DeliveryState;
+
+@Data
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Status of an asynchronous digital mail delivery")
+public class AsyncDelivery {
+
+	@Schema(description = "Id of the delivery, used when polling for the status", examples = "b82bd8ac-1507-4d9a-958d-369261eecc15")
+	private String deliveryId;
+
+	@Schema(description = "partyId for the person or organization the digital mail is sent to", examples = "6a5c3d04-412d-11ec-973a-0242ac130003")
+	private String partyId;
+
+	private DeliveryState state;
+
+	@Schema(description = "Transaction id from Skatteverket, present when the digital mail has been sent")
+	private String transactionId;
+
+	@Schema(description = "Details about why the delivery failed, if it did")
+	private String detail;
+
+	@Schema(description = "When the delivery was accepted")
+	private OffsetDateTime created;
+
+	@Schema(description = "When the delivery was last updated")
+	private OffsetDateTime modified;
+}
@@ -0,0 +1,50 @@
+package se.sundsvall.digitalmail.api.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.validator.constraints.UniqueElements;
+import se.sundsvall.dept44.common.validators.annotation.ValidUuid;
+
+import static io.swagger.v3.oas.annotations.media.Schema.RequiredMode.REQUIRED;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+@Builder(setterPrefix = "with")
+@Schema(description = "The body of a digital mail batch request, i.e. one message sent to multiple recipients")
+public class DigitalMailBatchRequest {
+
+	@NotEmpty
+	@UniqueElements
+	@Schema(description = "partyIds for the persons or organizations the digital mail should be sent to", requiredMode = REQUIRED)
+	private List<@ValidUuid String> partyIds;
+
+	@NotBlank
+	@Schema(description = "The subject of the digital mail.", examples = "Viktig information från Sundsvalls kommun", requiredMode = REQUIRED)
+	private String headerSubject;
+
+	@NotNull
+	@Valid
+	private SupportInfo supportInfo;
+
+	@Builder.Default
+	private List<@Valid File> attachments = new ArrayList<>();
+
+	@Valid
+	private BodyInformation bodyInformation;
+}
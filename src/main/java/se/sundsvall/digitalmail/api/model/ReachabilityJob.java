@@ -0,0 +1,37 @@
+package se.sundsvall.digitalmail.api.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.OffsetDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState;
+
+@Data
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Status of a bulk reachability job")
+public class ReachabilityJob {
+
+	@Schema(description = "Id of the job, used when polling for the status and fetching the results", examples = "b82bd8ac-1507-4d9a-958d-369261eecc15")
+	private String jobId;
+
+	private ReachabilityJobState state;
+
+	@Schema(description = "Number of partyIds in the job", examples = "250000")
+	private int total;
+
+	@Schema(description = "Number of partyIds processed so far", examples = "12000")
+	private int processed;
+
+	@Schema(description = "Details about why the job failed, if it did")
+	private String detail;
+
+	@Schema(description = "When the job was accepted")
+	private OffsetDateTime created;
+
+	@Schema(description = "When the job was last updated")
+	private OffsetDateTime modified;
+}
@@ -0,0 +1,31 @@
+package se.sundsvall.digitalmail.api.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "A page of mailboxes from a bulk reachability job")
+public class ReachabilityJobResults {
+
+	@Schema(description = "Current page, starting at 0", examples = "0")
+	private int page;
+
+	@Schema(description = "Max number of mailboxes per page", examples = "1000")
+	private int limit;
+
+	@Schema(description = "Total number of mailboxes processed so far", examples = "12000")
+	private long totalRecords;
+
+	@Schema(description = "Total number of pages of mailboxes processed so far", examples = "12")
+	private int totalPages;
+
+	@Schema(description = "The mailboxes on the page, in the same order as the partyIds were submitted")
+	private List<Mailbox> mailboxes;
+}
@@ -1,22 +1,109 @@
 package se.sundsvall.digitalmail.api.model.validation;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.validation.ValidationException;
 import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 import nu.validator.client.EmbeddedValidator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
+import se.sundsvall.dept44.problem.Problem;
+import se.sundsvall.dept44.problem.ThrowableProblem;
+import se.sundsvall.digitalmail.configuration.HtmlValidationCacheProperties;
+import se.sundsvall.digitalmail.configuration.HtmlValidationProperties;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.apache.commons.lang3.StringUtils.isBlank;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+import static se.sundsvall.digitalmail.configuration.ExecutorConfiguration.HTML_VALIDATION_EXECUTOR;
 
+/**
+ * Validates base64 encoded HTML bodies.
+ * <p>
+ * Bodies are first checked for obvious faults, like being too big, not being UTF-8 or lacking the HTML doctype, which
+ * the full validator would report as errors anyway. The full validator is run on a bounded executor, where each thread
+ * uses a validator instance of its own. When the executor is saturated, or a body isn't validated within the timeout, the
+ * request is rejected as unavailable rather than the body being treated as invalid.
+ * <p>
+ * A validation that times out is cancelled, but the validator doesn't check for interruption, so a stuck validation
+ * keeps its executor thread until it's done. To not tie up more threads with the same body, a body that timed out is
+ * rejected as unavailable without being validated again for a short while.
+ * <p>
+ * The same HTML body is often sent to a large number of recipients, so validation results are cached by a hash of the
+ * decoded HTML, and an identical body is only validated once.
+ */
 @Component
 public class HtmlValidator {
 
-	private static final EmbeddedValidator HTML_VALIDATOR = new EmbeddedValidator();
+	static final String HTML_VALIDATION_CACHE = "htmlValidationCache";
+	static final String VALIDATION_TIMER = "digitalmail.html.validation";
+	static final String REJECTED_COUNTER = "digitalmail.html.validation.rejected";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HtmlValidator.class);
 	private static final Gson GSON = new GsonBuilder().create();
 	private static final Base64.Decoder BASE64_DECODER = Base64.getDecoder();
+	private static final String DOCTYPE = "<!doctype html";
+	private static final String BYTE_ORDER_MARK = "\uFEFF";
+
+	private final ThreadPoolTaskExecutor validationExecutor;
+	private final BlockingQueue<EmbeddedValidator> validators;
+	private final Duration timeout;
+	private final long maxSize;
+	private final Cache<String, Boolean> validationCache;
+	private final Cache<String, Boolean> timedOut;
+	private final MeterRegistry meterRegistry;
+
+	HtmlValidator(final HtmlValidationProperties properties, final HtmlValidationCacheProperties cacheProperties,
+		@Qualifier(HTML_VALIDATION_EXECUTOR) final ThreadPoolTaskExecutor validationExecutor, final MeterRegistry meterRegistry) {
+		this.validationExecutor = validationExecutor;
+		this.timeout = properties.timeout();
+		this.maxSize = properties.maxSize().toBytes();
+		this.meterRegistry = meterRegistry;
+
+		// The EmbeddedValidator isn't thread safe, at most one validation per executor thread is running at a time
+		this.validators = new ArrayBlockingQueue<>(validationExecutor.getMaxPoolSize());
+		for (var i = 0; i < validationExecutor.getMaxPoolSize(); i++) {
+			validators.add(new EmbeddedValidator());
+		}
+
+		this.validationCache = Caffeine.newBuilder()
+			.maximumSize(cacheProperties.maxSize())
+			.expireAfterWrite(cacheProperties.ttl())
+			.recordStats()
+			.build();
+
+		CaffeineCacheMetrics.monitor(meterRegistry, validationCache, HTML_VALIDATION_CACHE);
+
+		this.timedOut = Caffeine.newBuilder()
+			.maximumSize(cacheProperties.maxSize())
+			.expireAfterWrite(properties.timedOutTtl())
+			.build();
+	}
 
 	public boolean validate(final String value) {
 		// Treat empty HTML as invalid
@@ -24,17 +111,160 @@ public class HtmlValidator {
 			return false;
 		}
 
+		final byte[] html;
 		try {
 			// Decode the BASE64-encoded HTML
-			final var html = new String(BASE64_DECODER.decode(value.trim()));
-			// Validate
-			final var validationResultAsString = HTML_VALIDATOR.validate(new ByteArrayInputStream(html.getBytes()));
-			// Check
-			final var validationResult = GSON.fromJson(validationResultAsString, ValidationResult.class);
+			html = BASE64_DECODER.decode(value.trim());
+		} catch (final IllegalArgumentException e) {
+			throw new ValidationException("Unable to validate HTML", e);
+		}
 
-			return validationResult.isValid();
-		} catch (final Exception e) {
+		final var rejectReason = preCheck(html);
+		if (rejectReason.isPresent()) {
+			rejected(rejectReason.get());
+			return false;
+		}
+
+		// Validate, unless an identical body has been validated already
+		final var key = sha256(html);
+		final var cached = validationCache.getIfPresent(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		if (timedOut.getIfPresent(key) != null) {
+			rejected("timed_out");
+			throw unavailable();
+		}
+
+		final var valid = validateInPool(html, key);
+		validationCache.put(key, valid);
+		return valid;
+	}
+
+	/**
+	 * Cheap checks for faults the full validator would report as errors.
+	 *
+	 * @param  html the decoded HTML
+	 * @return      the reason to reject the HTML without validating it, if any
+	 */
+	private Optional<String> preCheck(final byte[] html) {
+		if (html.length > maxSize) {
+			return Optional.of("too_big");
+		}
+
+		final String text;
+		try {
+			text = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(html)).toString();
+		} catch (final CharacterCodingException e) {
+			return Optional.of("not_utf8");
+		}
+
+		if (!startsWithDoctype(text)) {
+			return Optional.of("no_doctype");
+		}
+		return Optional.empty();
+	}
+
+	// The doctype must come first, after an optional byte order mark, whitespace and comments
+	private static boolean startsWithDoctype(final String text) {
+		var position = text.startsWith(BYTE_ORDER_MARK) ? 1 : 0;
+		while (true) {
+			while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+				position++;
+			}
+			if (!text.startsWith("<!--", position)) {
+				return text.regionMatches(true, position, DOCTYPE, 0, DOCTYPE.length());
+			}
+
+			final var commentEnd = text.indexOf("-->", position + 4);
+			if (commentEnd < 0) {
+				return false;
+			}
+			position = commentEnd + 3;
+		}
+	}
+
+	private boolean validateInPool(final byte[] html, final String key) {
+		final var start = System.nanoTime();
+		final var future = submit(html);
+
+		try {
+			final var valid = future.get(timeout.toNanos(), NANOSECONDS);
+			record(valid ? "valid" : "invalid", start);
+			return valid;
+		} catch (final TimeoutException e) {
+			LOGGER.warn("Validation of HTML exceeded the timeout of {}", timeout);
+			// The validator is replaced if the interrupted validation leaves it broken
+			future.cancel(true);
+			timedOut.put(key, Boolean.TRUE);
+			record("timeout", start);
+			// The timeout includes the time waiting in the queue, so it's a sign of overload rather than of invalid HTML
+			throw unavailable();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future.cancel(true);
 			throw new ValidationException("Unable to validate HTML", e);
+		} catch (final ExecutionException e) {
+			throw new ValidationException("Unable to validate HTML", e.getCause());
+		}
+	}
+
+	private Future<Boolean> submit(final byte[] html) {
+		try {
+			return validationExecutor.submit(() -> validateWithPooledValidator(html));
+		} catch (final TaskRejectedException e) {
+			rejected("saturated");
+			throw unavailable();
+		}
+	}
+
+	private static ThrowableProblem unavailable() {
+		return Problem.builder()
+			.withTitle("Unable to validate HTML")
+			.withStatus(SERVICE_UNAVAILABLE)
+			.withDetail("Too many HTML bodies are being validated, try again later")
+			.build();
+	}
+
+	private boolean validateWithPooledValidator(final byte[] html) throws Exception {
+		final var validator = Optional.ofNullable(validators.poll()).orElseGet(EmbeddedValidator::new);
+		try {
+			final var validationResultAsString = validator.validate(new ByteArrayInputStream(html));
+			final var valid = GSON.fromJson(validationResultAsString, ValidationResult.class).isValid();
+			validators.offer(validator);
+			return valid;
+		} catch (final Exception e) {
+			// The state of the validator is unknown after a failure, so it's replaced with a new one
+			validators.offer(new EmbeddedValidator());
+			throw e;
+		}
+	}
+
+	private void record(final String outcome, final long start) {
+		Timer.builder(VALIDATION_TIMER)
+			.description("Time spent validating HTML bodies, including the time waiting for a validator")
+			.tag("outcome", outcome)
+			.publishPercentiles(0.5, 0.95, 0.99)
+			.publishPercentileHistogram()
+			.register(meterRegistry)
+			.record(System.nanoTime() - start, NANOSECONDS);
+	}
+
+	private void rejected(final String reason) {
+		Counter.builder(REJECTED_COUNTER)
+			.description("Number of HTML bodies rejected without being validated")
+			.tag("reason", reason)
+			.register(meterRegistry)
+			.increment();
+	}
+
+	private static String sha256(final byte[] content) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (final NoSuchAlgorithmException e) {
+			// SHA-256 is supported by every Java platform
+			throw new IllegalStateException(e);
 		}
 	}
 
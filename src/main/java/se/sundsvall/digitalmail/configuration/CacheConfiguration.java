@@ -1,9 +1,52 @@
 package se.sundsvall.digitalmail.configuration;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.boot.cache.autoconfigure.CacheManagerCustomizer;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.support.NullValue;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 @EnableCaching
 public class CacheConfiguration {
+
+	public static final String PARTY_CACHE = "partyCache";
+
+	/**
+	 * Bounds the party cache. Only applied when Caffeine is the cache provider, i.e. not when caching is disabled with
+	 * spring.cache.type=none.
+	 */
+	@Bean
+	public CacheManagerCustomizer<CaffeineCacheManager> partyCacheCustomizer(final PartyCacheProperties properties) {
+		return cacheManager -> cacheManager.registerCustomCache(PARTY_CACHE, Caffeine.newBuilder()
+			.maximumSize(properties.maxSize())
+			.expireAfter(new PartyCacheExpiry(properties))
+			.recordStats()
+			.build());
+	}
+
+	/**
+	 * Parties not found (cached as {@link NullValue}) expire sooner than found ones, since they might be created at any
+	 * time while a found legal id practically never changes.
+	 */
+	record PartyCacheExpiry(PartyCacheProperties properties) implements Expiry<Object, Object> {
+
+		@Override
+		public long expireAfterCreate(final Object key, final Object value, final long currentTime) {
+			return value instanceof NullValue ? properties.emptyTtl().toNanos() : properties.ttl().toNanos();
+		}
+
+		@Override
+		public long expireAfterUpdate(final Object key, final Object value, final long currentTime, final long currentDuration) {
+			return expireAfterCreate(key, value, currentTime);
+		}
+
+		@Override
+		public long expireAfterRead(final Object key, final Object value, final long currentTime, final long currentDuration) {
+			return currentDuration;
+		}
+	}
 }
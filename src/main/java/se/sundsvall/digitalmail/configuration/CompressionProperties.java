@@ -0,0 +1,19 @@
+package se.sundsvall.digitalmail.configuration;
+
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties(prefix = "compression")
+public record CompressionProperties(
+	@NotNull @DefaultValue("PT10S") Duration timeBudget,
+	@NotNull @DefaultValue("64MB") DataSize cacheMaxSize,
+	@NotNull @DefaultValue("20KB") DataSize minSize,
+	@DecimalMin("0.0") @DecimalMax("1.0") @DefaultValue("0.9") double maxImageRatio,
+	@DefaultValue("false") boolean onlyWhenTooBig) {}
@@ -0,0 +1,134 @@
+package se.sundsvall.digitalmail.configuration;
+
+import java.time.Duration;
+import java.util.Optional;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class ExecutorConfiguration {
+
+	public static final String BATCH_EXECUTOR = "batchExecutor";
+	public static final String COMPRESSION_EXECUTOR = "compressionExecutor";
+	public static final String INTEGRATION_EXECUTOR = "integrationExecutor";
+	public static final String HTML_VALIDATION_EXECUTOR = "htmlValidationExecutor";
+
+	// How long virtual thread executors wait for running tasks, e.g. deliveries in flight, when the application is stopped
+	static final Duration VIRTUAL_THREAD_TERMINATION_TIMEOUT = Duration.ofSeconds(30);
+
+	private final ExecutorProperties properties;
+	private final boolean virtualThreads;
+
+	ExecutorConfiguration(final ExecutorProperties properties, @Value("${spring.threads.virtual.enabled:false}") final boolean virtualThreads) {
+		this.properties = properties;
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Executor used when delivering a batch of digital mails. The pool size limits how many concurrent deliveries a single
+	 * instance makes towards the mailbox suppliers, regardless of how many batches are in flight.
+	 * <p>
+	 * When virtual threads are enabled (spring.threads.virtual.enabled) each delivery runs on a virtual thread of its own
+	 * instead, with the pool size as concurrency limit. Submitting more deliveries than that blocks until one is done.
+	 *
+	 * @return the executor used for batch deliveries
+	 */
+	@Bean(BATCH_EXECUTOR)
+	AsyncTaskExecutor batchExecutor() {
+		if (virtualThreads) {
+			final var executor = virtualThreadExecutor("batch-");
+			executor.setConcurrencyLimit(properties.batchPoolSize());
+			return executor;
+		}
+
+		final var executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(properties.batchPoolSize());
+		executor.setMaxPoolSize(properties.batchPoolSize());
+		executor.setThreadNamePrefix("batch-");
+		executor.setTaskDecorator(mdcPropagatingTaskDecorator());
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		return executor;
+	}
+
+	/**
+	 * Bounded pool used for compressing PDF attachments. Compression is CPU bound, so the pool size should be kept close to
+	 * the number of cores available to each instance. When the queue is full, new attachments are sent uncompressed. This
+	 * is a platform thread pool also when virtual threads are enabled, since virtual threads don't help CPU bound work.
+	 *
+	 * @return the executor used for compressing attachments
+	 */
+	@Bean(COMPRESSION_EXECUTOR)
+	ThreadPoolTaskExecutor compressionExecutor() {
+		final var executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(properties.compressionPoolSize());
+		executor.setMaxPoolSize(properties.compressionPoolSize());
+		executor.setQueueCapacity(properties.compressionQueueCapacity());
+		executor.setThreadNamePrefix("compression-");
+		executor.setTaskDecorator(mdcPropagatingTaskDecorator());
+		executor.setWaitForTasksToCompleteOnShutdown(true);
+		return executor;
+	}
+
+	/**
+	 * Bounded pool used for validating HTML bodies. Validation is CPU bound, and each thread uses a validator of its own,
+	 * so the pool size is also the number of validators. When the queue is full, new bodies are rejected until validations
+	 * in progress are done.
+	 *
+	 * @return the executor used for validating HTML bodies
+	 */
+	@Bean(HTML_VALIDATION_EXECUTOR)
+	ThreadPoolTaskExecutor htmlValidationExecutor() {
+		final var executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(properties.htmlValidationPoolSize());
+		executor.setMaxPoolSize(properties.htmlValidationPoolSize());
+		executor.setQueueCapacity(properties.htmlValidationQueueCapacity());
+		executor.setThreadNamePrefix("html-validation-");
+		executor.setTaskDecorator(mdcPropagatingTaskDecorator());
+		return executor;
+	}
+
+	/**
+	 * Executor starting a virtual thread per task, used for concurrent calls towards Party and Skatteverket. The calls are
+	 * I/O bound, so the number of concurrent calls is limited by each caller rather than by a pool.
+	 *
+	 * @return the executor used for concurrent integration calls
+	 */
+	@Bean(INTEGRATION_EXECUTOR)
+	SimpleAsyncTaskExecutor integrationExecutor() {
+		return virtualThreadExecutor("integration-");
+	}
+
+	private static SimpleAsyncTaskExecutor virtualThreadExecutor(final String threadNamePrefix) {
+		final var executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+		executor.setVirtualThreads(true);
+		executor.setTaskDecorator(mdcPropagatingTaskDecorator());
+		// Virtual threads don't keep the JVM alive, so running tasks are waited for when the context is closed
+		executor.setTaskTerminationTimeout(VIRTUAL_THREAD_TERMINATION_TIMEOUT.toMillis());
+		return executor;
+	}
+
+	/**
+	 * Copies the MDC (which holds the request id) from the submitting thread to the worker thread, so that log entries
+	 * and outgoing messages can still be correlated with the incoming request.
+	 */
+	static TaskDecorator mdcPropagatingTaskDecorator() {
+		return runnable -> {
+			final var context = MDC.getCopyOfContextMap();
+			return () -> {
+				final var previous = MDC.getCopyOfContextMap();
+				Optional.ofNullable(context).ifPresentOrElse(MDC::setContextMap, MDC::clear);
+				try {
+					runnable.run();
+				} finally {
+					Optional.ofNullable(previous).ifPresentOrElse(MDC::setContextMap, MDC::clear);
+				}
+			};
+		};
+	}
+}
@@ -0,0 +1,16 @@
+package se.sundsvall.digitalmail.configuration;
+
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties(prefix = "executor")
+public record ExecutorProperties(
+	@Positive @DefaultValue("10") int batchPoolSize,
+	@Positive @DefaultValue("4") int compressionPoolSize,
+	@PositiveOrZero @DefaultValue("100") int compressionQueueCapacity,
+	@Positive @DefaultValue("4") int htmlValidationPoolSize,
+	@PositiveOrZero @DefaultValue("100") int htmlValidationQueueCapacity) {}
@@ -0,0 +1,14 @@
+package se.sundsvall.digitalmail.configuration;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties(prefix = "cache.html-validation")
+public record HtmlValidationCacheProperties(
+	@PositiveOrZero @DefaultValue("1000") long maxSize,
+	@NotNull @DefaultValue("PT1H") Duration ttl) {}
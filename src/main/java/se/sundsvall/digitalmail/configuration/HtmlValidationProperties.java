@@ -0,0 +1,15 @@
+package se.sundsvall.digitalmail.configuration;
+
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties(prefix = "html-validation")
+public record HtmlValidationProperties(
+	@NotNull @DefaultValue("PT5S") Duration timeout,
+	@NotNull @DefaultValue("1MB") DataSize maxSize,
+	@NotNull @DefaultValue("PT1M") Duration timedOutTtl) {}
@@ -0,0 +1,15 @@
+package se.sundsvall.digitalmail.configuration;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties(prefix = "cache.party")
+public record PartyCacheProperties(
+	@PositiveOrZero @DefaultValue("100000") long maxSize,
+	@NotNull @DefaultValue("PT12H") Duration ttl,
+	@NotNull @DefaultValue("PT5M") Duration emptyTtl) {}
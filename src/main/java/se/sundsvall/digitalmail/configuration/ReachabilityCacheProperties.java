@@ -0,0 +1,16 @@
+package se.sundsvall.digitalmail.configuration;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.PositiveOrZero;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties(prefix = "cache.reachability")
+public record ReachabilityCacheProperties(
+	@PositiveOrZero @DefaultValue("100000") long maxSize,
+	@NotNull @DefaultValue("PT1H") Duration reachableTtl,
+	@NotNull @DefaultValue("PT15M") Duration unreachableTtl,
+	@NotNull @DefaultValue("PT1M") Duration pendingTtl) {}
@@ -0,0 +1,48 @@
+package se.sundsvall.digitalmail.domain.attachment;
+
+import java.util.Base64;
+import java.util.List;
+import se.sundsvall.digitalmail.api.model.File;
+
+import static java.util.Collections.emptyList;
+import static java.util.Optional.ofNullable;
+
+/**
+ * An attachment with its content decoded from base64. Attachments are decoded once and then passed on as bytes, to
+ * avoid decoding and encoding the (possibly large) content several times on the way to Skatteverket.
+ *
+ * @param contentType the content type of the attachment
+ * @param filename    the filename of the attachment
+ * @param content     the decoded content
+ * @param checksum    the MD5 checksum of the content, or null if it hasn't been calculated yet
+ */
+public record DecodedAttachment(String contentType, String filename, byte[] content, String checksum) {
+
+	public DecodedAttachment(final String contentType, final String filename, final byte[] content) {
+		this(contentType, filename, content, null);
+	}
+
+	/**
+	 * Decode a file. Malformed base64 is rejected rather than skipped, so a corrupt attachment is never sent.
+	 *
+	 * @param  file the file to decode
+	 * @return      the decoded attachment
+	 */
+	public static DecodedAttachment decode(final File file) {
+		return new DecodedAttachment(file.getContentType(), file.getFilename(), Base64.getDecoder().decode(file.getBody()));
+	}
+
+	public static List<DecodedAttachment> decode(final List<File> files) {
+		return ofNullable(files).orElse(emptyList()).stream()
+			.map(DecodedAttachment::decode)
+			.toList();
+	}
+
+	public DecodedAttachment withContent(final byte[] newContent) {
+		return withContent(newContent, null);
+	}
+
+	public DecodedAttachment withContent(final byte[] newContent, final String newChecksum) {
+		return new DecodedAttachment(contentType, filename, newContent, newChecksum);
+	}
+}
@@ -0,0 +1,15 @@
+package se.sundsvall.digitalmail.domain.delivery;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "State of an asynchronous delivery", examples = "DELIVERED")
+public enum DeliveryState {
+	/** Waiting to be (re)sent by the dispatcher */
+	PENDING,
+	/** Sent and reported as delivered by the mailbox supplier */
+	DELIVERED,
+	/** Sent, but reported as not delivered by the mailbox supplier */
+	NOT_DELIVERED,
+	/** Could not be sent, see detail for the reason */
+	FAILED
+}
@@ -0,0 +1,13 @@
+package se.sundsvall.digitalmail.domain.reachability;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "State of a reachability job", examples = "COMPLETED")
+public enum ReachabilityJobState {
+	/** Waiting to be, or being, processed by the worker */
+	PENDING,
+	/** All partyIds have been processed and the results can be fetched */
+	COMPLETED,
+	/** Could not be processed, see detail for the reason. Results processed before the failure can still be fetched */
+	FAILED
+}
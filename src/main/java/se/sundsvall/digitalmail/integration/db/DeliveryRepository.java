@@ -0,0 +1,15 @@
+package se.sundsvall.digitalmail.integration.db;
+
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import se.sundsvall.digitalmail.domain.delivery.DeliveryState;
+import se.sundsvall.digitalmail.integration.db.model.DeliveryEntity;
+
+public interface DeliveryRepository extends JpaRepository<DeliveryEntity, String> {
+
+	Optional<DeliveryEntity> findByIdAndMunicipalityIdAndOrganizationNumber(String id, String municipalityId, String organizationNumber);
+
+	List<DeliveryEntity> findByStateOrderByCreatedAsc(DeliveryState state, Limit limit);
+}
@@ -0,0 +1,30 @@
+package se.sundsvall.digitalmail.integration.db;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+import se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState;
+import se.sundsvall.digitalmail.integration.db.model.ReachabilityJobEntity;
+
+public interface ReachabilityJobRepository extends JpaRepository<ReachabilityJobEntity, String> {
+
+	Optional<ReachabilityJobEntity> findByIdAndMunicipalityIdAndOrganizationNumber(String id, String municipalityId, String organizationNumber);
+
+	Optional<ReachabilityJobEntity> findFirstByStateOrderByCreatedAsc(ReachabilityJobState state);
+
+	// Stores the checkpoint after a processed chunk, without writing the (possibly large) partyIds back
+	@Modifying
+	@Transactional
+	@Query("update ReachabilityJobEntity j set j.processed = :processed, j.attempts = 0, j.detail = null, j.modified = :modified where j.id = :id")
+	int updateProcessed(String id, int processed, OffsetDateTime modified);
+
+	// The results of the deleted jobs are deleted by the database, through the cascading foreign key
+	@Modifying
+	@Transactional
+	@Query("delete from ReachabilityJobEntity j where j.state in :states and j.modified < :before")
+	int deleteByStateInAndModifiedBefore(Collection<ReachabilityJobState> states, OffsetDateTime before);
+}
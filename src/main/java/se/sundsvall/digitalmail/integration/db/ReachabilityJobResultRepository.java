@@ -0,0 +1,20 @@
+package se.sundsvall.digitalmail.integration.db;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+import se.sundsvall.digitalmail.integration.db.model.ReachabilityJobResultEntity;
+
+public interface ReachabilityJobResultRepository extends JpaRepository<ReachabilityJobResultEntity, String> {
+
+	Page<ReachabilityJobResultEntity> findByJobId(String jobId, Pageable pageable);
+
+	// Removes results of a chunk that was stored but never checkpointed, e.g. when the pod was stopped in between
+	@Modifying
+	@Transactional
+	@Query("delete from ReachabilityJobResultEntity r where r.jobId = :jobId and r.position >= :position")
+	int deleteByJobIdAndPositionGreaterThanEqual(String jobId, int position);
+}
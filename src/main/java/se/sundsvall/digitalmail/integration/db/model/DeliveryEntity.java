@@ -0,0 +1,86 @@
+package se.sundsvall.digitalmail.integration.db.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import java.time.OffsetDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.UuidGenerator;
+import se.sundsvall.digitalmail.domain.delivery.DeliveryState;
+
+import static java.time.OffsetDateTime.now;
+import static java.time.ZoneId.systemDefault;
+import static java.time.temporal.ChronoUnit.MILLIS;
+
+/**
+ * An asynchronous digital mail delivery. Works as an outbox, the request is stored as JSON until the dispatcher has
+ * processed it.
+ */
+@Entity
+@Table(name = "delivery",
+	indexes = {
+		@Index(name = "idx_delivery_state_created", columnList = "state, created")
+	})
+@Getter
+@Setter
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeliveryEntity {
+
+	@Id
+	@UuidGenerator
+	@Column(name = "id")
+	private String id;
+
+	@Column(name = "municipality_id", nullable = false)
+	private String municipalityId;
+
+	@Column(name = "organization_number", nullable = false)
+	private String organizationNumber;
+
+	@Column(name = "party_id", nullable = false)
+	private String partyId;
+
+	@Column(name = "request", columnDefinition = "longtext")
+	private String request;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "state", nullable = false)
+	private DeliveryState state;
+
+	@Column(name = "transaction_id")
+	private String transactionId;
+
+	@Column(name = "detail", length = 1000)
+	private String detail;
+
+	@Column(name = "attempts", nullable = false)
+	private int attempts;
+
+	@Column(name = "created")
+	private OffsetDateTime created;
+
+	@Column(name = "modified")
+	private OffsetDateTime modified;
+
+	@PrePersist
+	void onCreate() {
+		created = now(systemDefault()).truncatedTo(MILLIS);
+	}
+
+	@PreUpdate
+	void onUpdate() {
+		modified = now(systemDefault()).truncatedTo(MILLIS);
+	}
+}
@@ -0,0 +1,87 @@
+package se.sundsvall.digitalmail.integration.db.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import java.time.OffsetDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.UuidGenerator;
+import se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState;
+
+import static java.time.OffsetDateTime.now;
+import static java.time.ZoneId.systemDefault;
+import static java.time.temporal.ChronoUnit.MILLIS;
+
+/**
+ * A bulk reachability check. The partyIds are stored newline separated until the worker has processed all of them,
+ * processed works as a checkpoint so an interrupted job continues where it left off.
+ */
+@Entity
+@Table(name = "reachability_job",
+	indexes = {
+		@Index(name = "idx_reachability_job_state_created", columnList = "state, created"),
+		@Index(name = "idx_reachability_job_state_modified", columnList = "state, modified")
+	})
+@Getter
+@Setter
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReachabilityJobEntity {
+
+	@Id
+	@UuidGenerator
+	@Column(name = "id")
+	private String id;
+
+	@Column(name = "municipality_id", nullable = false)
+	private String municipalityId;
+
+	@Column(name = "organization_number", nullable = false)
+	private String organizationNumber;
+
+	@Column(name = "party_ids", columnDefinition = "longtext")
+	private String partyIds;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "state", nullable = false)
+	private ReachabilityJobState state;
+
+	@Column(name = "total", nullable = false)
+	private int total;
+
+	@Column(name = "processed", nullable = false)
+	private int processed;
+
+	@Column(name = "detail", length = 1000)
+	private String detail;
+
+	@Column(name = "attempts", nullable = false)
+	private int attempts;
+
+	@Column(name = "created")
+	private OffsetDateTime created;
+
+	@Column(name = "modified")
+	private OffsetDateTime modified;
+
+	@PrePersist
+	void onCreate() {
+		created = now(systemDefault()).truncatedTo(MILLIS);
+	}
+
+	@PreUpdate
+	void onUpdate() {
+		modified = now(systemDefault()).truncatedTo(MILLIS);
+	}
+}
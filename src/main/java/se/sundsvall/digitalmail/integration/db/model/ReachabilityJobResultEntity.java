@@ -0,0 +1,53 @@
+package se.sundsvall.digitalmail.integration.db.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.UuidGenerator;
+
+/**
+ * The mailbox of a single partyId in a reachability job. Position orders the results the same way as the partyIds were
+ * submitted, chunk by chunk. Results are deleted together with their job, by the foreign key on job_id.
+ */
+@Entity
+@Table(name = "reachability_job_result",
+	indexes = {
+		@Index(name = "idx_reachability_job_result_job_id_position", columnList = "job_id, position")
+	})
+@Getter
+@Setter
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReachabilityJobResultEntity {
+
+	@Id
+	@UuidGenerator
+	@Column(name = "id")
+	private String id;
+
+	@Column(name = "job_id", nullable = false)
+	private String jobId;
+
+	@Column(name = "position", nullable = false)
+	private int position;
+
+	@Column(name = "party_id")
+	private String partyId;
+
+	@Column(name = "supplier")
+	private String supplier;
+
+	@Column(name = "reachable", nullable = false)
+	private boolean reachable;
+
+	@Column(name = "reason", length = 1000)
+	private String reason;
+}
@@ -0,0 +1,76 @@
+package se.sundsvall.digitalmail.integration.party;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.cache.support.NullValue;
+import org.springframework.stereotype.Component;
+
+import static se.sundsvall.digitalmail.configuration.CacheConfiguration.PARTY_CACHE;
+
+/**
+ * Actuator endpoint for inspecting and evicting entries in the party cache. Cached legal ids are never exposed, only
+ * whether an entry is cached and if the party was found.
+ */
+@Component
+@Endpoint(id = "partycache")
+public class PartyCacheEndpoint {
+
+	private final CacheManager cacheManager;
+
+	PartyCacheEndpoint(final CacheManager cacheManager) {
+		this.cacheManager = cacheManager;
+	}
+
+	@ReadOperation
+	public PartyCacheStatistics statistics() {
+		final var cache = getCache();
+		if (cache == null) {
+			return null;
+		}
+
+		final var nativeCache = cache.getNativeCache();
+		final var stats = nativeCache.stats();
+		return new PartyCacheStatistics(nativeCache.estimatedSize(), stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount());
+	}
+
+	@ReadOperation
+	public PartyCacheEntry entry(@Selector final String municipalityId, @Selector final String partyId) {
+		final var cache = getCache();
+		if (cache == null) {
+			return null;
+		}
+
+		final var value = cache.getNativeCache().getIfPresent(new SimpleKey(municipalityId, partyId));
+		return new PartyCacheEntry(value != null, value != null && !(value instanceof NullValue));
+	}
+
+	@DeleteOperation
+	public void evict(@Selector final String municipalityId, @Selector final String partyId) {
+		final var cache = getCache();
+		if (cache != null) {
+			cache.evict(new SimpleKey(municipalityId, partyId));
+		}
+	}
+
+	@DeleteOperation
+	public void evictAll() {
+		final var cache = getCache();
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+
+	// Null when caching is disabled
+	private CaffeineCache getCache() {
+		return cacheManager.getCache(PARTY_CACHE) instanceof final CaffeineCache caffeineCache ? caffeineCache : null;
+	}
+
+	public record PartyCacheStatistics(long size, long hitCount, long missCount, double hitRate, long evictionCount) {}
+
+	public record PartyCacheEntry(boolean cached, boolean found) {}
+}
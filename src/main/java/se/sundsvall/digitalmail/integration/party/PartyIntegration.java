@@ -1,45 +1,129 @@
 package se.sundsvall.digitalmail.integration.party;
 
 import generated.se.sundsvall.party.PartyType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import org.springframework.cache.annotation.Cacheable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
 import org.springframework.stereotype.Component;
 
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.function.Predicate.not;
+import static se.sundsvall.digitalmail.configuration.CacheConfiguration.PARTY_CACHE;
+import static se.sundsvall.digitalmail.configuration.ExecutorConfiguration.INTEGRATION_EXECUTOR;
+import static se.sundsvall.digitalmail.util.ChunkedCalls.callInChunks;
+import static se.sundsvall.digitalmail.util.ChunkedCalls.join;
 
 @Component
 public class PartyIntegration {
 
+	static final String ENTERPRISE_LOOKUP_TIMER = "digitalmail.party.enterprise.lookup";
+	static final String ENTERPRISE_LOOKUP_TIMEOUT_COUNTER = "digitalmail.party.enterprise.lookup.timeout";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PartyIntegration.class);
+
 	private final PartyClient partyClient;
 	private final PartyProperties partyProperties;
+	private final Cache partyCache;
+	private final Executor integrationExecutor;
+	private final MeterRegistry meterRegistry;
+	private final Semaphore enterpriseLookupPermits;
+	private final Duration enterpriseLookupDeadline;
+	private final int chunkParallelism;
 
-	public PartyIntegration(final PartyClient partyClient, PartyProperties partyProperties) {
+	public PartyIntegration(final PartyClient partyClient, PartyProperties partyProperties, final CacheManager cacheManager,
+		@Qualifier(INTEGRATION_EXECUTOR) final Executor integrationExecutor, final MeterRegistry meterRegistry) {
 		this.partyClient = partyClient;
 		this.partyProperties = partyProperties;
+		this.partyCache = cacheManager.getCache(PARTY_CACHE);
+		this.integrationExecutor = integrationExecutor;
+		this.meterRegistry = meterRegistry;
+		// The limit is shared by all batches, to bound the load on Party regardless of how many batches are in flight
+		this.enterpriseLookupPermits = new Semaphore(partyProperties.maxConcurrentEnterpriseLookups());
+		this.enterpriseLookupDeadline = partyProperties.enterpriseLookupDeadline();
+		this.chunkParallelism = partyProperties.chunkParallelism();
 	}
 
-	@Cacheable(value = "partyCache")
 	public Optional<String> getLegalId(final String municipalityId, final String partyId) {
-		final var optionalLegalId = partyClient.getLegalId(municipalityId, PartyType.PRIVATE, partyId)
-			.or(() -> partyClient.getLegalId(municipalityId, PartyType.ENTERPRISE, partyId));
+		return ofNullable(resolveLegalIds(municipalityId, List.of(partyId), misses -> {
+			final var optionalLegalId = partyClient.getLegalId(municipalityId, PartyType.PRIVATE, partyId)
+				.or(() -> partyClient.getLegalId(municipalityId, PartyType.ENTERPRISE, partyId));
 
-		return optionalLegalId.flatMap(PartyIntegration::prefixOrgNr);
+			final var result = new HashMap<String, String>();
+			result.put(partyId, optionalLegalId.flatMap(PartyIntegration::prefixOrgNr).orElse(null));
+			return result;
+		}).get(partyId));
 	}
 
 	/**
 	 * Fetches legalIds for multiple partyIds in batch using the PRIVATE batch endpoint.
 	 * If the list of PartyIds is larger than MAX_PARTY_IDS_PER_CALL it will be divided into multiple calls and aggregated.
-	 * For partyIds not found via PRIVATE, falls back to individual ENTERPRISE lookups.
-	 * The returned map contains all input partyIds as keys, with null values for those not found.
+	 * For partyIds not found via PRIVATE, falls back to individual ENTERPRISE lookups, made concurrently.
+	 * The returned map contains all input partyIds as keys, with null values for those not found (or not looked up within
+	 * the deadline).
 	 *
 	 * @param  municipalityId municipalityId to fetch legalIds for.
 	 * @param  partyIds       list of partyIds to fetch legalIds for.
 	 * @return                map of partyId to legalId (null value if not found).
 	 */
 	public Map<String, String> getLegalIds(final String municipalityId, final List<String> partyIds) {
+		return resolveLegalIds(municipalityId, partyIds, misses -> fetchLegalIds(municipalityId, misses));
+	}
+
+	/**
+	 * Resolves legalIds through the party cache, shared by single and bulk lookups. Cached legalIds (and cached misses)
+	 * are used as they are, only partyIds not in the cache are fetched from Party and the result is written back.
+	 *
+	 * @param  municipalityId municipalityId to fetch legalIds for.
+	 * @param  partyIds       list of partyIds to fetch legalIds for.
+	 * @param  fetcher        fetches the legalIds for the partyIds not in the cache, with null values for those not found.
+	 * @return                map of partyId to legalId (null value if not found).
+	 */
+	private Map<String, String> resolveLegalIds(final String municipalityId, final List<String> partyIds, final Function<List<String>, Map<String, String>> fetcher) {
+		final var result = new HashMap<String, String>();
+		final var misses = new ArrayList<String>();
+
+		partyIds.stream().distinct().forEach(partyId -> {
+			final var cached = partyCache.get(cacheKey(municipalityId, partyId));
+			if (cached != null) {
+				result.put(partyId, (String) cached.get());
+			} else {
+				misses.add(partyId);
+			}
+		});
+
+		if (!misses.isEmpty()) {
+			final var fetched = fetcher.apply(misses);
+			fetched.forEach((partyId, legalId) -> partyCache.put(cacheKey(municipalityId, partyId), legalId));
+			result.putAll(fetched);
+
+			// PartyIds not fetched (i.e. not looked up in time) are returned as not found, but not cached
+			misses.forEach(partyId -> result.putIfAbsent(partyId, null));
+		}
+
+		return result;
+	}
+
+	private Map<String, String> fetchLegalIds(final String municipalityId, final List<String> partyIds) {
 		final var result = new HashMap<String, String>();
 
 		// Batch lookup for PRIVATE party type in chunks to handle large lists
@@ -49,23 +133,96 @@ public class PartyIntegration {
 		batchResult.forEach((partyId, legalId) -> result.put(partyId, prefixOrgNr(legalId).orElse(null)));
 
 		// For partyIds not found in batch, try ENTERPRISE individually as there's no batch functionality for that
-		partyIds.stream()
-			.filter(partyId -> !batchResult.containsKey(partyId))
-			.forEach(partyId -> partyClient.getLegalId(municipalityId, PartyType.ENTERPRISE, partyId)
-				.flatMap(PartyIntegration::prefixOrgNr)
-				.ifPresentOrElse(
-					legalId -> result.put(partyId, legalId),
-					() -> result.put(partyId, null)));
+		result.putAll(getEnterpriseLegalIds(municipalityId, partyIds.stream()
+			.filter(not(batchResult::containsKey))
+			.toList()));
 
 		return result;
 	}
 
+	/**
+	 * Looks up ENTERPRISE legalIds one by one, concurrently on virtual threads. Lookups not done within the deadline are
+	 * left out of the result.
+	 *
+	 * @param  municipalityId municipalityId to fetch legalIds for.
+	 * @param  partyIds       list of partyIds to fetch legalIds for.
+	 * @return                map of partyId to legalId (null value if not found).
+	 */
+	private Map<String, String> getEnterpriseLegalIds(final String municipalityId, final List<String> partyIds) {
+		if (partyIds.isEmpty()) {
+			return Map.of();
+		}
+
+		final var deadline = System.nanoTime() + enterpriseLookupDeadline.toNanos();
+		final var lookups = new LinkedHashMap<String, CompletableFuture<EnterpriseLookup>>();
+		partyIds.forEach(partyId -> lookups.put(partyId, CompletableFuture.supplyAsync(() -> getEnterpriseLegalId(municipalityId, partyId, deadline), integrationExecutor)));
+
+		try {
+			CompletableFuture.allOf(lookups.values().toArray(CompletableFuture[]::new)).get(Math.max(deadline - System.nanoTime(), 0), NANOSECONDS);
+		} catch (final TimeoutException e) {
+			LOGGER.warn("ENTERPRISE lookups of {} partyIds not done within {}", partyIds.size(), enterpriseLookupDeadline);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			// Failed lookups are rethrown below
+		}
+
+		final var result = new HashMap<String, String>();
+		lookups.forEach((partyId, lookup) -> {
+			final var enterpriseLookup = lookup.isDone() ? join(lookup) : EnterpriseLookup.NOT_DONE;
+			if (enterpriseLookup.done()) {
+				result.put(partyId, enterpriseLookup.legalId());
+			} else {
+				lookup.cancel(true);
+				Counter.builder(ENTERPRISE_LOOKUP_TIMEOUT_COUNTER)
+					.description("Number of ENTERPRISE lookups not done within the deadline")
+					.register(meterRegistry)
+					.increment();
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * @return the lookup, not done if it couldn't be made before the deadline
+	 */
+	private EnterpriseLookup getEnterpriseLegalId(final String municipalityId, final String partyId, final long deadline) {
+		try {
+			if (!enterpriseLookupPermits.tryAcquire(Math.max(deadline - System.nanoTime(), 0), NANOSECONDS)) {
+				return EnterpriseLookup.NOT_DONE;
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return EnterpriseLookup.NOT_DONE;
+		}
+
+		final var start = System.nanoTime();
+		var outcome = "failed";
+		try {
+			final var legalId = partyClient.getLegalId(municipalityId, PartyType.ENTERPRISE, partyId).flatMap(PartyIntegration::prefixOrgNr);
+			outcome = legalId.isPresent() ? "found" : "not_found";
+			return new EnterpriseLookup(true, legalId.orElse(null));
+		} finally {
+			enterpriseLookupPermits.release();
+			Timer.builder(ENTERPRISE_LOOKUP_TIMER)
+				.description("Latency of individual ENTERPRISE lookups")
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(System.nanoTime() - start, NANOSECONDS);
+		}
+	}
+
+	// Same key as the default key generator creates for getLegalId(municipalityId, partyId)
+	private static SimpleKey cacheKey(final String municipalityId, final String partyId) {
+		return new SimpleKey(municipalityId, partyId);
+	}
+
 	private Map<String, String> getLegalIdsByChunks(final String municipalityId, final List<String> partyIds) {
 		final var batchResult = new HashMap<String, String>();
-		for (var i = 0; i < partyIds.size(); i += partyProperties.maxPartyIdsPerCall()) {
-			final var partyIdsChunk = partyIds.subList(i, Math.min(i + partyProperties.maxPartyIdsPerCall(), partyIds.size()));
-			batchResult.putAll(partyClient.getLegalIds(municipalityId, partyIdsChunk));
-		}
+		callInChunks(partyIds, partyProperties.maxPartyIdsPerCall(), chunkParallelism, integrationExecutor, partyIdsChunk -> partyClient.getLegalIds(municipalityId, partyIdsChunk))
+			.forEach(batchResult::putAll);
 
 		return batchResult;
 	}
@@ -82,4 +239,15 @@ public class PartyIntegration {
 			.map(string -> "16" + string)
 			.or(() -> ofNullable(legalId));
 	}
+
+	/**
+	 * The result of a single ENTERPRISE lookup.
+	 *
+	 * @param done    whether the lookup was made before the deadline
+	 * @param legalId the legalId, or null if not found or the lookup wasn't done
+	 */
+	private record EnterpriseLookup(boolean done, String legalId) {
+
+		private static final EnterpriseLookup NOT_DONE = new EnterpriseLookup(false, null);
+	}
 }
@@ -3,6 +3,7 @@ package se.sundsvall.digitalmail.integration.party;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
 import java.time.Duration;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.bind.DefaultValue;
@@ -16,4 +17,7 @@ public record PartyProperties(
 	@NotNull @Valid OAuth2 oauth2,
 	@DefaultValue("PT5S") Duration connectTimeout,
 	@DefaultValue("PT15S") Duration readTimeout,
-	@DefaultValue("1000") int maxPartyIdsPerCall) {}
+	@DefaultValue("1000") int maxPartyIdsPerCall,
+	@Positive @DefaultValue("4") int chunkParallelism,
+	@Positive @DefaultValue("10") int maxConcurrentEnterpriseLookups,
+	@NotNull @DefaultValue("PT20S") Duration enterpriseLookupDeadline) {}
@@ -1,8 +1,10 @@
 package se.sundsvall.digitalmail.integration.skatteverket;
 
+import java.util.List;
 import lombok.Getter;
 import lombok.Setter;
 import se.sundsvall.digitalmail.api.model.DigitalMailRequest;
+import se.sundsvall.digitalmail.domain.attachment.DecodedAttachment;
 
 @Getter
 @Setter
@@ -10,6 +12,7 @@ public class DigitalMailDto extends DigitalMailRequest {
 
 	private String recipientId; // Recipient id from e.g. kivra.
 	private String organizationNumber;
+	private List<DecodedAttachment> decodedAttachments; // Attachments decoded (and compressed), used instead of the base64 attachments when set.
 
 	public DigitalMailDto(final DigitalMailRequest request, String organizationNumber) {
 		super(request.getPartyId(), request.getMunicipalityId(), request.getHeaderSubject(), request.getSupportInfo(), request.getAttachments(), request.getBodyInformation());
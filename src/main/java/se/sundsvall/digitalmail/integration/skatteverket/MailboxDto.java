@@ -11,6 +11,8 @@ import lombok.NoArgsConstructor;
 @Builder(setterPrefix = "with")
 public class MailboxDto {
 
+	public static final String REASON_MAILBOX_PENDING = "Mailbox is pending activation";
+
 	private String reason;
 	private String recipientId;
 	private String serviceAddress;
@@ -0,0 +1,14 @@
+package se.sundsvall.digitalmail.integration.skatteverket;
+
+/**
+ * Thrown when a SOAP message is too big to be sent. The message is rejected before it's sent, so it isn't a failure of
+ * the receiving supplier and is ignored by the supplier's circuit breaker.
+ */
+public class MessageTooBigException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public MessageTooBigException(final String message) {
+		super(message);
+	}
+}
@@ -1,10 +1,29 @@
 package se.sundsvall.digitalmail.integration.skatteverket;
 
-import java.io.ByteArrayOutputStream;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
+import java.security.GeneralSecurityException;
 import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import javax.net.ssl.SSLContext;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.DefaultClientTlsStrategy;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Bean;
@@ -14,15 +33,20 @@ import org.springframework.ws.client.core.WebServiceTemplate;
 import org.springframework.ws.client.support.interceptor.ClientInterceptorAdapter;
 import org.springframework.ws.context.MessageContext;
 import org.springframework.ws.soap.SoapMessage;
+import org.springframework.ws.transport.http.HttpComponents5MessageSender;
 import org.zalando.logbook.Logbook;
+import org.zalando.logbook.httpclient5.LogbookHttpRequestInterceptor;
+import org.zalando.logbook.httpclient5.LogbookHttpResponseInterceptor;
 import se.sundsvall.dept44.configuration.webservicetemplate.WebServiceTemplateBuilder;
-import se.sundsvall.dept44.problem.Problem;
-
-import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import se.sundsvall.dept44.util.KeyStoreUtils;
 
 @Configuration
 class SkatteverketClientConfig {
 
+	static final String CONNECTION_POOL_NAME = "skatteverket";
+
+	private static final int HTTPS_PORT = 443;
+
 	private final Logbook logbook;
 	private final SkatteverketProperties properties;
 
@@ -31,46 +55,97 @@ class SkatteverketClientConfig {
 		this.properties = properties;
 	}
 
+	/**
+	 * Both templates share one pooled message sender. The client certificate is loaded into a single SSL context, so TLS
+	 * sessions are resumed when new connections are opened to the same supplier, and idle or expired connections are
+	 * evicted in the background instead of being found stale when the next message is sent.
+	 */
+	@Bean
+	HttpComponents5MessageSender skatteverketMessageSender(final MeterRegistry meterRegistry) throws GeneralSecurityException {
+		final var connectionManager = createConnectionManager(properties, createSslContext());
+		new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, CONNECTION_POOL_NAME).bindTo(meterRegistry);
+
+		final var httpClient = HttpClients.custom()
+			.setConnectionManager(connectionManager)
+			// Spring-WS sets the Content-Length and Transfer-Encoding headers itself
+			.addRequestInterceptorFirst(new HttpComponents5MessageSender.RemoveSoapHeadersInterceptor())
+			.addRequestInterceptorLast(new LogbookHttpRequestInterceptor(logbook))
+			.addResponseInterceptorLast(new LogbookHttpResponseInterceptor())
+			.setDefaultRequestConfig(RequestConfig.custom()
+				.setConnectionRequestTimeout(Timeout.ofMilliseconds(properties.connectTimeout()))
+				.setResponseTimeout(Timeout.ofMilliseconds(properties.readTimeout()))
+				.build())
+			.evictIdleConnections(TimeValue.of(properties.idleConnectionTimeout()))
+			.evictExpiredConnections()
+			.build();
+
+		// The sender closes the client, and with it the connection pool, when the context is closed
+		return new HttpComponents5MessageSender(httpClient);
+	}
+
 	// Separate the beans since we don't want the "reachable" one to get intercepted for the size-check.
 	@Bean("skatteverketSendmailWebserviceTemplate")
-	WebServiceTemplate notificationWebserviceTemplate() {
-		final var builder = new WebServiceTemplateBuilder()
-			.withConnectTimeout(Duration.ofMillis(properties.connectTimeout()))
-			.withReadTimeout(Duration.ofMillis(properties.readTimeout()))
-			.withLogbook(logbook)
-			.withPackageToScan("se.gov.minameddelanden.schema");
-
-		if (properties.shouldUseKeystore()) {
-			loadKeyStore(builder);
-		}
-
+	WebServiceTemplate notificationWebserviceTemplate(final HttpComponents5MessageSender skatteverketMessageSender) {
 		// Since we need to set the url dynamically we won't set the base url here.
-		return builder
+		final var template = new WebServiceTemplateBuilder()
+			.withPackageToScan("se.gov.minameddelanden.schema")
 			.withClientInterceptor(new SoapMessageSizeInterceptor(properties.messageMaxSize()))
 			.build();
+
+		template.setMessageSender(skatteverketMessageSender);
+		return template;
 	}
 
 	@Bean("skatteverketIsReachableWebserviceTemplate")
-	WebServiceTemplate recipientWebserviceTemplate() {
-		final var builder = new WebServiceTemplateBuilder()
-			.withConnectTimeout(Duration.ofMillis(properties.connectTimeout()))
-			.withReadTimeout(Duration.ofMillis(properties.readTimeout()))
-			.withLogbook(logbook)
-			.withPackageToScan("se.gov.minameddelanden.schema");
-
-		if (properties.shouldUseKeystore()) {
-			loadKeyStore(builder);
+	WebServiceTemplate recipientWebserviceTemplate(final HttpComponents5MessageSender skatteverketMessageSender) {
+		final var template = new WebServiceTemplateBuilder()
+			.withPackageToScan("se.gov.minameddelanden.schema")
+			.withBaseUrl(properties.recipientUrl())
+			.build();
+
+		template.setMessageSender(skatteverketMessageSender);
+		return template;
+	}
+
+	private SSLContext createSslContext() throws GeneralSecurityException {
+		if (!properties.shouldUseKeystore()) {
+			return SSLContexts.createSystemDefault();
 		}
 
-		return builder
-			.withBaseUrl(properties.recipientUrl())
+		final var keyStore = KeyStoreUtils.loadKeyStore(Base64.getDecoder().decode(properties.keyStoreAsBase64().getBytes(StandardCharsets.UTF_8)), properties.keyStorePassword());
+		return SSLContexts.custom()
+			.loadKeyMaterial(keyStore, properties.keyStorePassword().toCharArray())
 			.build();
 	}
 
-	private void loadKeyStore(WebServiceTemplateBuilder builder) {
-		builder
-			.withKeyStoreData(Base64.getDecoder().decode(properties.keyStoreAsBase64().getBytes(StandardCharsets.UTF_8)))
-			.withKeyStorePassword(properties.keyStorePassword());
+	/**
+	 * Creates the connection pool. Messages are sent to the service address of each supplier, so every supplier host is a
+	 * route of its own with maxConnectionsPerHost connections, unless the host has a limit of its own.
+	 */
+	static PoolingHttpClientConnectionManager createConnectionManager(final SkatteverketProperties properties, final SSLContext sslContext) {
+		final var connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+			.setTlsSocketStrategy(new DefaultClientTlsStrategy(sslContext))
+			.setMaxConnTotal(properties.maxConnections())
+			.setMaxConnPerRoute(properties.maxConnectionsPerHost())
+			.setDefaultSocketConfig(SocketConfig.custom()
+				.setSoKeepAlive(true)
+				.setSoTimeout(Timeout.ofMilliseconds(properties.readTimeout()))
+				.build())
+			.setDefaultConnectionConfig(ConnectionConfig.custom()
+				.setConnectTimeout(Timeout.ofMilliseconds(properties.connectTimeout()))
+				.setSocketTimeout(Timeout.ofMilliseconds(properties.readTimeout()))
+				.setTimeToLive(TimeValue.of(properties.connectionTimeToLive()))
+				.build())
+			.build();
+
+		Optional.ofNullable(properties.maxConnectionsPerSupplierHost()).orElse(Map.of())
+			.forEach((host, maxConnections) -> connectionManager.setMaxPerRoute(supplierRoute(host), maxConnections));
+
+		return connectionManager;
+	}
+
+	static HttpRoute supplierRoute(final String host) {
+		return new HttpRoute(new HttpHost(URIScheme.HTTPS.id, host, HTTPS_PORT), null, true);
 	}
 
 	static class SoapMessageSizeInterceptor extends ClientInterceptorAdapter {
@@ -91,25 +166,61 @@ class SkatteverketClientConfig {
 
 			final var soapMessage = (SoapMessage) messageContext.getRequest();
 
-			try (var outputStream = new ByteArrayOutputStream()) {
+			// The message is only counted, not kept, and the writing stops as soon as it's too big
+			final var outputStream = new SizeLimitedOutputStream(maxSize);
+			try {
 				soapMessage.writeTo(outputStream);
-				checkSizeOfMessage(outputStream);
-			} catch (IOException e) {
-				LOG.warn("Couldn't calculate size of SOAP message, sending it anyway");
+			} catch (IOException | RuntimeException e) {
+				// SAAJ may wrap the exception from the stream, so the stream is asked whether it was too big
+				if (!outputStream.isSizeExceeded()) {
+					LOG.warn("Couldn't calculate size of SOAP message, sending it anyway");
+					return true;
+				}
+			}
+
+			if (outputStream.isSizeExceeded()) {
+				throw new MessageTooBigException("Size is at least: " + outputStream.size() + " bytes. Max allowed is: " + maxSize + " bytes.");
 			}
 
 			return true;
 		}
+	}
+
+	/**
+	 * An output stream that only counts the bytes written to it, and fails as soon as more than maxSize bytes are written.
+	 */
+	static class SizeLimitedOutputStream extends OutputStream {
+
+		private final long maxSize;
+		private long size;
+
+		SizeLimitedOutputStream(final long maxSize) {
+			this.maxSize = maxSize;
+		}
 
-		private void checkSizeOfMessage(ByteArrayOutputStream outputStream) {
-			final var length = outputStream.toString(StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8).length;
+		@Override
+		public void write(final int b) throws IOException {
+			count(1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			Objects.checkFromIndexSize(off, len, b.length);
+			count(len);
+		}
+
+		long size() {
+			return size;
+		}
+
+		boolean isSizeExceeded() {
+			return size > maxSize;
+		}
 
-			if (length > maxSize) {
-				throw Problem.builder()
-					.withTitle("Message is too big to be sent as a digital mail.")
-					.withStatus(BAD_REQUEST)
-					.withDetail("Size is: " + length + " bytes. Max allowed is: " + maxSize + " bytes.")
-					.build();
+		private void count(final int length) throws IOException {
+			size += length;
+			if (isSizeExceeded()) {
+				throw new IOException("Size limit of " + maxSize + " bytes is exceeded");
 			}
 		}
 	}
@@ -2,10 +2,14 @@ package se.sundsvall.digitalmail.integration.skatteverket;
 
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
 @Validated
@@ -30,4 +34,26 @@ public record SkatteverketProperties(
 
 	@DefaultValue("120000") long readTimeout,
 
-	Map<String, String> supportedSenders) {}
+	Map<String, String> supportedSenders,
+
+	@DefaultValue("16") @Positive int marshallerPoolSize,
+
+	@DefaultValue("4") @Positive int reachableChunkParallelism,
+
+	@DefaultValue("100") @Positive int maxConnections,
+
+	@DefaultValue("20") @Positive int maxConnectionsPerHost,
+
+	Map<String, @Positive Integer> maxConnectionsPerSupplierHost,
+
+	@DefaultValue("PT30S") @NotNull Duration idleConnectionTimeout,
+
+	@DefaultValue("PT5M") @NotNull Duration connectionTimeToLive,
+
+	@DefaultValue("4KB") @NotNull DataSize envelopeOverhead,
+
+	Map<String, DataSize> supplierEnvelopeOverhead,
+
+	@DefaultValue("3") @Positive int batchBulkheadAttempts,
+
+	@DefaultValue("PT1S") @NotNull Duration batchBulkheadBackoff) {}
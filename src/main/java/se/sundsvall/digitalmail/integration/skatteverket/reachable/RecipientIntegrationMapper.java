@@ -12,6 +12,7 @@ import se.sundsvall.digitalmail.integration.skatteverket.SkatteverketProperties;
 import se.sundsvall.digitalmail.util.LegalIdUtil;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
+import static se.sundsvall.digitalmail.integration.skatteverket.MailboxDto.REASON_MAILBOX_PENDING;
 import static se.sundsvall.digitalmail.util.LegalIdUtil.prefixOrgNumber;
 
 @Component
@@ -21,7 +22,6 @@ class RecipientIntegrationMapper {
 
 	// Possible reasons when a mailbox is invalid
 	private static final String REASON_SENDER_NOT_ACCEPTED = "Sender not accepted by recipient";
-	private static final String REASON_MAILBOX_PENDING = "Mailbox is pending activation";
 	private static final String REASON_NO_SERVICE_SUPPLIER = "No service supplier available";
 	private static final String REASON_RECIPIENT_NOT_ADULT = "Recipient is not an adult";
 	private static final String REASON_UNSUPPORTED_SUPPLIER = "Unsupported service supplier";
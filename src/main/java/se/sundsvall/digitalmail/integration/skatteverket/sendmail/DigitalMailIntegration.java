@@ -1,35 +1,67 @@
 package se.sundsvall.digitalmail.integration.skatteverket.sendmail;
 
-import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 import org.springframework.ws.client.core.WebServiceTemplate;
+import se.gov.minameddelanden.schema.service.v3.DeliverSecure;
 import se.gov.minameddelanden.schema.service.v3.DeliverSecureResponse;
 import se.sundsvall.dept44.problem.Problem;
 import se.sundsvall.dept44.problem.ThrowableProblem;
 import se.sundsvall.digitalmail.api.model.DigitalMailResponse;
 import se.sundsvall.digitalmail.integration.skatteverket.DigitalMailDto;
+import se.sundsvall.digitalmail.integration.skatteverket.MessageTooBigException;
+import se.sundsvall.digitalmail.integration.skatteverket.SkatteverketProperties;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 
+/**
+ * Sends digital mails to the mailbox operators (suppliers). Each supplier, identified by the host of its service
+ * address, has a bulkhead and a circuit breaker of its own, so a slow or failing supplier doesn't hold up or trip the
+ * deliveries to the others.
+ */
 @Component
-@CircuitBreaker(name = "digitalMailIntegration")
 public class DigitalMailIntegration {
 
+	static final String INTEGRATION_NAME = "digitalMailIntegration";
+	static final String SUPPLIER_CONFIG = "digitalMailSupplier";
+
 	private static final Logger LOG = LoggerFactory.getLogger(DigitalMailIntegration.class);
 
 	private final WebServiceTemplate distributeTemplate;
 	private final DigitalMailMapper mapper;
+	private final CircuitBreakerRegistry circuitBreakerRegistry;
+	private final BulkheadRegistry bulkheadRegistry;
+	private final int batchBulkheadAttempts;
+	private final Duration batchBulkheadBackoff;
 
 	@Autowired
 	DigitalMailIntegration(
 		@Qualifier("skatteverketSendmailWebserviceTemplate") final WebServiceTemplate distributeTemplate,
-		final DigitalMailMapper mapper) {
+		final DigitalMailMapper mapper,
+		final CircuitBreakerRegistry circuitBreakerRegistry,
+		final BulkheadRegistry bulkheadRegistry,
+		final SkatteverketProperties properties) {
 		this.distributeTemplate = distributeTemplate;
 		this.mapper = mapper;
+		this.circuitBreakerRegistry = circuitBreakerRegistry;
+		this.bulkheadRegistry = bulkheadRegistry;
+		this.batchBulkheadAttempts = properties.batchBulkheadAttempts();
+		this.batchBulkheadBackoff = properties.batchBulkheadBackoff();
 	}
 
 	/**
@@ -40,19 +72,50 @@ public class DigitalMailIntegration {
 	 * @return                The response from the service
 	 */
 	public DigitalMailResponse sendDigitalMail(final DigitalMailDto requestDto, final String serviceAddress) {
+		return sendDigitalMail(requestDto, serviceAddress, 1);
+	}
+
+	/**
+	 * Send a digital mail as part of a batch. A batch to a single supplier can use more of the batch executor than the
+	 * supplier's bulkhead allows, so a full bulkhead is waited for a few more times, with a backoff, before giving up.
+	 *
+	 * @param  requestDto     The request to send
+	 * @param  serviceAddress The address to send the mail to
+	 * @return                The response from the service
+	 */
+	public DigitalMailResponse sendBatchDigitalMail(final DigitalMailDto requestDto, final String serviceAddress) {
+		return sendDigitalMail(requestDto, serviceAddress, batchBulkheadAttempts);
+	}
+
+	private DigitalMailResponse sendDigitalMail(final DigitalMailDto requestDto, final String serviceAddress, final int bulkheadAttempts) {
 		LOG.debug("Trying to send secure digital mail.");
 
 		try {
-			LOG.info("Creating deliver secure request");
-			final var deliverSecureRequest = mapper.createDeliverSecure(requestDto);
-
-			LOG.info("Sending deliver secure request");
-			final var deliverSecureResponse = (DeliverSecureResponse) distributeTemplate.marshalSendAndReceive(serviceAddress, deliverSecureRequest);
+			final var deliverSecureResponse = callSupplier(serviceAddress, bulkheadAttempts, () -> {
+				LOG.info("Creating deliver secure request");
+				return mapper.createDeliverSecure(requestDto);
+			});
 
 			LOG.info("Mapping deliver secure response");
 			return mapper.createDigitalMailResponse(deliverSecureResponse, requestDto.getPartyId());
+		} catch (final CallNotPermittedException | BulkheadFullException e) {
+			LOG.warn("Supplier at {} is unavailable: {}", serviceAddress, e.getMessage());
+
+			throw Problem.builder()
+				.withDetail(e.getMessage())
+				.withStatus(SERVICE_UNAVAILABLE)
+				.withTitle("Couldn't send secure digital mail, the mailbox supplier is unavailable")
+				.build();
+		} catch (final MessageTooBigException e) {
+			LOG.info("Message to supplier at {} is too big: {}", serviceAddress, e.getMessage());
+
+			throw Problem.builder()
+				.withTitle("Message is too big to be sent as a digital mail.")
+				.withStatus(BAD_REQUEST)
+				.withDetail(e.getMessage())
+				.build();
 		} catch (Exception e) {
-			// Might come from interceptor
+			// Might come from the mapper
 			if (e instanceof ThrowableProblem) {
 				LOG.error("Failed to send digital mail", e);
 				throw e;
@@ -71,6 +134,86 @@ public class DigitalMailIntegration {
 		}
 	}
 
+	/**
+	 * Sends a request to the supplier at the given address, once the supplier's circuit breaker and bulkhead both permit
+	 * it. Creating the request includes signing it, which is too costly to spend on deliveries that are rejected anyway,
+	 * so the request isn't created until both permissions are acquired, and only once, however many times the bulkhead is
+	 * waited for.
+	 */
+	private DeliverSecureResponse callSupplier(final String serviceAddress, final int bulkheadAttempts, final Supplier<DeliverSecure> createRequest) {
+		final var name = supplierName(serviceAddress);
+		final var circuitBreaker = circuitBreakerRegistry.circuitBreaker(name, SUPPLIER_CONFIG);
+		final var bulkhead = bulkheadRegistry.bulkhead(name, SUPPLIER_CONFIG);
+
+		// An open circuit is not waited for, the supplier is unlikely to recover within the wait
+		circuitBreaker.acquirePermission();
+		var called = false;
+		try {
+			acquirePermission(bulkhead, bulkheadAttempts);
+			try {
+				final var deliverSecureRequest = createRequest.get();
+
+				LOG.info("Sending deliver secure request");
+				called = true;
+				final var start = System.nanoTime();
+				try {
+					final var response = (DeliverSecureResponse) distributeTemplate.marshalSendAndReceive(serviceAddress, deliverSecureRequest);
+					circuitBreaker.onSuccess(System.nanoTime() - start, NANOSECONDS);
+					return response;
+				} catch (final RuntimeException e) {
+					// Ignored exceptions, like too big messages, release the permission instead of being recorded as failures
+					circuitBreaker.onError(System.nanoTime() - start, NANOSECONDS, e);
+					throw e;
+				}
+			} finally {
+				bulkhead.onComplete();
+			}
+		} finally {
+			// Deliveries that never reached the supplier are neither successes nor failures of it
+			if (!called) {
+				circuitBreaker.releasePermission();
+			}
+		}
+	}
+
+	private void acquirePermission(final Bulkhead bulkhead, final int attempts) {
+		for (var attempt = 1;; attempt++) {
+			try {
+				bulkhead.acquirePermission();
+				return;
+			} catch (final BulkheadFullException e) {
+				if (attempt >= attempts) {
+					throw e;
+				}
+				LOG.info("Bulkhead {} is full, attempt {} of {}", bulkhead.getName(), attempt, attempts);
+				backoff(attempt, e);
+			}
+		}
+	}
+
+	private void backoff(final int attempt, final BulkheadFullException e) {
+		try {
+			Thread.sleep(batchBulkheadBackoff.multipliedBy(attempt));
+		} catch (final InterruptedException interrupted) {
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+	}
+
+	/**
+	 * The name of the bulkhead and circuit breaker of the supplier at the given address, e.g.
+	 * "digitalMailIntegration-service.supplier.se".
+	 *
+	 * @param  serviceAddress the service address of the supplier
+	 * @return                the name of the supplier's bulkhead and circuit breaker
+	 */
+	static String supplierName(final String serviceAddress) {
+		return INTEGRATION_NAME + "-" + Optional.ofNullable(serviceAddress)
+			.map(URI::create)
+			.map(URI::getHost)
+			.orElse("unknown");
+	}
+
 	// If we get an error parsing XML we can't use ".getCause()", really special case..
 	ThrowableProblem getProblemCause(final Exception e) {
 		try {
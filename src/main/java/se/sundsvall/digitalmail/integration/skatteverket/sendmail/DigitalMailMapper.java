@@ -1,10 +1,10 @@
 package se.sundsvall.digitalmail.integration.skatteverket.sendmail;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.xml.bind.DatatypeConverter;
 import jakarta.xml.bind.JAXBContext;
 import jakarta.xml.bind.JAXBElement;
 import jakarta.xml.bind.JAXBException;
-import jakarta.xml.bind.Marshaller;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
@@ -19,17 +19,17 @@ import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import org.apache.commons.lang3.StringUtils;
 import org.jose4j.base64url.Base64;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.w3c.dom.Document;
+import se.gov.minameddelanden.common.JAXBMarshal;
 import se.gov.minameddelanden.common.X509CertificateWithPrivateKey;
-import se.gov.minameddelanden.common.Xml;
+import se.gov.minameddelanden.common.XmlUtil;
+import se.gov.minameddelanden.common.sign.XmlSigner;
 import se.gov.minameddelanden.schema.message.Attachment;
 import se.gov.minameddelanden.schema.message.MessageBody;
 import se.gov.minameddelanden.schema.message.Seal;
@@ -51,10 +51,11 @@ import se.sundsvall.dept44.util.KeyStoreUtils;
 import se.sundsvall.digitalmail.api.model.BodyInformation;
 import se.sundsvall.digitalmail.api.model.DeliveryStatus;
 import se.sundsvall.digitalmail.api.model.DigitalMailResponse;
-import se.sundsvall.digitalmail.api.model.File;
+import se.sundsvall.digitalmail.domain.attachment.DecodedAttachment;
 import se.sundsvall.digitalmail.integration.skatteverket.DigitalMailDto;
 import se.sundsvall.digitalmail.integration.skatteverket.SkatteverketProperties;
 
+import static java.util.Optional.ofNullable;
 import static org.apache.commons.collections4.CollectionUtils.isEmpty;
 import static org.apache.commons.collections4.CollectionUtils.isNotEmpty;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
@@ -71,42 +72,23 @@ class DigitalMailMapper {
 
 	private final SkatteverketProperties properties;
 
-	private final DocumentBuilder documentBuilder;
-
 	private final KeyStore keyStore;
-	private final X509CertificateWithPrivateKey certificate;
+	private final XmlSigner xmlSigner;
 
-	// Since the marshaller is not thread safe, we need to create a new one for each thread.
-	private final ThreadLocal<Marshaller> threadLocalMarshaller = ThreadLocal.withInitial(() -> {
-		try {
-			JAXBContext jaxbContext = JAXBContext.newInstance(SignedDelivery.class, SealedDelivery.class, DeliverSecure.class);
-			return jaxbContext.createMarshaller();
-		} catch (JAXBException e) {
-			throw Problem.builder()
-				.withTitle("Failed to create Marshaller")
-				.withStatus(INTERNAL_SERVER_ERROR)
-				.withCause((ThrowableProblem) e.getCause())
-				.build();
-		}
-	});
+	private final MarshallerPool marshallerPool;
 
-	DigitalMailMapper(final SkatteverketProperties properties) throws UnrecoverableEntryException, KeyStoreException, NoSuchAlgorithmException, ParserConfigurationException {
+	DigitalMailMapper(final SkatteverketProperties properties, final MeterRegistry meterRegistry)
+		throws UnrecoverableEntryException, KeyStoreException, NoSuchAlgorithmException, JAXBException {
 		this.properties = properties;
 
+		// The JAXBContext is thread safe and expensive to create, so one is shared by all marshallers
+		marshallerPool = new MarshallerPool(JAXBContext.newInstance(SignedDelivery.class, SealedDelivery.class, DeliverSecure.class), properties.marshallerPoolSize(), meterRegistry);
+
 		// Load the KeyStore and get the signing key and certificate.
 		keyStore = KeyStoreUtils.loadKeyStore(Base64.decode(properties.keyStoreAsBase64()), properties.keyStorePassword());
 
-		// Read certificate from keystore
-		certificate = setupCertificate();
-
-		// Create document builder
-		final var documentBuilderFactory = DocumentBuilderFactory.newInstance();
-		documentBuilderFactory.setNamespaceAware(true);
-		documentBuilder = documentBuilderFactory.newDocumentBuilder();
-	}
-
-	private Marshaller getMarshaller() {
-		return threadLocalMarshaller.get();
+		// Read certificate from keystore, the signer is created once since the certificate never changes
+		xmlSigner = new XmlSigner(setupCertificate());
 	}
 
 	/**
@@ -147,7 +129,9 @@ class DigitalMailMapper {
 	}
 
 	/**
-	 * The sealed delivery to be inserted into the SealedDelivery-object
+	 * The sealed delivery to be inserted into the SealedDelivery-object. Both signatures are created directly on the DOM
+	 * produced by the marshaller, and the signed inner document is moved into the outer document as is. This way the
+	 * delivery (and its attachments) is never serialized to bytes and parsed again, and only deserialized once.
 	 *
 	 * @param  dto to be translated into a {@link SealedDelivery}
 	 * @return     A Sealed delivery signed by not the sender but us as a mediator.
@@ -155,49 +139,67 @@ class DigitalMailMapper {
 	SealedDelivery createSealedDelivery(final DigitalMailDto dto) {
 		LOG.info("Creating sealed delivery");
 		try {
-			// Get the correct certificate
-			// Create the signedDeliveryDocument, inner one.
-			var signedDelivery = createSignedDelivery(dto);
+			return JAXBMarshal.deserialize(createSealedDeliveryDocument(dto), SealedDelivery.class);
+		} catch (final JAXBException | DatatypeConfigurationException e) {
+			// Needed to see stacktrace
+			LOG.error("Failed to create sealed delivery", e);
+			throw Problem.builder()
+				.withTitle("Couldn't create a SealedDelivery object to send")
+				.withStatus(INTERNAL_SERVER_ERROR)
+				.withCause((ThrowableProblem) e.getCause())
+				.build();
+		}
+	}
 
-			final var signedDeliveryElement = new JAXBElement<>(new QName(NAMESPACE_URI, "SignedDelivery"), SignedDelivery.class, signedDelivery);
-			final var signedDeliveryDocument = documentBuilder.newDocument();
+	/**
+	 * The signed sealed delivery as DOM, before it's deserialized.
+	 *
+	 * @param  dto to be translated into a {@link SealedDelivery}
+	 * @return     The sealed delivery document, with the signed delivery as its first child
+	 */
+	Document createSealedDeliveryDocument(final DigitalMailDto dto) throws JAXBException, DatatypeConfigurationException {
+		// Create and sign the signedDeliveryDocument, inner one.
+		final var signedDeliveryElement = new JAXBElement<>(new QName(NAMESPACE_URI, "SignedDelivery"), SignedDelivery.class, createSignedDelivery(dto));
+		final var signedDeliveryDocument = XmlUtil.newDocument();
 
-			getMarshaller().marshal(signedDeliveryElement, signedDeliveryDocument);
+		marshallerPool.marshal(signedDeliveryElement, signedDeliveryDocument);
+		xmlSigner.sign(signedDeliveryDocument);
 
-			var xml = Xml.fromDOM(signedDeliveryDocument);
-			var signedXml = xml.sign(certificate);
-			signedDelivery = signedXml.toJaxbObject(SignedDelivery.class);
+		final var seal = new Seal();
+		seal.setSignaturesOK(true);
+		seal.setReceivedTime(createTimestamp());
 
-			final var seal = new Seal();
-			seal.setSignaturesOK(true);
-			seal.setReceivedTime(createTimestamp());
+		// The signed delivery is left out here and added as DOM below, to keep it exactly as it was signed
+		final var sealedDelivery = OBJECT_FACTORY.createSealedDelivery();
+		sealedDelivery.setSeal(seal);
 
-			var sealedDelivery = OBJECT_FACTORY.createSealedDelivery();
-			sealedDelivery.setSeal(seal);
-			sealedDelivery.setSignedDelivery(signedDelivery);
+		final var sealedDeliveryElement = new JAXBElement<>(new QName(NAMESPACE_URI, "SealedDelivery"), SealedDelivery.class, sealedDelivery);
+		final var sealedDeliveryDocument = XmlUtil.newDocument();
 
-			final var sealedDeliveryElement = new JAXBElement<>(new QName(NAMESPACE_URI, "SealedDelivery"), SealedDelivery.class, sealedDelivery);
-			final var sealedDeliveryDocument = documentBuilder.newDocument();
+		marshallerPool.marshal(sealedDeliveryElement, sealedDeliveryDocument);
+		embedSignedDelivery(signedDeliveryDocument, sealedDeliveryDocument);
+		xmlSigner.sign(sealedDeliveryDocument);
 
-			getMarshaller().marshal(sealedDeliveryElement, sealedDeliveryDocument);
+		return sealedDeliveryDocument;
+	}
 
-			xml = Xml.fromDOM(sealedDeliveryDocument);
-			signedXml = xml.sign(certificate);
-			sealedDelivery = signedXml.toJaxbObject(SealedDelivery.class);
+	/**
+	 * Moves the root element of the signed delivery document into the sealed delivery document, as the first child (the
+	 * schema requires SignedDelivery to come before Seal and Signature).
+	 *
+	 * @param signedDeliveryDocument the signed inner document, will be emptied
+	 * @param sealedDeliveryDocument the outer document
+	 */
+	private static void embedSignedDelivery(final Document signedDeliveryDocument, final Document sealedDeliveryDocument) {
+		final var sealedDeliveryRoot = sealedDeliveryDocument.getDocumentElement();
 
-			return sealedDelivery;
-		} catch (final JAXBException | DatatypeConfigurationException e) {
-			// Needed to see stacktrace
-			LOG.error("Failed to create sealed delivery", e);
-			throw Problem.builder()
-				.withTitle("Couldn't create a SealedDelivery object to send")
-				.withStatus(INTERNAL_SERVER_ERROR)
-				.withCause((ThrowableProblem) e.getCause())
-				.build();
-		} finally {
-			// Always clean up
-			threadLocalMarshaller.remove();
+		// Adopting moves the nodes without copying, fall back to importing (copying) if the DOM implementation won't allow it
+		var signedDeliveryRoot = sealedDeliveryDocument.adoptNode(signedDeliveryDocument.getDocumentElement());
+		if (signedDeliveryRoot == null) {
+			signedDeliveryRoot = sealedDeliveryDocument.importNode(signedDeliveryDocument.getDocumentElement(), true);
 		}
+
+		sealedDeliveryRoot.insertBefore(signedDeliveryRoot, sealedDeliveryRoot.getFirstChild());
 	}
 
 	/**
@@ -228,28 +230,28 @@ class DigitalMailMapper {
 		final var secureMessage = new SecureMessage();
 		secureMessage.setHeader(createMessageHeader(dto));
 		secureMessage.setBody(createMessageBody(dto));
-		if (isNotEmpty(dto.getAttachments())) {
-			secureMessage.getAttachments().addAll(createAttachments(dto.getAttachments()));
+		// Use the already decoded attachments if present, to avoid decoding the attachments again
+		final var attachments = dto.getDecodedAttachments() != null ? dto.getDecodedAttachments() : DecodedAttachment.decode(dto.getAttachments());
+		if (isNotEmpty(attachments)) {
+			secureMessage.getAttachments().addAll(createAttachments(attachments));
 		}
 		return secureMessage;
 	}
 
-	List<Attachment> createAttachments(final List<File> attachments) {
+	List<Attachment> createAttachments(final List<DecodedAttachment> attachments) {
 		if (isEmpty(attachments)) {
 			return Collections.emptyList();
 		}
 
 		return attachments.stream()
 			.map(attachment -> {
-				// We need to decode the base64-encoded string before we convert it to a byte array.
-				final var attachmentBytes = Base64.decode(
-					attachment.getBody());
-
+				// The content is already decoded, JAXB will encode it (once) when marshalling.
 				final var mailAttachment = new Attachment();
-				mailAttachment.setBody(attachmentBytes);
-				mailAttachment.setContentType(attachment.getContentType());
-				mailAttachment.setFilename(attachment.getFilename());
-				mailAttachment.setChecksum(createMd5Checksum(attachmentBytes));
+				mailAttachment.setBody(attachment.content());
+				mailAttachment.setContentType(attachment.contentType());
+				mailAttachment.setFilename(attachment.filename());
+				// The checksum is reused if it was calculated (and cached) when the attachment was compressed
+				mailAttachment.setChecksum(ofNullable(attachment.checksum()).orElseGet(() -> createMd5Checksum(attachment.content())));
 				return mailAttachment;
 			})
 			.toList();
@@ -0,0 +1,74 @@
+package se.sundsvall.digitalmail.integration.skatteverket.sendmail;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.w3c.dom.Node;
+
+/**
+ * A bounded pool of marshallers sharing one JAXBContext. Marshallers are not thread safe, but since each marshaller is
+ * only used by one caller at a time (borrowed from and returned to the pool) they can be reused across both platform
+ * and virtual threads. A ThreadLocal does not work well for this, as virtual threads are not reused.
+ */
+class MarshallerPool {
+
+	static final String METRIC_NAME = "digitalmail.marshaller.pool";
+
+	private final JAXBContext jaxbContext;
+	private final BlockingQueue<Marshaller> idleMarshallers;
+	private final Counter hits;
+	private final Counter misses;
+
+	MarshallerPool(final JAXBContext jaxbContext, final int maxIdle, final MeterRegistry meterRegistry) {
+		this.jaxbContext = jaxbContext;
+		this.idleMarshallers = new ArrayBlockingQueue<>(maxIdle);
+		this.hits = Counter.builder(METRIC_NAME)
+			.description("Number of marshallers reused from the pool")
+			.tag("result", "hit")
+			.register(meterRegistry);
+		this.misses = Counter.builder(METRIC_NAME)
+			.description("Number of marshallers created because the pool was empty")
+			.tag("result", "miss")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Marshal the given JAXB object into the given DOM node, using a pooled marshaller.
+	 *
+	 * @param  jaxbElement   the object to marshal
+	 * @param  node          the node to marshal to
+	 * @throws JAXBException if marshalling fails
+	 */
+	void marshal(final Object jaxbElement, final Node node) throws JAXBException {
+		final var marshaller = borrow();
+
+		marshaller.marshal(jaxbElement, node);
+
+		// Only return marshallers that completed successfully, a failing one might be left in an unknown state
+		release(marshaller);
+	}
+
+	int idleCount() {
+		return idleMarshallers.size();
+	}
+
+	private Marshaller borrow() throws JAXBException {
+		final var marshaller = idleMarshallers.poll();
+		if (marshaller != null) {
+			hits.increment();
+			return marshaller;
+		}
+
+		misses.increment();
+		return jaxbContext.createMarshaller();
+	}
+
+	private void release(final Marshaller marshaller) {
+		// Discarded if the pool already is full
+		idleMarshallers.offer(marshaller);
+	}
+}
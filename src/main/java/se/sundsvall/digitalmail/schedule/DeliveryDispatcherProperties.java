@@ -0,0 +1,12 @@
+package se.sundsvall.digitalmail.schedule;
+
+import jakarta.validation.constraints.Positive;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties("scheduler.delivery-dispatcher")
+public record DeliveryDispatcherProperties(
+	@Positive @DefaultValue("100") int batchSize,
+	@Positive @DefaultValue("3") int maxAttempts) {}
@@ -0,0 +1,29 @@
+package se.sundsvall.digitalmail.schedule;
+
+import org.springframework.stereotype.Component;
+import se.sundsvall.dept44.scheduling.Dept44Scheduled;
+import se.sundsvall.digitalmail.service.AsyncDeliveryService;
+
+/**
+ * Drains the delivery outbox. Shedlock (via Dept44Scheduled) makes sure only one instance dispatches at a time.
+ */
+@Component
+public class DeliveryDispatcherScheduler {
+
+	private final AsyncDeliveryService asyncDeliveryService;
+	private final DeliveryDispatcherProperties properties;
+
+	public DeliveryDispatcherScheduler(final AsyncDeliveryService asyncDeliveryService, final DeliveryDispatcherProperties properties) {
+		this.asyncDeliveryService = asyncDeliveryService;
+		this.properties = properties;
+	}
+
+	@Dept44Scheduled(
+		name = "${scheduler.delivery-dispatcher.name}",
+		cron = "${scheduler.delivery-dispatcher.cron:-}",
+		lockAtMostFor = "${scheduler.delivery-dispatcher.lock-at-most-for}",
+		maximumExecutionTime = "${scheduler.delivery-dispatcher.maximum-execution-time}")
+	public void execute() {
+		asyncDeliveryService.dispatchPending(properties.batchSize(), properties.maxAttempts());
+	}
+}
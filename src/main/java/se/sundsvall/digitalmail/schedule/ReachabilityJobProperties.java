@@ -0,0 +1,16 @@
+package se.sundsvall.digitalmail.schedule;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+@Validated
+@ConfigurationProperties("scheduler.reachability-jobs")
+public record ReachabilityJobProperties(
+	@Positive @DefaultValue("1000") int chunkSize,
+	@Positive @DefaultValue("100") int maxChunks,
+	@Positive @DefaultValue("3") int maxAttempts,
+	@NotNull @DefaultValue("P7D") Duration retention) {}
@@ -0,0 +1,32 @@
+package se.sundsvall.digitalmail.schedule;
+
+import org.springframework.stereotype.Component;
+import se.sundsvall.dept44.scheduling.Dept44Scheduled;
+import se.sundsvall.digitalmail.service.ReachabilityJobService;
+
+/**
+ * Processes pending reachability jobs. Shedlock (via Dept44Scheduled) makes sure only one instance processes at a time,
+ * and each execution is bounded to max-chunks chunks so a large job is spread over several executions. Completed and
+ * failed jobs, with their results, are deleted once they haven't been modified for the retention period.
+ */
+@Component
+public class ReachabilityJobScheduler {
+
+	private final ReachabilityJobService reachabilityJobService;
+	private final ReachabilityJobProperties properties;
+
+	public ReachabilityJobScheduler(final ReachabilityJobService reachabilityJobService, final ReachabilityJobProperties properties) {
+		this.reachabilityJobService = reachabilityJobService;
+		this.properties = properties;
+	}
+
+	@Dept44Scheduled(
+		name = "${scheduler.reachability-jobs.name}",
+		cron = "${scheduler.reachability-jobs.cron:-}",
+		lockAtMostFor = "${scheduler.reachability-jobs.lock-at-most-for}",
+		maximumExecutionTime = "${scheduler.reachability-jobs.maximum-execution-time}")
+	public void execute() {
+		reachabilityJobService.deleteExpired(properties.retention());
+		reachabilityJobService.processPending(properties.chunkSize(), properties.maxChunks(), properties.maxAttempts());
+	}
+}
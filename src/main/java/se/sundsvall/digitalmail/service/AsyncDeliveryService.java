@@ -0,0 +1,136 @@
+package se.sundsvall.digitalmail.service;
+
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import se.sundsvall.dept44.problem.Problem;
+import se.sundsvall.dept44.problem.ThrowableProblem;
+import se.sundsvall.digitalmail.api.model.AsyncDelivery;
+import se.sundsvall.digitalmail.api.model.DigitalMailRequest;
+import se.sundsvall.digitalmail.integration.db.DeliveryRepository;
+import se.sundsvall.digitalmail.integration.db.model.DeliveryEntity;
+import se.sundsvall.digitalmail.integration.skatteverket.DigitalMailDto;
+import tools.jackson.databind.json.JsonMapper;
+
+import static org.apache.commons.lang3.StringUtils.truncate;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.DELIVERED;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.FAILED;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.NOT_DELIVERED;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.PENDING;
+
+/**
+ * Handles asynchronous deliveries. Requests are stored in the delivery table (outbox) and sent later on by the
+ * dispatcher, decoupling the response time for the caller from the response time of Skatteverket.
+ */
+@Service
+public class AsyncDeliveryService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AsyncDeliveryService.class);
+	private static final int MAX_DETAIL_LENGTH = 1000;
+
+	// Problems with these statuses will not go away by retrying, e.g. no legal id or mailbox found
+	private static final Set<Object> PERMANENT_FAILURE_STATUSES = Set.of(BAD_REQUEST, NOT_FOUND);
+
+	private final DeliveryRepository deliveryRepository;
+
+	private final DigitalMailService digitalMailService;
+
+	private final JsonMapper jsonMapper;
+
+	AsyncDeliveryService(final DeliveryRepository deliveryRepository, final DigitalMailService digitalMailService, final JsonMapper jsonMapper) {
+		this.deliveryRepository = deliveryRepository;
+		this.digitalMailService = digitalMailService;
+		this.jsonMapper = jsonMapper;
+	}
+
+	/**
+	 * Store a digital mail request in the outbox, to be sent by the dispatcher.
+	 *
+	 * @param  request            the digital mail to send
+	 * @param  organizationNumber the organization number of the sender
+	 * @param  municipalityId     the municipality id
+	 * @return                    the stored delivery, in state PENDING
+	 */
+	public AsyncDelivery enqueue(final DigitalMailRequest request, final String organizationNumber, final String municipalityId) {
+		final var entity = DeliveryEntity.builder()
+			.withMunicipalityId(municipalityId)
+			.withOrganizationNumber(organizationNumber)
+			.withPartyId(request.getPartyId())
+			.withRequest(jsonMapper.writeValueAsString(request))
+			.withState(PENDING)
+			.build();
+
+		return toAsyncDelivery(deliveryRepository.save(entity));
+	}
+
+	public AsyncDelivery getDelivery(final String deliveryId, final String organizationNumber, final String municipalityId) {
+		return deliveryRepository.findByIdAndMunicipalityIdAndOrganizationNumber(deliveryId, municipalityId, organizationNumber)
+			.map(AsyncDeliveryService::toAsyncDelivery)
+			.orElseThrow(() -> Problem.builder()
+				.withTitle("Delivery not found")
+				.withDetail("No delivery with id '%s' could be found".formatted(deliveryId))
+				.withStatus(NOT_FOUND)
+				.build());
+	}
+
+	/**
+	 * Send the oldest pending deliveries. Deliveries failing with a temporary error are left pending until they have been
+	 * attempted maxAttempts times.
+	 *
+	 * @param batchSize   max number of deliveries to send
+	 * @param maxAttempts max number of attempts for a single delivery
+	 */
+	public void dispatchPending(final int batchSize, final int maxAttempts) {
+		deliveryRepository.findByStateOrderByCreatedAsc(PENDING, Limit.of(batchSize))
+			.forEach(entity -> dispatch(entity, maxAttempts));
+	}
+
+	private void dispatch(final DeliveryEntity entity, final int maxAttempts) {
+		entity.setAttempts(entity.getAttempts() + 1);
+
+		try {
+			final var request = jsonMapper.readValue(entity.getRequest(), DigitalMailRequest.class);
+			final var deliveryStatus = digitalMailService.sendDigitalMail(new DigitalMailDto(request, entity.getOrganizationNumber()), entity.getMunicipalityId()).getDeliveryStatus();
+
+			entity.setState(deliveryStatus.isDelivered() ? DELIVERED : NOT_DELIVERED);
+			entity.setTransactionId(deliveryStatus.getTransactionId());
+			entity.setDetail(null);
+		} catch (final ThrowableProblem e) {
+			handleFailure(entity, maxAttempts, e.getMessage(), PERMANENT_FAILURE_STATUSES.contains(e.getStatus()));
+		} catch (final Exception e) {
+			handleFailure(entity, maxAttempts, e.getMessage(), false);
+		}
+
+		// The request (containing body and attachments) is not needed anymore once the delivery is done
+		if (entity.getState() != PENDING) {
+			entity.setRequest(null);
+		}
+
+		deliveryRepository.save(entity);
+	}
+
+	private void handleFailure(final DeliveryEntity entity, final int maxAttempts, final String detail, final boolean permanent) {
+		LOGGER.warn("Attempt {} to send delivery {} failed: {}", entity.getAttempts(), entity.getId(), detail);
+
+		entity.setDetail(truncate(detail, MAX_DETAIL_LENGTH));
+		if (permanent || entity.getAttempts() >= maxAttempts) {
+			entity.setState(FAILED);
+		}
+	}
+
+	static AsyncDelivery toAsyncDelivery(final DeliveryEntity entity) {
+		return AsyncDelivery.builder()
+			.withDeliveryId(entity.getId())
+			.withPartyId(entity.getPartyId())
+			.withState(entity.getState())
+			.withTransactionId(entity.getTransactionId())
+			.withDetail(entity.getDetail())
+			.withCreated(entity.getCreated())
+			.withModified(entity.getModified())
+			.build();
+	}
+}
@@ -1,36 +1,113 @@
 package se.sundsvall.digitalmail.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import se.sundsvall.digitalmail.configuration.ReachabilityCacheProperties;
 import se.sundsvall.digitalmail.integration.skatteverket.MailboxDto;
+import se.sundsvall.digitalmail.integration.skatteverket.SkatteverketProperties;
 import se.sundsvall.digitalmail.integration.skatteverket.reachable.ReachableIntegration;
 
+import static se.sundsvall.digitalmail.configuration.ExecutorConfiguration.INTEGRATION_EXECUTOR;
+import static se.sundsvall.digitalmail.integration.skatteverket.MailboxDto.REASON_MAILBOX_PENDING;
+import static se.sundsvall.digitalmail.util.ChunkedCalls.callInChunks;
+
 @Service
 public class AvailabilityService {
 
+	static final String REACHABILITY_CACHE = "reachabilityCache";
+
 	private final ReachableIntegration reachableIntegration;
+	private final Cache<ReachabilityKey, MailboxDto> reachabilityCache;
+	private final Executor integrationExecutor;
+	private final int chunkParallelism;
 	private static final int MAX_LEGAL_IDS_PER_CALL = 1000;
 
-	public AvailabilityService(final ReachableIntegration reachableIntegration) {
+	public AvailabilityService(final ReachableIntegration reachableIntegration, final ReachabilityCacheProperties cacheProperties, final SkatteverketProperties skatteverketProperties,
+		@Qualifier(INTEGRATION_EXECUTOR) final Executor integrationExecutor, final MeterRegistry meterRegistry) {
 		this.reachableIntegration = reachableIntegration;
+		this.integrationExecutor = integrationExecutor;
+		this.chunkParallelism = skatteverketProperties.reachableChunkParallelism();
+		this.reachabilityCache = Caffeine.newBuilder()
+			.maximumSize(cacheProperties.maxSize())
+			.expireAfter(new ReachabilityExpiry(cacheProperties))
+			.recordStats()
+			.build();
+
+		CaffeineCacheMetrics.monitor(meterRegistry, reachabilityCache, REACHABILITY_CACHE);
 	}
 
 	/**
 	 * Fetch a list of possible mailboxes.
-	 * If the list of legalIds is larger than MAX_LEGAL_IDS_PER_CALL it will be divided into multiple calls and aggregated.
-	 * Throws a problem in case no valid mailboxes are found for the given legal Ids.
+	 * Mailboxes are cached per legal Id and sender, and only legal Ids not found in the cache are sent to Skatteverket.
+	 * If the list of legalIds is larger than MAX_LEGAL_IDS_PER_CALL it will be divided into multiple calls, made
+	 * concurrently, and aggregated.
 	 *
 	 * @param  legalIds           containing all legal Ids we should fetch mailboxes for
 	 * @param  organizationNumber the organization number of the sender
 	 * @return                    List of MailboxDto containing the mailboxes for the given legal Ids
 	 */
 	public List<MailboxDto> getRecipientMailboxesAndCheckAvailability(final List<String> legalIds, final String organizationNumber) {
-		final var result = new ArrayList<MailboxDto>();
-		for (var i = 0; i < legalIds.size(); i += MAX_LEGAL_IDS_PER_CALL) {
-			final var chunk = legalIds.subList(i, Math.min(i + MAX_LEGAL_IDS_PER_CALL, legalIds.size()));
-			result.addAll(reachableIntegration.isReachable(chunk, organizationNumber));
-		}
+		final var keys = legalIds.stream()
+			.distinct()
+			.map(legalId -> new ReachabilityKey(legalId, organizationNumber))
+			.toList();
+		final var cached = reachabilityCache.getAllPresent(keys);
+
+		final var result = new ArrayList<>(cached.values());
+		final var misses = keys.stream()
+			.filter(key -> !cached.containsKey(key))
+			.map(ReachabilityKey::legalId)
+			.toList();
+
+		callInChunks(misses, MAX_LEGAL_IDS_PER_CALL, chunkParallelism, integrationExecutor, chunk -> {
+			final var mailboxes = reachableIntegration.isReachable(chunk, organizationNumber);
+			cache(mailboxes, Set.copyOf(chunk), organizationNumber);
+			return mailboxes;
+		}).forEach(result::addAll);
 		return result;
 	}
+
+	private void cache(final List<MailboxDto> mailboxes, final Set<String> requestedLegalIds, final String organizationNumber) {
+		// Only mailboxes that can be matched with a requested legal id are cached
+		reachabilityCache.putAll(mailboxes.stream()
+			.filter(mailbox -> requestedLegalIds.contains(mailbox.getRecipientId()))
+			.collect(Collectors.toMap(mailbox -> new ReachabilityKey(mailbox.getRecipientId(), organizationNumber), mailbox -> mailbox, (first, second) -> first)));
+	}
+
+	record ReachabilityKey(String legalId, String organizationNumber) {}
+
+	/**
+	 * Reachable, unreachable and pending mailboxes are cached for different amounts of time, since a pending mailbox is
+	 * likely to be activated soon while a reachable one seldom changes.
+	 */
+	private record ReachabilityExpiry(ReachabilityCacheProperties properties) implements Expiry<ReachabilityKey, MailboxDto> {
+
+		@Override
+		public long expireAfterCreate(final ReachabilityKey key, final MailboxDto mailbox, final long currentTime) {
+			if (mailbox.isValidMailbox()) {
+				return properties.reachableTtl().toNanos();
+			}
+			return REASON_MAILBOX_PENDING.equals(mailbox.getReason()) ? properties.pendingTtl().toNanos() : properties.unreachableTtl().toNanos();
+		}
+
+		@Override
+		public long expireAfterUpdate(final ReachabilityKey key, final MailboxDto mailbox, final long currentTime, final long currentDuration) {
+			return expireAfterCreate(key, mailbox, currentTime);
+		}
+
+		@Override
+		public long expireAfterRead(final ReachabilityKey key, final MailboxDto mailbox, final long currentTime, final long currentDuration) {
+			return currentDuration;
+		}
+	}
 }
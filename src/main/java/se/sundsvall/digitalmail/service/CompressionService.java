@@ -0,0 +1,243 @@
+package se.sundsvall.digitalmail.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import se.sundsvall.digitalmail.api.model.File;
+import se.sundsvall.digitalmail.configuration.CompressionProperties;
+import se.sundsvall.digitalmail.domain.attachment.DecodedAttachment;
+import se.sundsvall.digitalmail.util.PdfCompressor;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static se.sundsvall.dept44.util.LogUtils.sanitizeForLogging;
+import static se.sundsvall.digitalmail.configuration.ExecutorConfiguration.COMPRESSION_EXECUTOR;
+
+/**
+ * Compresses attachments in parallel on a bounded executor. Each attachment has a time budget, counted from when it was
+ * submitted, and is sent uncompressed if it isn't compressed in time or if the executor is saturated.
+ * <p>
+ * The same attachment is often sent to a large number of recipients, so compressed attachments are cached by a hash of
+ * their original content, together with the MD5 checksum of the compressed content.
+ */
+@Service
+public class CompressionService {
+
+	static final String COMPRESSION_TIMER = "digitalmail.pdf.compression";
+	static final String SKIPPED_COUNTER = "digitalmail.pdf.compression.skipped";
+	static final String QUEUE_GAUGE = "digitalmail.pdf.compression.queue";
+	static final String CACHE_COUNTER = "digitalmail.pdf.compression.cache";
+	static final String CACHE_HIT_RATIO_GAUGE = "digitalmail.pdf.compression.cache.hit.ratio";
+	static final String CACHE_SIZE_GAUGE = "digitalmail.pdf.compression.cache.size";
+	static final String DECISION_COUNTER = "digitalmail.pdf.compression.decision";
+	static final String BYTES_SAVED_COUNTER = "digitalmail.pdf.compression.cache.bytes.saved";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CompressionService.class);
+
+	private final ThreadPoolTaskExecutor compressionExecutor;
+	private final Duration timeBudget;
+	private final long minSize;
+	private final double maxImageRatio;
+	private final boolean onlyWhenTooBig;
+	private final MeterRegistry meterRegistry;
+	private final Cache<String, CompressedPdf> cache;
+	private final Counter cacheHits;
+	private final Counter cacheMisses;
+	private final Counter bytesSaved;
+
+	CompressionService(@Qualifier(COMPRESSION_EXECUTOR) final ThreadPoolTaskExecutor compressionExecutor, final CompressionProperties properties, final MeterRegistry meterRegistry) {
+		this.compressionExecutor = compressionExecutor;
+		this.timeBudget = properties.timeBudget();
+		this.minSize = properties.minSize().toBytes();
+		this.maxImageRatio = properties.maxImageRatio();
+		this.onlyWhenTooBig = properties.onlyWhenTooBig();
+		this.meterRegistry = meterRegistry;
+		this.cache = Caffeine.newBuilder()
+			.maximumWeight(properties.cacheMaxSize().toBytes())
+			.weigher((String key, CompressedPdf value) -> value.content().length)
+			.build();
+
+		Gauge.builder(QUEUE_GAUGE, compressionExecutor, ThreadPoolTaskExecutor::getQueueSize)
+			.description("Number of attachments waiting to be compressed")
+			.register(meterRegistry);
+
+		cacheHits = cacheCounter("hit");
+		cacheMisses = cacheCounter("miss");
+		bytesSaved = Counter.builder(BYTES_SAVED_COUNTER)
+			.description("Number of attachment bytes that didn't have to be compressed again thanks to the cache")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+		Gauge.builder(CACHE_HIT_RATIO_GAUGE, this, CompressionService::cacheHitRatio)
+			.description("Ratio of attachments found in the compression cache")
+			.register(meterRegistry);
+		Gauge.builder(CACHE_SIZE_GAUGE, cache, c -> c.policy().eviction().orElseThrow().weightedSize().orElse(0))
+			.description("Total size of the compressed attachments in the cache")
+			.baseUnit("bytes")
+			.register(meterRegistry);
+	}
+
+	/**
+	 * Decode and compress the files. The result is kept as bytes, so it can be passed on without being encoded to base64
+	 * again.
+	 *
+	 * @param  files the files to compress
+	 * @return       the decoded and compressed files, in the same order
+	 */
+	public List<DecodedAttachment> decodeAndCompress(final List<File> files) {
+		return compress(DecodedAttachment.decode(files));
+	}
+
+	/**
+	 * Decode the files, and compress them unless compression is only done for messages that are too big and the decoded
+	 * files already fit in the message.
+	 *
+	 * @param  files the files to decode, and possibly compress
+	 * @param  fits  whether the decoded files fit in the message without being compressed
+	 * @return       the decoded, and possibly compressed, files in the same order
+	 */
+	public List<DecodedAttachment> decodeAndCompress(final List<File> files, final Predicate<List<DecodedAttachment>> fits) {
+		final var decoded = DecodedAttachment.decode(files);
+		if (onlyWhenTooBig && !decoded.isEmpty() && fits.test(decoded)) {
+			skipped("fits", decoded.size());
+			return decoded;
+		}
+		return compress(decoded);
+	}
+
+	private List<DecodedAttachment> compress(final List<DecodedAttachment> attachments) {
+		// Submit all attachments before waiting for any of them, to compress them in parallel
+		final var pendingCompressions = attachments.stream()
+			.map(this::submit)
+			.toList();
+
+		return pendingCompressions.stream()
+			.map(this::await)
+			.toList();
+	}
+
+	private PendingCompression submit(final DecodedAttachment attachment) {
+		if (attachment.content().length == 0) {
+			return new PendingCompression(attachment, null, System.nanoTime());
+		}
+
+		final var key = hash("SHA-256", attachment.content());
+		final var cached = cache.getIfPresent(key);
+		if (cached != null) {
+			cacheHits.increment();
+			bytesSaved.increment(attachment.content().length);
+			return new PendingCompression(attachment, CompletableFuture.completedFuture(cached), System.nanoTime());
+		}
+		cacheMisses.increment();
+
+		final var submitted = System.nanoTime();
+		try {
+			// Identical attachments submitted at the same time are compressed once, the others wait for the result
+			return new PendingCompression(attachment, compressionExecutor.submitCompletable(() -> cache.get(key, k -> compress(attachment))), submitted);
+		} catch (final TaskRejectedException e) {
+			LOGGER.warn("Compression queue is full, sending pdf {} uncompressed", sanitizeForLogging(attachment.filename()));
+			skipped("rejected");
+			return new PendingCompression(attachment, null, System.nanoTime());
+		}
+	}
+
+	private DecodedAttachment await(final PendingCompression pending) {
+		if (pending.future() == null) {
+			return pending.attachment();
+		}
+
+		final var remaining = timeBudget.toNanos() - (System.nanoTime() - pending.submitted());
+		try {
+			final var compressed = pending.future().get(Math.max(remaining, 0), NANOSECONDS);
+			return pending.attachment().withContent(compressed.content(), compressed.checksum());
+		} catch (final TimeoutException e) {
+			LOGGER.warn("Compression of pdf {} exceeded the time budget of {}, sending it uncompressed", sanitizeForLogging(pending.attachment().filename()), timeBudget);
+			// Best effort, a compression already running is left to finish but its result is not used
+			pending.future().cancel(true);
+			skipped("timeout");
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pending.future().cancel(true);
+			skipped("interrupted");
+		} catch (final ExecutionException e) {
+			LOGGER.warn("Compression of pdf {} failed, sending it uncompressed", sanitizeForLogging(pending.attachment().filename()), e);
+			skipped("failed");
+		}
+
+		return pending.attachment();
+	}
+
+	private CompressedPdf compress(final DecodedAttachment attachment) {
+		final var start = System.nanoTime();
+		final var result = PdfCompressor.compress(attachment.filename(), attachment.content(), minSize, maxImageRatio);
+
+		Timer.builder(COMPRESSION_TIMER)
+			.description("Time spent compressing attachments")
+			.tag("outcome", result.content() == attachment.content() ? "uncompressed" : "compressed")
+			.register(meterRegistry)
+			.record(System.nanoTime() - start, NANOSECONDS);
+		Counter.builder(DECISION_COUNTER)
+			.description("Number of attachments compressed, or not, per reason")
+			.tag("reason", result.decision().tagValue())
+			.register(meterRegistry)
+			.increment();
+
+		// Pdfs that weren't compressed are cached as well, to not inspect or try again for every recipient
+		return new CompressedPdf(result.content(), hash("MD5", result.content()));
+	}
+
+	private double cacheHitRatio() {
+		final var lookups = cacheHits.count() + cacheMisses.count();
+		return lookups == 0 ? 0 : cacheHits.count() / lookups;
+	}
+
+	private Counter cacheCounter(final String result) {
+		return Counter.builder(CACHE_COUNTER)
+			.description("Number of lookups in the compression cache")
+			.tag("result", result)
+			.register(meterRegistry);
+	}
+
+	// The checksum format is the same as expected by Skatteverket, i.e. upper case hex
+	private static String hash(final String algorithm, final byte[] content) {
+		try {
+			return HexFormat.of().withUpperCase().formatHex(MessageDigest.getInstance(algorithm).digest(content));
+		} catch (final NoSuchAlgorithmException e) {
+			// MD5 and SHA-256 are supported by every Java platform
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void skipped(final String reason) {
+		skipped(reason, 1);
+	}
+
+	private void skipped(final String reason, final int attachments) {
+		Counter.builder(SKIPPED_COUNTER)
+			.description("Number of attachments sent uncompressed, since they couldn't be compressed in time or didn't need to be")
+			.tag("reason", reason)
+			.register(meterRegistry)
+			.increment(attachments);
+	}
+
+	private record PendingCompression(DecodedAttachment attachment, Future<CompressedPdf> future, long submitted) {}
+
+	private record CompressedPdf(byte[] content, String checksum) {}
+}
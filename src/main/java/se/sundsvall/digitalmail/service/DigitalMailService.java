@@ -4,31 +4,44 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import se.sundsvall.dept44.problem.Problem;
+import se.sundsvall.digitalmail.api.model.BodyInformation;
+import se.sundsvall.digitalmail.api.model.DeliveryStatus;
 import se.sundsvall.digitalmail.api.model.DigitalInvoiceResponse;
+import se.sundsvall.digitalmail.api.model.DigitalMailBatchRequest;
+import se.sundsvall.digitalmail.api.model.DigitalMailRequest;
 import se.sundsvall.digitalmail.api.model.DigitalMailResponse;
+import se.sundsvall.digitalmail.api.model.File;
 import se.sundsvall.digitalmail.api.model.Mailbox;
+import se.sundsvall.digitalmail.domain.attachment.DecodedAttachment;
 import se.sundsvall.digitalmail.integration.kivra.InvoiceDto;
 import se.sundsvall.digitalmail.integration.kivra.KivraIntegration;
 import se.sundsvall.digitalmail.integration.party.PartyIntegration;
 import se.sundsvall.digitalmail.integration.skatteverket.DigitalMailDto;
 import se.sundsvall.digitalmail.integration.skatteverket.MailboxDto;
 import se.sundsvall.digitalmail.integration.skatteverket.sendmail.DigitalMailIntegration;
-import se.sundsvall.digitalmail.util.PdfCompressor;
 
+import static java.util.Optional.ofNullable;
 import static org.apache.commons.collections4.CollectionUtils.isEmpty;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static se.sundsvall.dept44.util.LogUtils.sanitizeForLogging;
+import static se.sundsvall.digitalmail.configuration.ExecutorConfiguration.BATCH_EXECUTOR;
 
 @Service
 public class DigitalMailService {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(DigitalMailService.class);
 	private static final String ERROR_NO_LEGAL_ID_FOUND = "No legal Id found for partyId: %s";
+	private static final int MAILBOX_STREAM_CHUNK_SIZE = 1000;
 
 	private final PartyIntegration partyIntegration;
 
@@ -38,15 +51,27 @@ public class DigitalMailService {
 
 	private final AvailabilityService availabilityService;
 
+	private final CompressionService compressionService;
+
+	private final MessageSizeEstimator messageSizeEstimator;
+
+	private final Executor batchExecutor;
+
 	DigitalMailService(
 		final PartyIntegration partyIntegration,
 		final DigitalMailIntegration digitalMailIntegration,
 		final KivraIntegration kivraIntegration,
-		final AvailabilityService availabilityService) {
+		final AvailabilityService availabilityService,
+		final CompressionService compressionService,
+		final MessageSizeEstimator messageSizeEstimator,
+		@Qualifier(BATCH_EXECUTOR) final Executor batchExecutor) {
 		this.partyIntegration = partyIntegration;
 		this.digitalMailIntegration = digitalMailIntegration;
 		this.kivraIntegration = kivraIntegration;
 		this.availabilityService = availabilityService;
+		this.compressionService = compressionService;
+		this.messageSizeEstimator = messageSizeEstimator;
+		this.batchExecutor = batchExecutor;
 	}
 
 	/**
@@ -56,7 +81,7 @@ public class DigitalMailService {
 	 * @return            Response whether the sending went ok or not.
 	 */
 	public DigitalMailResponse sendDigitalMail(final DigitalMailDto requestDto, final String municipalityId) {
-		PdfCompressor.compress(requestDto.getAttachments());
+		requestDto.setDecodedAttachments(decodeAndCompress(requestDto.getBodyInformation(), requestDto.getAttachments()));
 
 		final var legalId = partyIntegration.getLegalId(municipalityId, requestDto.getPartyId())
 			.orElseThrow(() -> Problem.builder()
@@ -79,11 +104,105 @@ public class DigitalMailService {
 		// We'll only have one mailbox as we only handle one legal Id at a time.
 		final var mailbox = mailboxes.getFirst();
 		requestDto.setRecipientId(mailbox.getRecipientId());
+		messageSizeEstimator.checkSize(requestDto.getBodyInformation(), requestDto.getDecodedAttachments(), mailbox.getServiceAddress());
 
 		// Send digital mail, since the serviceAddress may differ we set this as a parameter into the integration.
 		return digitalMailIntegration.sendDigitalMail(requestDto, mailbox.getServiceAddress());
 	}
 
+	/**
+	 * Send the same digital mail to multiple recipients.
+	 * Legal ids are resolved and reachability is checked in bulk, after which each reachable recipient gets its own
+	 * delivery on the batch executor. A failing delivery doesn't affect the other recipients.
+	 *
+	 * @param  request            containing the message and all recipients
+	 * @param  organizationNumber the organization number of the sender
+	 * @param  municipalityId     the municipality id
+	 * @return                    a delivery status for each partyId, in the same order as in the request
+	 */
+	public List<DeliveryStatus> sendDigitalMailBatch(final DigitalMailBatchRequest request, final String organizationNumber, final String municipalityId) {
+		// The attachments are the same for all recipients, so we only need to decode and compress them once.
+		final var decodedAttachments = decodeAndCompress(request.getBodyInformation(), request.getAttachments());
+
+		final var partyIdLegalIdMap = getPartyIdLegalIdMap(request.getPartyIds(), municipalityId);
+		final var mailboxes = getMailboxesByLegalId(partyIdLegalIdMap, organizationNumber);
+
+		final var deliveries = request.getPartyIds().stream()
+			.map(partyId -> sendToRecipient(request, decodedAttachments, partyId, ofNullable(partyIdLegalIdMap.get(partyId)).map(mailboxes::get).orElse(null), organizationNumber, municipalityId))
+			.toList();
+
+		return deliveries.stream()
+			.map(CompletableFuture::join)
+			.toList();
+	}
+
+	/**
+	 * Decode and compress the attachments, and reject the message before any lookups or signing are done if it's still
+	 * too big to be sent.
+	 */
+	private List<DecodedAttachment> decodeAndCompress(final BodyInformation bodyInformation, final List<File> attachments) {
+		final var decodedAttachments = compressionService.decodeAndCompress(attachments, decoded -> messageSizeEstimator.fits(bodyInformation, decoded, null));
+		messageSizeEstimator.checkSize(bodyInformation, decodedAttachments, null);
+		return decodedAttachments;
+	}
+
+	private Map<String, MailboxDto> getMailboxesByLegalId(final Map<String, String> partyIdLegalIdMap, final String organizationNumber) {
+		final var foundLegalIds = partyIdLegalIdMap.values().stream()
+			.filter(Objects::nonNull)
+			.distinct()
+			.toList();
+
+		if (foundLegalIds.isEmpty()) {
+			return Map.of();
+		}
+
+		return availabilityService.getRecipientMailboxesAndCheckAvailability(foundLegalIds, organizationNumber).stream()
+			.filter(mailboxDto -> mailboxDto.getRecipientId() != null)
+			.collect(Collectors.toMap(MailboxDto::getRecipientId, Function.identity(), (first, second) -> first));
+	}
+
+	private CompletableFuture<DeliveryStatus> sendToRecipient(final DigitalMailBatchRequest request, final List<DecodedAttachment> decodedAttachments, final String partyId, final MailboxDto mailbox,
+		final String organizationNumber, final String municipalityId) {
+		if (mailbox == null || !mailbox.isValidMailbox()) {
+			LOGGER.info("No valid mailbox found for partyId: {}", sanitizeForLogging(partyId));
+			return CompletableFuture.completedFuture(createUndeliveredStatus(partyId));
+		}
+
+		if (!messageSizeEstimator.fits(request.getBodyInformation(), decodedAttachments, mailbox.getServiceAddress())) {
+			LOGGER.info("Message is too big to be sent to the supplier of partyId: {}", sanitizeForLogging(partyId));
+			return CompletableFuture.completedFuture(createUndeliveredStatus(partyId));
+		}
+
+		final var requestDto = new DigitalMailDto(toDigitalMailRequest(request, partyId, municipalityId), organizationNumber);
+		requestDto.setRecipientId(mailbox.getRecipientId());
+		requestDto.setDecodedAttachments(decodedAttachments);
+
+		return CompletableFuture
+			.supplyAsync(() -> digitalMailIntegration.sendBatchDigitalMail(requestDto, mailbox.getServiceAddress()).getDeliveryStatus(), batchExecutor)
+			.exceptionally(throwable -> {
+				LOGGER.warn("Failed to send digital mail to partyId: {}", sanitizeForLogging(partyId), throwable);
+				return createUndeliveredStatus(partyId);
+			});
+	}
+
+	private DigitalMailRequest toDigitalMailRequest(final DigitalMailBatchRequest request, final String partyId, final String municipalityId) {
+		return DigitalMailRequest.builder()
+			.withPartyId(partyId)
+			.withMunicipalityId(municipalityId)
+			.withHeaderSubject(request.getHeaderSubject())
+			.withSupportInfo(request.getSupportInfo())
+			.withAttachments(request.getAttachments())
+			.withBodyInformation(request.getBodyInformation())
+			.build();
+	}
+
+	private DeliveryStatus createUndeliveredStatus(final String partyId) {
+		return DeliveryStatus.builder()
+			.withPartyId(partyId)
+			.withDelivered(false)
+			.build();
+	}
+
 	public DigitalInvoiceResponse sendDigitalInvoice(final InvoiceDto invoiceDto, final String municipalityId) {
 		final var ssn = partyIntegration.getLegalId(municipalityId, invoiceDto.getPartyId())
 			.orElseThrow(() -> Problem.builder()
@@ -128,6 +247,23 @@ public class DigitalMailService {
 		return createMailboxes(mailBoxDtoList, partyIdLegalIdMap);
 	}
 
+	/**
+	 * Same as getMailboxes, but the partyIds are handled in chunks and the mailboxes of each chunk are handed to the
+	 * consumer as soon as the chunk is done. Only one chunk at a time is kept in memory, no matter how many partyIds there
+	 * are.
+	 *
+	 * @param partyIds           the partyIds to fetch mailboxes for
+	 * @param municipalityId     the municipality id
+	 * @param organizationNumber the organization number of the sender
+	 * @param consumer           receives the mailboxes of each chunk, in the same order as the partyIds were chunked
+	 */
+	public void streamMailboxes(final List<String> partyIds, final String municipalityId, final String organizationNumber, final Consumer<List<Mailbox>> consumer) {
+		for (var i = 0; i < partyIds.size(); i += MAILBOX_STREAM_CHUNK_SIZE) {
+			final var chunk = partyIds.subList(i, Math.min(i + MAILBOX_STREAM_CHUNK_SIZE, partyIds.size()));
+			consumer.accept(getMailboxes(chunk, municipalityId, organizationNumber));
+		}
+	}
+
 	private Map<String, String> getPartyIdLegalIdMap(final List<String> partyIds, final String municipalityId) {
 		final var partyIdLegalIdMap = partyIntegration.getLegalIds(municipalityId, partyIds);
 
@@ -0,0 +1,100 @@
+package se.sundsvall.digitalmail.service;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import se.sundsvall.dept44.problem.Problem;
+import se.sundsvall.digitalmail.api.model.BodyInformation;
+import se.sundsvall.digitalmail.domain.attachment.DecodedAttachment;
+import se.sundsvall.digitalmail.integration.skatteverket.SkatteverketProperties;
+
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.MediaType.TEXT_HTML_VALUE;
+
+/**
+ * Estimates the size of the SOAP message a digital mail is sent as, so letters that are too big can be rejected before
+ * any lookups, compression or signing is done.
+ * <p>
+ * The body and attachments are base64 encoded in the message, and the rest of the message (headers, seal and
+ * signatures) is estimated by a fixed overhead, plus an extra overhead for suppliers whose messages are known to be
+ * bigger. The estimate is kept on the low side, so only letters that are sure to be rejected by the size check when
+ * they are sent are rejected early.
+ */
+@Component
+public class MessageSizeEstimator {
+
+	private final long maxSize;
+	private final long envelopeOverhead;
+	private final Map<String, DataSize> supplierEnvelopeOverhead;
+
+	MessageSizeEstimator(final SkatteverketProperties properties) {
+		this.maxSize = properties.messageMaxSize();
+		this.envelopeOverhead = properties.envelopeOverhead().toBytes();
+		this.supplierEnvelopeOverhead = Optional.ofNullable(properties.supplierEnvelopeOverhead()).orElse(Map.of());
+	}
+
+	/**
+	 * @param  bodyInformation the body of the message, may be null
+	 * @param  attachments     the decoded (and possibly compressed) attachments
+	 * @param  serviceAddress  the service address of the recipient's supplier, or null if it isn't known yet
+	 * @return                 the estimated size of the SOAP message in bytes
+	 */
+	public long estimate(final BodyInformation bodyInformation, final List<DecodedAttachment> attachments, final String serviceAddress) {
+		final var attachmentsSize = Optional.ofNullable(attachments).orElse(List.of()).stream()
+			.mapToLong(attachment -> base64Length(attachment.content().length))
+			.sum();
+
+		return envelopeOverhead + supplierOverhead(serviceAddress) + bodySize(bodyInformation) + attachmentsSize;
+	}
+
+	public boolean fits(final BodyInformation bodyInformation, final List<DecodedAttachment> attachments, final String serviceAddress) {
+		return estimate(bodyInformation, attachments, serviceAddress) <= maxSize;
+	}
+
+	/**
+	 * Rejects a message that is too big to be sent, with the same problem as the size check made when it's sent.
+	 *
+	 * @param bodyInformation the body of the message, may be null
+	 * @param attachments     the decoded (and possibly compressed) attachments
+	 * @param serviceAddress  the service address of the recipient's supplier, or null if it isn't known yet
+	 */
+	public void checkSize(final BodyInformation bodyInformation, final List<DecodedAttachment> attachments, final String serviceAddress) {
+		final var estimatedSize = estimate(bodyInformation, attachments, serviceAddress);
+
+		if (estimatedSize > maxSize) {
+			throw Problem.builder()
+				.withTitle("Message is too big to be sent as a digital mail.")
+				.withStatus(BAD_REQUEST)
+				.withDetail("Size is estimated to: " + estimatedSize + " bytes. Max allowed is: " + maxSize + " bytes.")
+				.build();
+		}
+	}
+
+	private long supplierOverhead(final String serviceAddress) {
+		return Optional.ofNullable(serviceAddress)
+			.map(URI::create)
+			.map(URI::getHost)
+			.map(supplierEnvelopeOverhead::get)
+			.map(DataSize::toBytes)
+			.orElse(0L);
+	}
+
+	// Html bodies are sent in base64 already, and end up the same length in the message
+	private static long bodySize(final BodyInformation bodyInformation) {
+		if (bodyInformation == null || bodyInformation.getBody() == null) {
+			return 0;
+		}
+		if (TEXT_HTML_VALUE.equals(bodyInformation.getContentType())) {
+			return bodyInformation.getBody().length();
+		}
+		return base64Length(bodyInformation.getBody().getBytes(StandardCharsets.UTF_8).length);
+	}
+
+	private static long base64Length(final long length) {
+		return 4 * ((length + 2) / 3);
+	}
+}
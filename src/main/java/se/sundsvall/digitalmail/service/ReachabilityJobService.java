@@ -0,0 +1,251 @@
+package se.sundsvall.digitalmail.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import se.sundsvall.dept44.problem.Problem;
+import se.sundsvall.digitalmail.api.model.Mailbox;
+import se.sundsvall.digitalmail.api.model.ReachabilityJob;
+import se.sundsvall.digitalmail.api.model.ReachabilityJobResults;
+import se.sundsvall.digitalmail.integration.db.ReachabilityJobRepository;
+import se.sundsvall.digitalmail.integration.db.ReachabilityJobResultRepository;
+import se.sundsvall.digitalmail.integration.db.model.ReachabilityJobEntity;
+import se.sundsvall.digitalmail.integration.db.model.ReachabilityJobResultEntity;
+
+import static java.time.OffsetDateTime.now;
+import static java.time.ZoneId.systemDefault;
+import static java.time.temporal.ChronoUnit.MILLIS;
+import static org.apache.commons.lang3.StringUtils.truncate;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState.COMPLETED;
+import static se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState.FAILED;
+import static se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState.PENDING;
+
+/**
+ * Handles bulk reachability jobs. The partyIds are stored with the job and processed chunk by chunk by the worker, each
+ * chunk going through the same Party and Skatteverket lookups as the mailboxes endpoint. The number of processed
+ * partyIds is stored after each chunk, so a job interrupted by e.g. a restart continues from the last chunk.
+ */
+@Service
+public class ReachabilityJobService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ReachabilityJobService.class);
+	private static final int MAX_DETAIL_LENGTH = 1000;
+	private static final String PARTY_ID_SEPARATOR = "\n";
+	private static final String ERROR_NO_MAILBOX_FOUND = "No mailbox found for partyId: %s";
+
+	private final ReachabilityJobRepository jobRepository;
+
+	private final ReachabilityJobResultRepository resultRepository;
+
+	private final DigitalMailService digitalMailService;
+
+	ReachabilityJobService(final ReachabilityJobRepository jobRepository, final ReachabilityJobResultRepository resultRepository, final DigitalMailService digitalMailService) {
+		this.jobRepository = jobRepository;
+		this.resultRepository = resultRepository;
+		this.digitalMailService = digitalMailService;
+	}
+
+	/**
+	 * Store a reachability job, to be processed by the worker.
+	 *
+	 * @param  partyIds           the partyIds to check the mailboxes of
+	 * @param  organizationNumber the organization number of the sender
+	 * @param  municipalityId     the municipality id
+	 * @return                    the stored job, in state PENDING
+	 */
+	public ReachabilityJob submit(final List<String> partyIds, final String organizationNumber, final String municipalityId) {
+		final var entity = ReachabilityJobEntity.builder()
+			.withMunicipalityId(municipalityId)
+			.withOrganizationNumber(organizationNumber)
+			.withPartyIds(String.join(PARTY_ID_SEPARATOR, partyIds))
+			.withTotal(partyIds.size())
+			.withState(PENDING)
+			.build();
+
+		return toReachabilityJob(jobRepository.save(entity));
+	}
+
+	public ReachabilityJob getJob(final String jobId, final String organizationNumber, final String municipalityId) {
+		return toReachabilityJob(findJob(jobId, organizationNumber, municipalityId));
+	}
+
+	/**
+	 * Get a page of the results processed so far, in the same order as the partyIds were submitted.
+	 *
+	 * @param  jobId              the job id
+	 * @param  organizationNumber the organization number of the sender
+	 * @param  municipalityId     the municipality id
+	 * @param  page               the page, starting at 0
+	 * @param  limit              max number of mailboxes on the page
+	 * @return                    the page of mailboxes
+	 */
+	public ReachabilityJobResults getResults(final String jobId, final String organizationNumber, final String municipalityId, final int page, final int limit) {
+		final var job = findJob(jobId, organizationNumber, municipalityId);
+		final var results = resultRepository.findByJobId(job.getId(), PageRequest.of(page, limit, Sort.by("position")));
+
+		return ReachabilityJobResults.builder()
+			.withPage(page)
+			.withLimit(limit)
+			.withTotalRecords(results.getTotalElements())
+			.withTotalPages(results.getTotalPages())
+			.withMailboxes(results.map(ReachabilityJobService::toMailbox).getContent())
+			.build();
+	}
+
+	/**
+	 * Process pending jobs, oldest first, until there are no more pending jobs or maxChunks chunks have been processed. A
+	 * job is left pending when a chunk fails, until it has failed maxAttempts times in a row.
+	 *
+	 * @param chunkSize   max number of partyIds per chunk
+	 * @param maxChunks   max number of chunks to process
+	 * @param maxAttempts max number of attempts for a single chunk
+	 */
+	public void processPending(final int chunkSize, final int maxChunks, final int maxAttempts) {
+		var remainingChunks = maxChunks;
+		while (remainingChunks > 0) {
+			final var job = jobRepository.findFirstByStateOrderByCreatedAsc(PENDING);
+			if (job.isEmpty()) {
+				return;
+			}
+
+			final var processedChunks = process(job.get(), chunkSize, remainingChunks, maxAttempts);
+			if (processedChunks < 0) {
+				// Failing chunks are retried on the next execution, to not hammer Party or Skatteverket
+				return;
+			}
+			remainingChunks -= processedChunks;
+		}
+	}
+
+	/**
+	 * Delete completed and failed jobs, and their results, that haven't been modified within the retention period.
+	 *
+	 * @param  retention how long a job is kept after it was last modified
+	 * @return           the number of deleted jobs
+	 */
+	public int deleteExpired(final Duration retention) {
+		final var deleted = jobRepository.deleteByStateInAndModifiedBefore(List.of(COMPLETED, FAILED), now(systemDefault()).minus(retention).truncatedTo(MILLIS));
+		if (deleted > 0) {
+			LOGGER.info("Deleted {} reachability jobs not modified within {}", deleted, retention);
+		}
+		return deleted;
+	}
+
+	// Returns the number of chunks processed, or -1 if a chunk failed
+	private int process(final ReachabilityJobEntity job, final int chunkSize, final int maxChunks, final int maxAttempts) {
+		final var partyIds = job.getPartyIds() == null || job.getPartyIds().isEmpty() ? List.<String>of() : List.of(job.getPartyIds().split(PARTY_ID_SEPARATOR));
+
+		// Results stored after the last checkpoint belong to a chunk that will be processed again
+		resultRepository.deleteByJobIdAndPositionGreaterThanEqual(job.getId(), job.getProcessed());
+
+		var chunks = 0;
+		while (job.getProcessed() < partyIds.size() && chunks < maxChunks) {
+			final var chunk = partyIds.subList(job.getProcessed(), Math.min(job.getProcessed() + chunkSize, partyIds.size()));
+			if (!processChunk(job, chunk, maxAttempts)) {
+				return -1;
+			}
+			chunks++;
+		}
+
+		if (job.getProcessed() >= partyIds.size()) {
+			// The partyIds are not needed anymore once the job is done
+			job.setState(COMPLETED);
+			job.setPartyIds(null);
+			jobRepository.save(job);
+		}
+		return chunks;
+	}
+
+	private boolean processChunk(final ReachabilityJobEntity job, final List<String> chunk, final int maxAttempts) {
+		try {
+			final var mailboxes = mailboxesByPartyId(digitalMailService.getMailboxes(chunk, job.getMunicipalityId(), job.getOrganizationNumber()));
+			final var offset = job.getProcessed();
+
+			// The mailboxes are not in partyId order, so each partyId is matched with its mailbox to get exactly one result per
+			// partyId at the position it was submitted at
+			resultRepository.saveAll(IntStream.range(0, chunk.size())
+				.mapToObj(i -> toResultEntity(job.getId(), offset + i, mailboxes.getOrDefault(chunk.get(i), createMissingMailbox(chunk.get(i)))))
+				.toList());
+
+			job.setProcessed(offset + chunk.size());
+			job.setAttempts(0);
+			job.setDetail(null);
+			jobRepository.updateProcessed(job.getId(), job.getProcessed(), now(systemDefault()).truncatedTo(MILLIS));
+			return true;
+		} catch (final Exception e) {
+			job.setAttempts(job.getAttempts() + 1);
+			LOGGER.warn("Attempt {} to process reachability job {} at partyId {} of {} failed: {}", job.getAttempts(), job.getId(), job.getProcessed(), job.getTotal(), e.getMessage());
+
+			job.setDetail(truncate(e.getMessage(), MAX_DETAIL_LENGTH));
+			if (job.getAttempts() >= maxAttempts) {
+				job.setState(FAILED);
+				job.setPartyIds(null);
+			}
+			jobRepository.save(job);
+			return false;
+		}
+	}
+
+	private static Map<String, Mailbox> mailboxesByPartyId(final List<Mailbox> mailboxes) {
+		return mailboxes.stream()
+			.filter(mailbox -> mailbox.getPartyId() != null)
+			.collect(Collectors.toMap(Mailbox::getPartyId, mailbox -> mailbox, (first, second) -> first));
+	}
+
+	private static Mailbox createMissingMailbox(final String partyId) {
+		return Mailbox.builder()
+			.withPartyId(partyId)
+			.withReachable(false)
+			.withReason(ERROR_NO_MAILBOX_FOUND.formatted(partyId))
+			.build();
+	}
+
+	private ReachabilityJobEntity findJob(final String jobId, final String organizationNumber, final String municipalityId) {
+		return jobRepository.findByIdAndMunicipalityIdAndOrganizationNumber(jobId, municipalityId, organizationNumber)
+			.orElseThrow(() -> Problem.builder()
+				.withTitle("Reachability job not found")
+				.withDetail("No reachability job with id '%s' could be found".formatted(jobId))
+				.withStatus(NOT_FOUND)
+				.build());
+	}
+
+	private static ReachabilityJobResultEntity toResultEntity(final String jobId, final int position, final Mailbox mailbox) {
+		return ReachabilityJobResultEntity.builder()
+			.withJobId(jobId)
+			.withPosition(position)
+			.withPartyId(mailbox.getPartyId())
+			.withSupplier(mailbox.getSupplier())
+			.withReachable(mailbox.isReachable())
+			.withReason(truncate(mailbox.getReason(), MAX_DETAIL_LENGTH))
+			.build();
+	}
+
+	private static Mailbox toMailbox(final ReachabilityJobResultEntity entity) {
+		return Mailbox.builder()
+			.withPartyId(entity.getPartyId())
+			.withSupplier(entity.getSupplier())
+			.withReachable(entity.isReachable())
+			.withReason(entity.getReason())
+			.build();
+	}
+
+	static ReachabilityJob toReachabilityJob(final ReachabilityJobEntity entity) {
+		return ReachabilityJob.builder()
+			.withJobId(entity.getId())
+			.withState(entity.getState())
+			.withTotal(entity.getTotal())
+			.withProcessed(entity.getProcessed())
+			.withDetail(entity.getDetail())
+			.withCreated(entity.getCreated())
+			.withModified(entity.getModified())
+			.build();
+	}
+}
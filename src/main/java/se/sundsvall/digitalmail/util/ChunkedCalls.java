@@ -0,0 +1,93 @@
+package se.sundsvall.digitalmail.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+public final class ChunkedCalls {
+
+	private ChunkedCalls() {}
+
+	/**
+	 * Splits the items into chunks and calls the function once per chunk, with at most parallelism calls in flight at the
+	 * same time. Each call goes through the function as is, so circuit breakers on the called integration see every call.
+	 * If a call fails, no more chunks are started and the first failure (in chunk order) is rethrown once the calls
+	 * already started are done.
+	 *
+	 * @param  items       the items to split into chunks
+	 * @param  chunkSize   max number of items per chunk
+	 * @param  parallelism max number of concurrent calls, 1 makes all calls on the calling thread
+	 * @param  executor    the executor to make concurrent calls on
+	 * @param  call        the call to make for each chunk
+	 * @return             the result of each call, in the same order as the chunks
+	 */
+	public static <T, R> List<R> callInChunks(final List<T> items, final int chunkSize, final int parallelism, final Executor executor, final Function<List<T>, R> call) {
+		final var chunks = new ArrayList<List<T>>();
+		for (var i = 0; i < items.size(); i += chunkSize) {
+			chunks.add(items.subList(i, Math.min(i + chunkSize, items.size())));
+		}
+
+		if (chunks.size() <= 1 || parallelism <= 1) {
+			return chunks.stream()
+				.map(call)
+				.toList();
+		}
+
+		final var permits = new Semaphore(parallelism);
+		final var failed = new AtomicBoolean();
+		final var calls = new ArrayList<CompletableFuture<R>>();
+		for (final var chunk : chunks) {
+			acquire(permits);
+			if (failed.get()) {
+				permits.release();
+				break;
+			}
+
+			calls.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return call.apply(chunk);
+				} catch (final RuntimeException e) {
+					failed.set(true);
+					throw e;
+				} finally {
+					permits.release();
+				}
+			}, executor));
+		}
+
+		return calls.stream()
+			.map(ChunkedCalls::join)
+			.toList();
+	}
+
+	private static void acquire(final Semaphore permits) {
+		try {
+			permits.acquire();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting to make a call", e);
+		}
+	}
+
+	/**
+	 * Joins a future, rethrowing the original exception of a failed call as if the call was made on the calling thread.
+	 *
+	 * @param  future the future to join
+	 * @return        the result of the call
+	 */
+	public static <R> R join(final CompletableFuture<R> future) {
+		try {
+			return future.join();
+		} catch (final CompletionException e) {
+			if (e.getCause() instanceof final RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+}
@@ -1,17 +1,16 @@
 package se.sundsvall.digitalmail.util;
 
 import java.io.ByteArrayOutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import java.util.List;
-import org.apache.commons.lang3.StringUtils;
+import java.io.IOException;
+import java.util.Locale;
 import org.openpdf.text.Document;
+import org.openpdf.text.pdf.PRStream;
+import org.openpdf.text.pdf.PdfName;
 import org.openpdf.text.pdf.PdfReader;
 import org.openpdf.text.pdf.PdfSmartCopy;
 import org.openpdf.text.pdf.PdfStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import se.sundsvall.digitalmail.api.model.File;
 
 import static se.sundsvall.dept44.util.LogUtils.sanitizeForLogging;
 
@@ -19,20 +18,105 @@ public final class PdfCompressor {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(PdfCompressor.class);
 
+	/**
+	 * Why a pdf was, or wasn't, compressed.
+	 */
+	public enum Decision {
+		COMPRESSED,
+		NO_GAIN,
+		TOO_SMALL,
+		ENCRYPTED,
+		IMAGE_HEAVY,
+		ALREADY_COMPRESSED,
+		FAILED;
+
+		public String tagValue() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/**
+	 * @param content  the compressed pdf, or the original if it wasn't compressed
+	 * @param decision why the pdf was, or wasn't, compressed
+	 */
+	public record CompressionResult(byte[] content, Decision decision) {}
+
 	private PdfCompressor() {}
 
-	public static void compress(final List<File> files) {
-		if (files == null) {
-			return;
+	/**
+	 * Compress a pdf if it's likely to be worth it. The pdf is inspected first, and compression is skipped if the pdf is
+	 * small, encrypted, consists mostly of images or already is fully compressed, since a rewrite seldom makes any
+	 * difference for those but costs as much CPU as any other.
+	 *
+	 * @param  filename      the name of the file, used for logging
+	 * @param  pdfContent    the pdf to compress
+	 * @param  minSize       pdfs smaller than this (in bytes) are not compressed
+	 * @param  maxImageRatio pdfs where images make up at least this share of the stream data are not compressed
+	 * @return               the result, containing the same array as was passed in if the pdf wasn't made smaller
+	 */
+	public static CompressionResult compress(final String filename, final byte[] pdfContent, final long minSize, final double maxImageRatio) {
+		if (pdfContent.length < minSize) {
+			return skipped(filename, pdfContent, Decision.TOO_SMALL);
+		}
+
+		try (final var pdfReader = new PdfReader(pdfContent)) {
+			final var decision = inspect(pdfReader, maxImageRatio);
+			if (decision != null) {
+				return skipped(filename, pdfContent, decision);
+			}
+
+			LOGGER.info("Trying to compress pdf: {}", sanitizeForLogging(filename));
+			final var compressed = rewrite(pdfReader);
+			logCompressionResult(pdfContent.length, compressed.length);
+
+			// Keep the original if the rewrite didn't make it any smaller
+			return compressed.length < pdfContent.length ? new CompressionResult(compressed, Decision.COMPRESSED) : new CompressionResult(pdfContent, Decision.NO_GAIN);
+		} catch (final Exception e) {
+			LOGGER.warn("A problem occurred during compression of PDF: {}", e.getMessage());
+		}
+
+		return new CompressionResult(pdfContent, Decision.FAILED);
+	}
+
+	/**
+	 * Inspect the already parsed objects of a pdf, to decide if it's worth compressing.
+	 *
+	 * @param  pdfReader     the reader of the pdf
+	 * @param  maxImageRatio pdfs where images make up at least this share of the stream data are not compressed
+	 * @return               the reason not to compress the pdf, or null if it should be compressed
+	 */
+	static Decision inspect(final PdfReader pdfReader, final double maxImageRatio) {
+		if (pdfReader.isEncrypted()) {
+			return Decision.ENCRYPTED;
 		}
-		files.stream().filter(file -> StringUtils.isNotEmpty(file.getBody())).forEach(file -> {
-			LOGGER.info("Trying to compress pdf: {}", sanitizeForLogging(file.getFilename()));
 
-			final var sizeBeforeCompression = file.getBody().length();
-			file.setBody(compress(file.getBody()));
+		long streamBytes = 0;
+		long imageBytes = 0;
+		var unfilteredStreams = false;
+		for (var objectNumber = 1; objectNumber < pdfReader.getXrefSize(); objectNumber++) {
+			if (pdfReader.getPdfObject(objectNumber) instanceof final PRStream stream) {
+				streamBytes += stream.getLength();
+				if (PdfName.IMAGE.equals(stream.get(PdfName.SUBTYPE))) {
+					imageBytes += stream.getLength();
+				}
+				unfilteredStreams |= stream.get(PdfName.FILTER) == null;
+			}
+		}
 
-			logCompressionResult(sizeBeforeCompression, file.getBody().length());
-		});
+		// Images are copied as they are, so there is little to gain if they make up most of the pdf
+		if (streamBytes > 0 && (double) imageBytes / streamBytes >= maxImageRatio) {
+			return Decision.IMAGE_HEAVY;
+		}
+		// Filtered streams and a cross-reference stream is what a full compression would produce
+		if (!unfilteredStreams && pdfReader.isNewXrefType()) {
+			return Decision.ALREADY_COMPRESSED;
+		}
+		return null;
+	}
+
+	private static CompressionResult skipped(final String filename, final byte[] pdfContent, final Decision decision) {
+		LOGGER.info("Not compressing pdf {}: {}", sanitizeForLogging(filename), decision.tagValue());
+		return new CompressionResult(pdfContent, decision);
 	}
 
 	private static void logCompressionResult(final int sizeBeforeCompression, final int sizeAfterCompression) {
@@ -45,10 +129,8 @@ public final class PdfCompressor {
 		}
 	}
 
-	public static String compress(final String pdfContent) {
-		// decode the base64-content
-		try (final var pdfReader = new PdfReader(Base64.getDecoder().decode(pdfContent.getBytes(StandardCharsets.UTF_8)));
-			final var document = new Document();
+	private static byte[] rewrite(final PdfReader pdfReader) throws IOException {
+		try (final var document = new Document();
 			final var result = new ByteArrayOutputStream()) {
 
 			final var pdfSmartCopy = new PdfSmartCopy(document, result);
@@ -61,14 +143,7 @@ public final class PdfCompressor {
 				pdfSmartCopy.addPage(page);
 			}
 			pdfSmartCopy.close();
-			// encode the compressed content back to base64
-			return Base64.getEncoder().encodeToString(result.toByteArray());
-
-		} catch (final Exception e) {
-			LOGGER.warn("A problem occurred during compression of PDF: {}", e.getMessage());
+			return result.toByteArray();
 		}
-
-		// If compression fails, return the original content
-		return pdfContent;
 	}
 }
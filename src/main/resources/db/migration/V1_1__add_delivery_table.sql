@@ -0,0 +1,17 @@
+    create table delivery (
+        id varchar(36) not null,
+        municipality_id varchar(8) not null,
+        organization_number varchar(12) not null,
+        party_id varchar(36) not null,
+        request longtext,
+        state varchar(32) not null,
+        transaction_id varchar(255),
+        detail varchar(1000),
+        attempts integer not null,
+        created datetime(6),
+        modified datetime(6),
+        primary key (id)
+    ) engine=InnoDB;
+
+    create index idx_delivery_state_created
+       on delivery (state, created);
@@ -0,0 +1,31 @@
+    create table reachability_job (
+        id varchar(36) not null,
+        municipality_id varchar(8) not null,
+        organization_number varchar(12) not null,
+        party_ids longtext,
+        state varchar(32) not null,
+        total integer not null,
+        processed integer not null,
+        detail varchar(1000),
+        attempts integer not null,
+        created datetime(6),
+        modified datetime(6),
+        primary key (id)
+    ) engine=InnoDB;
+
+    create table reachability_job_result (
+        id varchar(36) not null,
+        job_id varchar(36) not null,
+        position integer not null,
+        party_id varchar(36),
+        supplier varchar(255),
+        reachable bit not null,
+        reason varchar(1000),
+        primary key (id)
+    ) engine=InnoDB;
+
+    create index idx_reachability_job_state_created
+       on reachability_job (state, created);
+
+    create index idx_reachability_job_result_job_id_position
+       on reachability_job_result (job_id, position);
@@ -0,0 +1,8 @@
+    alter table reachability_job_result
+       add constraint fk_reachability_job_result_job_id
+       foreign key (job_id)
+       references reachability_job (id)
+       on delete cascade;
+
+    create index idx_reachability_job_state_modified
+       on reachability_job (state, modified);
@@ -0,0 +1,47 @@
+package se.gov.minameddelanden.common;
+
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import java.io.ByteArrayOutputStream;
+import java.util.GregorianCalendar;
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.namespace.QName;
+import org.junit.jupiter.api.Test;
+import se.gov.minameddelanden.schema.message.Seal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JAXBMarshalTest {
+
+	@Test
+	void deserialize() throws Exception {
+		final var bytes = createSealBytes();
+
+		// Run more times than the pool size to make sure unmarshallers are both reused and discarded
+		for (var i = 0; i < JAXBMarshal.MAX_POOLED_UNMARSHALLERS + 1; i++) {
+			final var seal = JAXBMarshal.deserialize(bytes, Seal.class);
+
+			assertThat(seal.isSignaturesOK()).isTrue();
+			assertThat(seal.getReceivedTime()).isNotNull();
+		}
+	}
+
+	@Test
+	void getContextIsCachedPerPackage() throws JAXBException {
+		final var context = JAXBMarshal.getContext(Seal.class);
+
+		assertThat(context).isNotNull().isSameAs(JAXBMarshal.getContext(Seal.class));
+	}
+
+	private static byte[] createSealBytes() throws Exception {
+		final var seal = new Seal();
+		seal.setSignaturesOK(true);
+		seal.setReceivedTime(DatatypeFactory.newInstance().newXMLGregorianCalendar(new GregorianCalendar()));
+
+		final var outputStream = new ByteArrayOutputStream();
+		JAXBMarshal.getContext(Seal.class).createMarshaller()
+			.marshal(new JAXBElement<>(new QName("http://minameddelanden.gov.se/schema/Message", "Seal"), Seal.class, seal), outputStream);
+
+		return outputStream.toByteArray();
+	}
+}
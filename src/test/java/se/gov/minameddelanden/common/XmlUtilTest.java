@@ -0,0 +1,39 @@
+package se.gov.minameddelanden.common;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class XmlUtilTest {
+
+	private static final String NAMESPACE = "http://minameddelanden.gov.se/schema/Message/v3";
+
+	@Test
+	void domToBytesAndBackToDom() {
+		// Run more times than the pool size to make sure pooled instances are both reused and discarded
+		for (var i = 0; i < XmlUtil.MAX_POOLED_INSTANCES + 1; i++) {
+			final var document = XmlUtil.newDocument();
+			final var root = document.createElementNS(NAMESPACE, "Root");
+			root.setTextContent("value" + i);
+			document.appendChild(root);
+
+			final var bytes = XmlUtil.domToBytes(document);
+
+			// OMIT_XML_DECLARATION must be kept for pooled transformers
+			assertThat(new String(bytes, StandardCharsets.UTF_8)).startsWith("<Root");
+
+			final var parsed = Xml.fromBytes(bytes).toDOM();
+			assertThat(parsed.getDocumentElement().getNamespaceURI()).isEqualTo(NAMESPACE);
+			assertThat(parsed.getDocumentElement().getTextContent()).isEqualTo("value" + i);
+		}
+	}
+
+	@Test
+	void getXmlStringFromBytes() {
+		final var xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Root>åäö</Root>";
+
+		assertThat(XmlUtil.getXmlStringFromBytes(xml.getBytes(StandardCharsets.UTF_8))).isEqualTo(xml);
+		assertThat(XmlUtil.getXmlBytesFromString(xml)).isEqualTo(xml.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -6,6 +6,7 @@ import java.util.UUID;
 import org.springframework.http.MediaType;
 import se.sundsvall.digitalmail.api.model.BodyInformation;
 import se.sundsvall.digitalmail.api.model.DigitalInvoiceRequest;
+import se.sundsvall.digitalmail.api.model.DigitalMailBatchRequest;
 import se.sundsvall.digitalmail.api.model.File;
 import se.sundsvall.digitalmail.api.model.SupportInfo;
 import se.sundsvall.digitalmail.integration.kivra.InvoiceDto;
@@ -51,6 +52,25 @@ public final class TestObjectFactory {
 		return mailRequestDto;
 	}
 
+	public static DigitalMailBatchRequest generateDigitalMailBatchRequest(final String... partyIds) {
+		var supportInfo = new SupportInfo();
+		supportInfo.setContactInformationEmail("email@somewhere.com");
+		supportInfo.setContactInformationPhoneNumber("0701740605");
+		supportInfo.setSupportText("support text");
+		supportInfo.setContactInformationUrl("http://url.com");
+
+		return DigitalMailBatchRequest.builder()
+			.withPartyIds(List.of(partyIds))
+			.withHeaderSubject("Some subject")
+			.withBodyInformation(BodyInformation.builder()
+				.withBody("Body text")
+				.withContentType(MediaType.TEXT_PLAIN_VALUE)
+				.build())
+			.withAttachments(List.of(createAttachment()))
+			.withSupportInfo(supportInfo)
+			.build();
+	}
+
 	public static DigitalMailDto generateDigitalMailRequestDtoWithHtmlBody() {
 		var dto = generateDigitalMailRequestDto();
 		dto.getBodyInformation().setContentType(TEXT_HTML_VALUE);
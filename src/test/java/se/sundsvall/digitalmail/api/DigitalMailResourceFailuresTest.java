@@ -19,7 +19,9 @@ import se.sundsvall.dept44.problem.violations.ConstraintViolationProblem;
 import se.sundsvall.dept44.problem.violations.Violation;
 import se.sundsvall.digitalmail.Application;
 import se.sundsvall.digitalmail.api.model.validation.HtmlValidator;
+import se.sundsvall.digitalmail.service.AsyncDeliveryService;
 import se.sundsvall.digitalmail.service.DigitalMailService;
+import se.sundsvall.digitalmail.service.ReachabilityJobService;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.tuple;
@@ -49,20 +51,32 @@ class DigitalMailResourceFailuresTest {
 
 	private static final String SEND_DIGITAL_INVOICE_PATH = "/" + MUNICIPALITY_ID + "/send-digital-invoice";
 
+	private static final String GET_DELIVERY_PATH = "/" + MUNICIPALITY_ID + "/" + ORGANIZATION_NUMBER + "/deliveries/{deliveryId}";
+
 	private static final String HAS_AVAILABLE_MAILBOXES_PATH = "/" + MUNICIPALITY_ID + "/" + ORGANIZATION_NUMBER + "/mailboxes";
 
+	private static final String STREAM_AVAILABLE_MAILBOXES_PATH = "/" + MUNICIPALITY_ID + "/" + ORGANIZATION_NUMBER + "/mailboxes/stream";
+
+	private static final String REACHABILITY_JOB_RESULTS_PATH = "/" + MUNICIPALITY_ID + "/" + ORGANIZATION_NUMBER + "/mailboxes/jobs/{jobId}/results";
+
 	@MockitoBean
 	private HtmlValidator mockHtmlValidator;
 
 	@MockitoBean
 	private DigitalMailService mockDigitalMailService;
 
+	@MockitoBean
+	private AsyncDeliveryService mockAsyncDeliveryService;
+
+	@MockitoBean
+	private ReachabilityJobService mockReachabilityJobService;
+
 	@Autowired
 	private WebTestClient webTestClient;
 
 	@AfterEach
 	void tearDown() {
-		verifyNoMoreInteractions(mockDigitalMailService, mockHtmlValidator);
+		verifyNoMoreInteractions(mockDigitalMailService, mockAsyncDeliveryService, mockReachabilityJobService, mockHtmlValidator);
 	}
 
 	@Test
@@ -161,6 +175,25 @@ class DigitalMailResourceFailuresTest {
 		verifyNoInteractions(mockDigitalMailService, mockHtmlValidator);
 	}
 
+	@Test
+	void getDeliveryWithInvalidDeliveryId() {
+		final var problem = webTestClient.get()
+			.uri(GET_DELIVERY_PATH, "invalid")
+			.exchange()
+			.expectStatus().isBadRequest()
+			.expectHeader().contentType(APPLICATION_PROBLEM_JSON)
+			.expectBody(ConstraintViolationProblem.class)
+			.returnResult();
+
+		assertThat(problem.getResponseBody()).isNotNull();
+		assertThat(problem.getResponseBody().getTitle()).isEqualTo("Constraint Violation");
+		assertThat(problem.getResponseBody().getStatus()).isEqualTo(BAD_REQUEST);
+		assertThat(problem.getResponseBody().getViolations()).extracting(Violation::field, Violation::message)
+			.containsExactlyInAnyOrder(tuple("getDelivery.deliveryId", "not a valid UUID"));
+
+		verifyNoInteractions(mockAsyncDeliveryService);
+	}
+
 	@Test
 	void hasAvailableMailboxesWithInvalidMunicipalityId() {
 		final var problem = webTestClient.post()
@@ -225,6 +258,52 @@ class DigitalMailResourceFailuresTest {
 		verifyNoInteractions(mockDigitalMailService, mockHtmlValidator);
 	}
 
+	@Test
+	void streamAvailableMailboxesWithInvalidPartyIds() {
+		final var problem = webTestClient.post()
+			.uri(STREAM_AVAILABLE_MAILBOXES_PATH)
+			.bodyValue(List.of("not-a-uuid"))
+			.exchange()
+			.expectStatus().isBadRequest()
+			.expectHeader().contentType(APPLICATION_PROBLEM_JSON)
+			.expectBody(ConstraintViolationProblem.class)
+			.returnResult()
+			.getResponseBody();
+
+		// Validation is done before anything is streamed, so a proper problem is returned
+		assertThat(problem).isNotNull();
+		assertThat(problem.getStatus()).isEqualTo(BAD_REQUEST);
+		assertThat(problem.getViolations()).extracting(Violation::field, Violation::message)
+			.containsExactlyInAnyOrder(tuple("streamAvailableMailboxes.partyIds[0].<list element>", "not a valid UUID"));
+
+		verifyNoInteractions(mockDigitalMailService, mockHtmlValidator);
+	}
+
+	@Test
+	void getReachabilityJobResultsWithInvalidParameters() {
+		final var problem = webTestClient.get()
+			.uri(uriBuilder -> uriBuilder.path(REACHABILITY_JOB_RESULTS_PATH)
+				.queryParam("page", -1)
+				.queryParam("limit", 10001)
+				.build("invalid"))
+			.exchange()
+			.expectStatus().isBadRequest()
+			.expectHeader().contentType(APPLICATION_PROBLEM_JSON)
+			.expectBody(ConstraintViolationProblem.class)
+			.returnResult()
+			.getResponseBody();
+
+		assertThat(problem).isNotNull();
+		assertThat(problem.getStatus()).isEqualTo(BAD_REQUEST);
+		assertThat(problem.getViolations()).extracting(Violation::field, Violation::message)
+			.containsExactlyInAnyOrder(
+				tuple("getReachabilityJobResults.jobId", "not a valid UUID"),
+				tuple("getReachabilityJobResults.page", "must be greater than or equal to 0"),
+				tuple("getReachabilityJobResults.limit", "must be less than or equal to 10000"));
+
+		verifyNoInteractions(mockReachabilityJobService, mockDigitalMailService, mockHtmlValidator);
+	}
+
 	private static Stream<Arguments> invalidPartyIdsProvider() {
 		final var field = "hasAvailableMailboxes.partyIds[0].<list element>";
 		final var message = "not a valid UUID";
@@ -2,6 +2,7 @@ package se.sundsvall.digitalmail.api;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,19 +12,29 @@ import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import se.sundsvall.digitalmail.Application;
+import se.sundsvall.digitalmail.api.model.AsyncDelivery;
 import se.sundsvall.digitalmail.api.model.DeliveryStatus;
 import se.sundsvall.digitalmail.api.model.DigitalInvoiceResponse;
+import se.sundsvall.digitalmail.api.model.DigitalMailBatchRequest;
+import se.sundsvall.digitalmail.api.model.DigitalMailRequest;
 import se.sundsvall.digitalmail.api.model.DigitalMailResponse;
 import se.sundsvall.digitalmail.api.model.Mailbox;
+import se.sundsvall.digitalmail.api.model.ReachabilityJob;
+import se.sundsvall.digitalmail.api.model.ReachabilityJobResults;
 import se.sundsvall.digitalmail.api.model.validation.HtmlValidator;
+import se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState;
 import se.sundsvall.digitalmail.integration.kivra.InvoiceDto;
 import se.sundsvall.digitalmail.integration.skatteverket.DigitalMailDto;
+import se.sundsvall.digitalmail.service.AsyncDeliveryService;
 import se.sundsvall.digitalmail.service.DigitalMailService;
+import se.sundsvall.digitalmail.service.ReachabilityJobService;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -31,9 +42,13 @@ import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static org.springframework.web.reactive.function.BodyInserters.fromValue;
+import static se.sundsvall.digitalmail.TestObjectFactory.generateDigitalMailBatchRequest;
 import static se.sundsvall.digitalmail.TestObjectFactory.generateDigitalMailRequestDto;
 import static se.sundsvall.digitalmail.TestObjectFactory.generateInvoiceRequest;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.DELIVERED;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.PENDING;
 
 @ActiveProfiles("junit")
 @AutoConfigureWebTestClient
@@ -46,22 +61,42 @@ class DigitalMailResourceTest {
 
 	private static final String SEND_DIGITAL_MAIL_PATH = "/" + MUNICIPALITY_ID + "/{organizationNumber}/send-digital-mail";
 
+	private static final String SEND_DIGITAL_MAIL_BATCH_PATH = "/" + MUNICIPALITY_ID + "/{organizationNumber}/send-digital-mail/batch";
+
+	private static final String SEND_DIGITAL_MAIL_ASYNC_PATH = "/" + MUNICIPALITY_ID + "/{organizationNumber}/send-digital-mail/async";
+
+	private static final String GET_DELIVERY_PATH = "/" + MUNICIPALITY_ID + "/{organizationNumber}/deliveries/{deliveryId}";
+
 	private static final String SEND_DIGITAL_INVOICE_PATH = "/" + MUNICIPALITY_ID + "/send-digital-invoice";
 
 	private static final String HAS_AVAILABLE_MAILBOXES_PATH = "/" + MUNICIPALITY_ID + "/{organizationNumber}/mailboxes";
 
+	private static final String STREAM_AVAILABLE_MAILBOXES_PATH = "/" + MUNICIPALITY_ID + "/{organizationNumber}/mailboxes/stream";
+
+	private static final String REACHABILITY_JOBS_PATH = "/" + MUNICIPALITY_ID + "/{organizationNumber}/mailboxes/jobs";
+
+	private static final String REACHABILITY_JOB_PATH = REACHABILITY_JOBS_PATH + "/{jobId}";
+
+	private static final String REACHABILITY_JOB_RESULTS_PATH = REACHABILITY_JOB_PATH + "/results";
+
 	@MockitoBean
 	private HtmlValidator mockHtmlValidator;
 
 	@MockitoBean
 	private DigitalMailService mockDigitalMailService;
 
+	@MockitoBean
+	private AsyncDeliveryService mockAsyncDeliveryService;
+
+	@MockitoBean
+	private ReachabilityJobService mockReachabilityJobService;
+
 	@Autowired
 	private WebTestClient webTestClient;
 
 	@AfterEach
 	void tearDown() {
-		verifyNoMoreInteractions(mockDigitalMailService, mockHtmlValidator);
+		verifyNoMoreInteractions(mockDigitalMailService, mockAsyncDeliveryService, mockReachabilityJobService, mockHtmlValidator);
 	}
 
 	@Test
@@ -99,6 +134,101 @@ class DigitalMailResourceTest {
 		verifyNoInteractions(mockHtmlValidator);
 	}
 
+	@Test
+	void sendDigitalMailBatch() {
+		final var partyId1 = UUID.randomUUID().toString();
+		final var partyId2 = UUID.randomUUID().toString();
+		final var request = generateDigitalMailBatchRequest(partyId1, partyId2);
+		final var response = List.of(
+			new DeliveryStatus(true, partyId1, "someTransactionId"),
+			new DeliveryStatus(false, partyId2, null));
+
+		when(mockDigitalMailService.sendDigitalMailBatch(any(DigitalMailBatchRequest.class), eq(ORGANIZATION_NUMBER), eq(MUNICIPALITY_ID))).thenReturn(response);
+
+		final var result = webTestClient.post()
+			.uri(SEND_DIGITAL_MAIL_BATCH_PATH, ORGANIZATION_NUMBER)
+			.contentType(APPLICATION_JSON)
+			.body(fromValue(request))
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBodyList(DeliveryStatus.class)
+			.returnResult()
+			.getResponseBody();
+
+		assertThat(result)
+			.isNotNull()
+			.extracting(DeliveryStatus::getPartyId, DeliveryStatus::isDelivered, DeliveryStatus::getTransactionId)
+			.containsExactly(
+				tuple(partyId1, true, "someTransactionId"),
+				tuple(partyId2, false, null));
+
+		verify(mockDigitalMailService).sendDigitalMailBatch(any(DigitalMailBatchRequest.class), eq(ORGANIZATION_NUMBER), eq(MUNICIPALITY_ID));
+		verifyNoInteractions(mockHtmlValidator);
+	}
+
+	@Test
+	void sendDigitalMailAsync() {
+		final var request = generateDigitalMailRequestDto();
+		final var deliveryId = UUID.randomUUID().toString();
+		final var delivery = AsyncDelivery.builder()
+			.withDeliveryId(deliveryId)
+			.withPartyId(request.getPartyId())
+			.withState(PENDING)
+			.build();
+
+		when(mockAsyncDeliveryService.enqueue(any(DigitalMailRequest.class), eq(ORGANIZATION_NUMBER), eq(MUNICIPALITY_ID))).thenReturn(delivery);
+
+		final var result = webTestClient.post()
+			.uri(SEND_DIGITAL_MAIL_ASYNC_PATH, ORGANIZATION_NUMBER)
+			.contentType(APPLICATION_JSON)
+			.body(fromValue(request))
+			.exchange()
+			.expectStatus()
+			.isAccepted()
+			.expectHeader().location("/" + MUNICIPALITY_ID + "/" + ORGANIZATION_NUMBER + "/deliveries/" + deliveryId)
+			.expectBody(AsyncDelivery.class)
+			.returnResult()
+			.getResponseBody();
+
+		assertThat(result).isNotNull();
+		assertThat(result.getDeliveryId()).isEqualTo(deliveryId);
+		assertThat(result.getPartyId()).isEqualTo(request.getPartyId());
+		assertThat(result.getState()).isEqualTo(PENDING);
+
+		verify(mockAsyncDeliveryService).enqueue(any(DigitalMailRequest.class), eq(ORGANIZATION_NUMBER), eq(MUNICIPALITY_ID));
+		verifyNoInteractions(mockHtmlValidator, mockDigitalMailService);
+	}
+
+	@Test
+	void getDelivery() {
+		final var deliveryId = UUID.randomUUID().toString();
+		final var delivery = AsyncDelivery.builder()
+			.withDeliveryId(deliveryId)
+			.withState(DELIVERED)
+			.withTransactionId("someTransactionId")
+			.build();
+
+		when(mockAsyncDeliveryService.getDelivery(deliveryId, ORGANIZATION_NUMBER, MUNICIPALITY_ID)).thenReturn(delivery);
+
+		final var result = webTestClient.get()
+			.uri(GET_DELIVERY_PATH, ORGANIZATION_NUMBER, deliveryId)
+			.exchange()
+			.expectStatus()
+			.isOk()
+			.expectBody(AsyncDelivery.class)
+			.returnResult()
+			.getResponseBody();
+
+		assertThat(result).isNotNull();
+		assertThat(result.getDeliveryId()).isEqualTo(deliveryId);
+		assertThat(result.getState()).isEqualTo(DELIVERED);
+		assertThat(result.getTransactionId()).isEqualTo("someTransactionId");
+
+		verify(mockAsyncDeliveryService).getDelivery(deliveryId, ORGANIZATION_NUMBER, MUNICIPALITY_ID);
+		verifyNoInteractions(mockHtmlValidator, mockDigitalMailService);
+	}
+
 	@Test
 	void sendDigitalInvoice() {
 		final var request = generateInvoiceRequest();
@@ -174,4 +304,124 @@ class DigitalMailResourceTest {
 		verify(mockDigitalMailService, times(1)).getMailboxes(List.of(partyId), MUNICIPALITY_ID, ORGANIZATION_NUMBER);
 		verifyNoInteractions(mockHtmlValidator);
 	}
+
+	@Test
+	void streamAvailableMailboxes() {
+		final var partyIds = List.of(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+		final var first = Mailbox.builder().withReachable(true).withSupplier("Kivra").withPartyId(partyIds.getFirst()).build();
+		final var second = Mailbox.builder().withReachable(false).withReason("No legal Id found").withPartyId(partyIds.getLast()).build();
+
+		// Each mailbox is handed over as a chunk of its own
+		doAnswer(invocation -> {
+			final Consumer<List<Mailbox>> consumer = invocation.getArgument(3);
+			consumer.accept(List.of(first));
+			consumer.accept(List.of(second));
+			return null;
+		}).when(mockDigitalMailService).streamMailboxes(eq(partyIds), eq(MUNICIPALITY_ID), eq(ORGANIZATION_NUMBER), any());
+
+		final var response = webTestClient.post()
+			.uri(STREAM_AVAILABLE_MAILBOXES_PATH, ORGANIZATION_NUMBER)
+			.bodyValue(partyIds)
+			.exchange()
+			.expectStatus().isOk()
+			.expectHeader().contentTypeCompatibleWith(APPLICATION_NDJSON)
+			.returnResult(Mailbox.class)
+			.getResponseBody()
+			.collectList()
+			.block();
+
+		assertThat(response)
+			.extracting(Mailbox::getPartyId, Mailbox::isReachable, Mailbox::getSupplier, Mailbox::getReason)
+			.containsExactly(
+				tuple(partyIds.getFirst(), true, "Kivra", null),
+				tuple(partyIds.getLast(), false, null, "No legal Id found"));
+
+		verify(mockDigitalMailService).streamMailboxes(eq(partyIds), eq(MUNICIPALITY_ID), eq(ORGANIZATION_NUMBER), any());
+		verifyNoInteractions(mockHtmlValidator);
+	}
+
+	@Test
+	void submitReachabilityJob() {
+		final var partyIds = List.of(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+		final var jobId = UUID.randomUUID().toString();
+		final var job = ReachabilityJob.builder()
+			.withJobId(jobId)
+			.withState(ReachabilityJobState.PENDING)
+			.withTotal(2)
+			.build();
+
+		when(mockReachabilityJobService.submit(partyIds, ORGANIZATION_NUMBER, MUNICIPALITY_ID)).thenReturn(job);
+
+		final var result = webTestClient.post()
+			.uri(REACHABILITY_JOBS_PATH, ORGANIZATION_NUMBER)
+			.bodyValue(partyIds)
+			.exchange()
+			.expectStatus().isAccepted()
+			.expectHeader().location("/" + MUNICIPALITY_ID + "/" + ORGANIZATION_NUMBER + "/mailboxes/jobs/" + jobId)
+			.expectBody(ReachabilityJob.class)
+			.returnResult()
+			.getResponseBody();
+
+		assertThat(result).isEqualTo(job);
+
+		verify(mockReachabilityJobService).submit(partyIds, ORGANIZATION_NUMBER, MUNICIPALITY_ID);
+		verifyNoInteractions(mockHtmlValidator, mockDigitalMailService);
+	}
+
+	@Test
+	void getReachabilityJob() {
+		final var jobId = UUID.randomUUID().toString();
+		final var job = ReachabilityJob.builder()
+			.withJobId(jobId)
+			.withState(ReachabilityJobState.COMPLETED)
+			.withTotal(2)
+			.withProcessed(2)
+			.build();
+
+		when(mockReachabilityJobService.getJob(jobId, ORGANIZATION_NUMBER, MUNICIPALITY_ID)).thenReturn(job);
+
+		final var result = webTestClient.get()
+			.uri(REACHABILITY_JOB_PATH, ORGANIZATION_NUMBER, jobId)
+			.exchange()
+			.expectStatus().isOk()
+			.expectBody(ReachabilityJob.class)
+			.returnResult()
+			.getResponseBody();
+
+		assertThat(result).isEqualTo(job);
+
+		verify(mockReachabilityJobService).getJob(jobId, ORGANIZATION_NUMBER, MUNICIPALITY_ID);
+		verifyNoInteractions(mockHtmlValidator, mockDigitalMailService);
+	}
+
+	@Test
+	void getReachabilityJobResults() {
+		final var jobId = UUID.randomUUID().toString();
+		final var partyId = UUID.randomUUID().toString();
+		final var results = ReachabilityJobResults.builder()
+			.withPage(1)
+			.withLimit(50)
+			.withTotalRecords(51)
+			.withTotalPages(2)
+			.withMailboxes(List.of(Mailbox.builder().withPartyId(partyId).withSupplier("Kivra").withReachable(true).build()))
+			.build();
+
+		when(mockReachabilityJobService.getResults(jobId, ORGANIZATION_NUMBER, MUNICIPALITY_ID, 1, 50)).thenReturn(results);
+
+		final var result = webTestClient.get()
+			.uri(uriBuilder -> uriBuilder.path(REACHABILITY_JOB_RESULTS_PATH)
+				.queryParam("page", 1)
+				.queryParam("limit", 50)
+				.build(ORGANIZATION_NUMBER, jobId))
+			.exchange()
+			.expectStatus().isOk()
+			.expectBody(ReachabilityJobResults.class)
+			.returnResult()
+			.getResponseBody();
+
+		assertThat(result).isEqualTo(results);
+
+		verify(mockReachabilityJobService).getResults(jobId, ORGANIZATION_NUMBER, MUNICIPALITY_ID, 1, 50);
+		verifyNoInteractions(mockHtmlValidator, mockDigitalMailService);
+	}
 }
@@ -0,0 +1,37 @@
+package se.sundsvall.digitalmail.api.model;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.http.MediaType.TEXT_PLAIN_VALUE;
+
+class DigitalMailBatchRequestTests {
+
+	@Test
+	void gettersAndSetters() {
+		final var partyIds = List.of("somePartyId", "someOtherPartyId");
+		final var headerSubject = "someSubject";
+
+		final var batchRequest = new DigitalMailBatchRequest();
+		batchRequest.setPartyIds(partyIds);
+		batchRequest.setHeaderSubject(headerSubject);
+		batchRequest.setSupportInfo(new SupportInfo());
+		batchRequest.setBodyInformation(BodyInformation.builder().withContentType(TEXT_PLAIN_VALUE).build());
+		batchRequest.setAttachments(List.of(new File(), new File()));
+
+		assertThat(batchRequest.getPartyIds()).isEqualTo(partyIds);
+		assertThat(batchRequest.getHeaderSubject()).isEqualTo(headerSubject);
+		assertThat(batchRequest.getSupportInfo()).isNotNull();
+		assertThat(batchRequest.getBodyInformation()).isNotNull();
+		assertThat(batchRequest.getAttachments()).isNotNull().hasSize(2);
+	}
+
+	@Test
+	void testNoDirtOnCreatedBean() {
+		assertThat(DigitalMailBatchRequest.builder().build()).hasAllNullFieldsOrPropertiesExcept("attachments").satisfies(
+			batchRequest -> assertThat(batchRequest.getAttachments()).isNotNull().isEmpty());
+		assertThat(new DigitalMailBatchRequest()).hasAllNullFieldsOrPropertiesExcept("attachments").satisfies(
+			batchRequest -> assertThat(batchRequest.getAttachments()).isNotNull().isEmpty());
+	}
+}
@@ -1,26 +1,82 @@
 package se.sundsvall.digitalmail.api.model.validation;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.validation.ValidationException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
+import se.sundsvall.dept44.problem.ThrowableProblem;
 import se.sundsvall.dept44.test.annotation.resource.Load;
 import se.sundsvall.dept44.test.extension.ResourceLoaderExtension;
+import se.sundsvall.digitalmail.configuration.HtmlValidationCacheProperties;
+import se.sundsvall.digitalmail.configuration.HtmlValidationProperties;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+import static se.sundsvall.digitalmail.api.model.validation.HtmlValidator.HTML_VALIDATION_CACHE;
+import static se.sundsvall.digitalmail.api.model.validation.HtmlValidator.REJECTED_COUNTER;
+import static se.sundsvall.digitalmail.api.model.validation.HtmlValidator.VALIDATION_TIMER;
 
 @ExtendWith(ResourceLoaderExtension.class)
 class HtmlValidatorTests {
 
-	private final HtmlValidator validator = new HtmlValidator();
+	private static final HtmlValidationProperties PROPERTIES = new HtmlValidationProperties(Duration.ofSeconds(30), DataSize.ofKilobytes(10), Duration.ofMinutes(1));
+	private static final HtmlValidationCacheProperties CACHE_PROPERTIES = new HtmlValidationCacheProperties(100, Duration.ofHours(1));
+
+	private SimpleMeterRegistry meterRegistry;
+	private ThreadPoolTaskExecutor executor;
+	private HtmlValidator validator;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		executor = createExecutor(2, 10);
+		validator = new HtmlValidator(PROPERTIES, CACHE_PROPERTIES, executor, meterRegistry);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown();
+	}
 
 	@Test
 	void validValue(@Load("valid-html.base64") final String html) {
 		assertThat(validator.validate(html)).isTrue();
 	}
 
+	@Test
+	void validValueFromCache(@Load("valid-html.base64") final String html) {
+		assertThat(validator.validate(html)).isTrue();
+		// Surrounding whitespace doesn't change the decoded HTML
+		assertThat(validator.validate(html + "\n")).isTrue();
+
+		// The identical body is only validated once
+		assertThat(meterRegistry.get(VALIDATION_TIMER).tag("outcome", "valid").timer().count()).isOne();
+		assertThat(meterRegistry.get("cache.gets").tag("cache", HTML_VALIDATION_CACHE).tag("result", "hit").functionCounter().count()).isOne();
+		assertThat(meterRegistry.get("cache.gets").tag("cache", HTML_VALIDATION_CACHE).tag("result", "miss").functionCounter().count()).isOne();
+	}
+
+	@Test
+	void invalidValueFromCache(@Load("invalid-html.base64") final String html) {
+		assertThat(validator.validate(html)).isFalse();
+		assertThat(validator.validate(html)).isFalse();
+
+		assertThat(meterRegistry.get(VALIDATION_TIMER).tag("outcome", "invalid").timer().count()).isOne();
+	}
+
 	@Test
 	void invalidValue(@Load("invalid-html.base64") final String html) {
 		assertThat(validator.validate(html)).isFalse();
@@ -44,4 +100,128 @@ class HtmlValidatorTests {
 		final var e = assertThrows(ValidationException.class, () -> validator.validate("x"));
 		assertThat(e.getMessage()).isEqualTo("Unable to validate HTML");
 	}
+
+	@Test
+	void tooBigValue() {
+		final var html = "<!DOCTYPE html><html lang=\"en\"><head><title>Big</title></head><body><p>" + "a".repeat(10240) + "</p></body></html>";
+
+		assertThat(validator.validate(encode(html))).isFalse();
+
+		assertThat(meterRegistry.get(REJECTED_COUNTER).tag("reason", "too_big").counter().count()).isOne();
+		assertThat(meterRegistry.find(VALIDATION_TIMER).timer()).isNull();
+	}
+
+	@Test
+	void valueWithoutDoctype() {
+		assertThat(validator.validate(encode("<html lang=\"en\"><head><title>Test</title></head><body></body></html>"))).isFalse();
+
+		assertThat(meterRegistry.get(REJECTED_COUNTER).tag("reason", "no_doctype").counter().count()).isOne();
+		assertThat(meterRegistry.find(VALIDATION_TIMER).timer()).isNull();
+	}
+
+	@Test
+	void valueWithCommentsBeforeDoctype() {
+		final var html = "\uFEFF <!-- first --><!-- second -->\n<!doctype HTML><html lang=\"en\"><head><meta charset=\"utf-8\"><title>Test</title></head><body></body></html>";
+
+		assertThat(validator.validate(encode(html))).isTrue();
+		assertThat(meterRegistry.find(REJECTED_COUNTER).counter()).isNull();
+	}
+
+	@Test
+	void valueNotInUtf8() {
+		final var html = "<!DOCTYPE html><html lang=\"sv\"><head><title>Åäö</title></head><body></body></html>";
+
+		assertThat(validator.validate(Base64.getEncoder().encodeToString(html.getBytes(StandardCharsets.ISO_8859_1)))).isFalse();
+
+		assertThat(meterRegistry.get(REJECTED_COUNTER).tag("reason", "not_utf8").counter().count()).isOne();
+	}
+
+	@Test
+	void valueNotValidatedInTime(@Load("valid-html.base64") final String html) throws InterruptedException {
+		final var latch = blockExecutor(2);
+		// A registry of its own, to not mix up the metrics of the cache with the one of the default validator
+		meterRegistry = new SimpleMeterRegistry();
+		final var shortTimeout = new HtmlValidator(new HtmlValidationProperties(Duration.ofMillis(50), DataSize.ofKilobytes(10), Duration.ofMinutes(1)), CACHE_PROPERTIES, executor, meterRegistry);
+
+		try {
+			// Overload is not a fault of the HTML, so the request is rejected as unavailable instead of the body as invalid
+			assertThatExceptionOfType(ThrowableProblem.class)
+				.isThrownBy(() -> shortTimeout.validate(html))
+				.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(SERVICE_UNAVAILABLE));
+			assertThat(meterRegistry.get(VALIDATION_TIMER).tag("outcome", "timeout").timer().count()).isOne();
+		} finally {
+			latch.countDown();
+		}
+
+		// Timed out validations are not cached
+		assertThat(meterRegistry.get("cache.size").tag("cache", HTML_VALIDATION_CACHE).gauge().value()).isZero();
+
+		// The same body is rejected without being validated again, even though the executor is free
+		assertThatExceptionOfType(ThrowableProblem.class)
+			.isThrownBy(() -> shortTimeout.validate(html))
+			.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(SERVICE_UNAVAILABLE));
+		assertThat(meterRegistry.get(REJECTED_COUNTER).tag("reason", "timed_out").counter().count()).isOne();
+		assertThat(meterRegistry.get(VALIDATION_TIMER).tag("outcome", "timeout").timer().count()).isOne();
+	}
+
+	@Test
+	void validatorsSaturated(@Load("valid-html.base64") final String html) throws InterruptedException {
+		executor.shutdown();
+		executor = createExecutor(1, 0);
+		final var saturated = new HtmlValidator(PROPERTIES, CACHE_PROPERTIES, executor, meterRegistry);
+		final var latch = blockExecutor(1);
+
+		try {
+			assertThatExceptionOfType(ThrowableProblem.class)
+				.isThrownBy(() -> saturated.validate(html))
+				.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(SERVICE_UNAVAILABLE));
+			assertThat(meterRegistry.get(REJECTED_COUNTER).tag("reason", "saturated").counter().count()).isOne();
+		} finally {
+			latch.countDown();
+		}
+	}
+
+	@Test
+	void concurrentValidations(@Load("valid-html.base64") final String valid, @Load("invalid-html.base64") final String invalid) {
+		final var results = IntStream.range(0, 20)
+			.mapToObj(i -> CompletableFuture.supplyAsync(() -> validator.validate(i % 2 == 0 ? valid : invalid)))
+			.toList().stream()
+			.map(CompletableFuture::join)
+			.toList();
+
+		assertThat(results).containsExactlyElementsOf(IntStream.range(0, 20).mapToObj(i -> i % 2 == 0).toList());
+	}
+
+	private static String encode(final String html) {
+		return Base64.getEncoder().encodeToString(html.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static ThreadPoolTaskExecutor createExecutor(final int poolSize, final int queueCapacity) {
+		final var taskExecutor = new ThreadPoolTaskExecutor();
+		taskExecutor.setCorePoolSize(poolSize);
+		taskExecutor.setMaxPoolSize(poolSize);
+		taskExecutor.setQueueCapacity(queueCapacity);
+		taskExecutor.initialize();
+		return taskExecutor;
+	}
+
+	// Occupies all threads of the executor until the returned latch is counted down
+	private CountDownLatch blockExecutor(final int threads) throws InterruptedException {
+		final var release = new CountDownLatch(1);
+		final var started = new CountDownLatch(threads);
+
+		for (var i = 0; i < threads; i++) {
+			executor.execute(() -> {
+				started.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+
+		started.await();
+		return release;
+	}
 }
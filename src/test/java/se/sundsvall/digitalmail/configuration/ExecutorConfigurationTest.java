@@ -0,0 +1,60 @@
+package se.sundsvall.digitalmail.configuration;
+
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExecutorConfigurationTest {
+
+	private static final ExecutorProperties PROPERTIES = new ExecutorProperties(5, 2, 10, 3, 20);
+
+	@Test
+	void batchExecutorWithPlatformThreads() {
+		final var executor = new ExecutorConfiguration(PROPERTIES, false).batchExecutor();
+
+		assertThat(executor).isInstanceOfSatisfying(ThreadPoolTaskExecutor.class, pool -> {
+			assertThat(pool.getCorePoolSize()).isEqualTo(5);
+			assertThat(pool.getMaxPoolSize()).isEqualTo(5);
+		});
+	}
+
+	@Test
+	void batchExecutorWithVirtualThreads() {
+		final var executor = new ExecutorConfiguration(PROPERTIES, true).batchExecutor();
+
+		assertThat(executor).isInstanceOfSatisfying(SimpleAsyncTaskExecutor.class, virtual -> {
+			assertThat(virtual.getConcurrencyLimit()).isEqualTo(5);
+			assertThat(virtual.isThrottleActive()).isTrue();
+		});
+		assertThat(CompletableFuture.supplyAsync(() -> Thread.currentThread().isVirtual(), executor).join()).isTrue();
+	}
+
+	@Test
+	void htmlValidationExecutor() {
+		final var executor = new ExecutorConfiguration(PROPERTIES, true).htmlValidationExecutor();
+
+		// A platform thread pool also when virtual threads are enabled, since validation is CPU bound
+		assertThat(executor.getCorePoolSize()).isEqualTo(3);
+		assertThat(executor.getMaxPoolSize()).isEqualTo(3);
+		assertThat(executor.getQueueCapacity()).isEqualTo(20);
+		assertThat(executor.getThreadNamePrefix()).isEqualTo("html-validation-");
+	}
+
+	@Test
+	void integrationExecutorRunsOnVirtualThreadsWithMdc() {
+		final var executor = new ExecutorConfiguration(PROPERTIES, false).integrationExecutor();
+
+		MDC.put("requestId", "someRequestId");
+		try {
+			final var result = CompletableFuture.supplyAsync(() -> Thread.currentThread().isVirtual() + ":" + MDC.get("requestId"), executor).join();
+
+			assertThat(result).isEqualTo("true:someRequestId");
+		} finally {
+			MDC.clear();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package se.sundsvall.digitalmail.domain.attachment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import se.sundsvall.digitalmail.api.model.File;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class DecodedAttachmentTests {
+
+	@Test
+	void decode() {
+		final var decoded = DecodedAttachment.decode(List.of(new File("application/pdf", "SGVsbG8=", "hello.pdf")));
+
+		assertThat(decoded).singleElement().satisfies(attachment -> {
+			assertThat(attachment.contentType()).isEqualTo("application/pdf");
+			assertThat(attachment.filename()).isEqualTo("hello.pdf");
+			assertThat(attachment.content()).isEqualTo("Hello".getBytes(StandardCharsets.UTF_8));
+			assertThat(attachment.checksum()).isNull();
+		});
+	}
+
+	@Test
+	void decodeNoFiles() {
+		assertThat(DecodedAttachment.decode((List<File>) null)).isEmpty();
+	}
+
+	@Test
+	void decodeMalformedBase64() {
+		// Characters outside the base64 alphabet are rejected, not skipped
+		final var file = new File("application/pdf", "SGVs*bG8=", "hello.pdf");
+
+		assertThatIllegalArgumentException().isThrownBy(() -> DecodedAttachment.decode(file));
+	}
+}
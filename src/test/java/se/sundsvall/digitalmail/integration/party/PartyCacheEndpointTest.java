@@ -0,0 +1,86 @@
+package se.sundsvall.digitalmail.integration.party;
+
+import java.time.Duration;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.cache.support.NoOpCacheManager;
+import se.sundsvall.digitalmail.configuration.CacheConfiguration;
+import se.sundsvall.digitalmail.configuration.PartyCacheProperties;
+import se.sundsvall.digitalmail.integration.party.PartyCacheEndpoint.PartyCacheEntry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static se.sundsvall.digitalmail.configuration.CacheConfiguration.PARTY_CACHE;
+
+class PartyCacheEndpointTest {
+
+	private static final String MUNICIPALITY_ID = "2281";
+
+	private CaffeineCacheManager cacheManager;
+	private PartyCacheEndpoint endpoint;
+
+	@BeforeEach
+	void setUp() {
+		cacheManager = new CaffeineCacheManager();
+		new CacheConfiguration().partyCacheCustomizer(new PartyCacheProperties(100, Duration.ofHours(1), Duration.ZERO)).customize(cacheManager);
+		endpoint = new PartyCacheEndpoint(cacheManager);
+	}
+
+	@Test
+	void statistics() {
+		final var cache = cacheManager.getCache(PARTY_CACHE);
+		cache.put(new SimpleKey(MUNICIPALITY_ID, "partyId"), Optional.of("legalId"));
+		cache.get(new SimpleKey(MUNICIPALITY_ID, "partyId"));
+		cache.get(new SimpleKey(MUNICIPALITY_ID, "otherPartyId"));
+
+		final var statistics = endpoint.statistics();
+
+		assertThat(statistics.size()).isOne();
+		assertThat(statistics.hitCount()).isOne();
+		assertThat(statistics.missCount()).isOne();
+		assertThat(statistics.hitRate()).isEqualTo(0.5);
+		assertThat(statistics.evictionCount()).isZero();
+	}
+
+	@Test
+	void entry() {
+		cacheManager.getCache(PARTY_CACHE).put(new SimpleKey(MUNICIPALITY_ID, "partyId"), "legalId");
+
+		assertThat(endpoint.entry(MUNICIPALITY_ID, "partyId")).isEqualTo(new PartyCacheEntry(true, true));
+		assertThat(endpoint.entry(MUNICIPALITY_ID, "otherPartyId")).isEqualTo(new PartyCacheEntry(false, false));
+	}
+
+	@Test
+	void emptyResultsExpireWithTheirOwnTtl() {
+		// The empty ttl is zero in this test, so parties not found are never kept
+		cacheManager.getCache(PARTY_CACHE).put(new SimpleKey(MUNICIPALITY_ID, "partyId"), null);
+
+		assertThat(endpoint.entry(MUNICIPALITY_ID, "partyId")).isEqualTo(new PartyCacheEntry(false, false));
+	}
+
+	@Test
+	void evict() {
+		final var cache = cacheManager.getCache(PARTY_CACHE);
+		cache.put(new SimpleKey(MUNICIPALITY_ID, "partyId"), "legalId");
+		cache.put(new SimpleKey(MUNICIPALITY_ID, "otherPartyId"), "otherLegalId");
+
+		endpoint.evict(MUNICIPALITY_ID, "partyId");
+
+		assertThat(cache.get(new SimpleKey(MUNICIPALITY_ID, "partyId"))).isNull();
+		assertThat(cache.get(new SimpleKey(MUNICIPALITY_ID, "otherPartyId"))).isNotNull();
+
+		endpoint.evictAll();
+
+		assertThat(cache.get(new SimpleKey(MUNICIPALITY_ID, "otherPartyId"))).isNull();
+	}
+
+	@Test
+	void cachingDisabled() {
+		final var disabledEndpoint = new PartyCacheEndpoint(new NoOpCacheManager());
+
+		assertThat(disabledEndpoint.statistics()).isNull();
+		assertThat(disabledEndpoint.entry(MUNICIPALITY_ID, "partyId")).isNull();
+	}
+}
@@ -1,28 +1,39 @@
 package se.sundsvall.digitalmail.integration.party;
 
 import generated.se.sundsvall.party.PartyType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static se.sundsvall.digitalmail.TestObjectFactory.MUNICIPALITY_ID;
+import static se.sundsvall.digitalmail.integration.party.PartyIntegration.ENTERPRISE_LOOKUP_TIMEOUT_COUNTER;
+import static se.sundsvall.digitalmail.integration.party.PartyIntegration.ENTERPRISE_LOOKUP_TIMER;
 
 @ExtendWith(MockitoExtension.class)
 class PartyIntegrationTest {
@@ -33,14 +44,35 @@ class PartyIntegrationTest {
 	@Mock
 	private PartyProperties partyProperties;
 
-	@InjectMocks
+	private ExecutorService executor;
+
+	private SimpleMeterRegistry meterRegistry;
+
 	private PartyIntegration partyIntegration;
 
+	@BeforeEach
+	void setUp() {
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+		meterRegistry = new SimpleMeterRegistry();
+		partyIntegration = createPartyIntegration(Duration.ofSeconds(10));
+	}
+
 	@AfterEach
 	void tearDown() {
+		executor.shutdownNow();
+		verify(partyProperties, atLeastOnce()).maxConcurrentEnterpriseLookups();
+		verify(partyProperties, atLeastOnce()).enterpriseLookupDeadline();
+		verify(partyProperties, atLeastOnce()).chunkParallelism();
 		verifyNoMoreInteractions(partyClient, partyProperties);
 	}
 
+	private PartyIntegration createPartyIntegration(final Duration enterpriseLookupDeadline) {
+		when(partyProperties.maxConcurrentEnterpriseLookups()).thenReturn(2);
+		when(partyProperties.enterpriseLookupDeadline()).thenReturn(enterpriseLookupDeadline);
+		when(partyProperties.chunkParallelism()).thenReturn(2);
+		return new PartyIntegration(partyClient, partyProperties, new ConcurrentMapCacheManager(), executor, meterRegistry);
+	}
+
 	@Test
 	void getLegalIdForPrivatePersonShouldReturnLegalIdWithoutPrefix() {
 		final var legalId = "201308222387"; // From skatteverket test data
@@ -102,7 +134,7 @@ class PartyIntegrationTest {
 			.containsEntry(partyId1, legalId1)
 			.containsEntry(partyId2, legalId2);
 		verify(partyClient).getLegalIds(MUNICIPALITY_ID, partyIds);
-		verify(partyProperties, times(2)).maxPartyIdsPerCall();
+		verify(partyProperties).maxPartyIdsPerCall();
 	}
 
 	@Test
@@ -128,7 +160,7 @@ class PartyIntegrationTest {
 			.containsEntry(partyId2, prefixedOrgNr);
 		verify(partyClient).getLegalIds(MUNICIPALITY_ID, partyIds);
 		verify(partyClient).getLegalId(MUNICIPALITY_ID, PartyType.ENTERPRISE, partyId2);
-		verify(partyProperties, times(2)).maxPartyIdsPerCall();
+		verify(partyProperties).maxPartyIdsPerCall();
 	}
 
 	@Test
@@ -151,7 +183,7 @@ class PartyIntegrationTest {
 		verify(partyClient).getLegalIds(MUNICIPALITY_ID, partyIds);
 		verify(partyClient).getLegalId(MUNICIPALITY_ID, PartyType.ENTERPRISE, partyId1);
 		verify(partyClient).getLegalId(MUNICIPALITY_ID, PartyType.ENTERPRISE, partyId2);
-		verify(partyProperties, times(2)).maxPartyIdsPerCall();
+		verify(partyProperties).maxPartyIdsPerCall();
 	}
 
 	@Test
@@ -170,7 +202,7 @@ class PartyIntegrationTest {
 			.hasSize(1)
 			.containsEntry(partyId, prefixedOrgNr);
 		verify(partyClient).getLegalIds(MUNICIPALITY_ID, partyIds);
-		verify(partyProperties, times(2)).maxPartyIdsPerCall();
+		verify(partyProperties).maxPartyIdsPerCall();
 	}
 
 	@Test
@@ -191,7 +223,168 @@ class PartyIntegrationTest {
 		final var result = partyIntegration.getLegalIds(MUNICIPALITY_ID, partyIds);
 
 		assertThat(result).hasSize(numberOfPartyIds);
+		assertThat(result).containsEntry("partyId-0", "legalId-partyId-0").containsEntry("partyId-2542", "legalId-partyId-2542");
 		verify(partyClient, times(3)).getLegalIds(anyString(), anyList());
-		verify(partyProperties, times(6)).maxPartyIdsPerCall();
+		verify(partyProperties).maxPartyIdsPerCall();
+	}
+
+	@Test
+	void getLegalIdIsCached() {
+		final var legalId = "201308222387";
+		final var partyId = UUID.randomUUID().toString();
+
+		when(partyClient.getLegalId(MUNICIPALITY_ID, PartyType.PRIVATE, partyId)).thenReturn(Optional.of(legalId));
+
+		assertThat(partyIntegration.getLegalId(MUNICIPALITY_ID, partyId)).contains(legalId);
+		assertThat(partyIntegration.getLegalId(MUNICIPALITY_ID, partyId)).contains(legalId);
+
+		verify(partyClient).getLegalId(MUNICIPALITY_ID, PartyType.PRIVATE, partyId);
+	}
+
+	@Test
+	void getLegalIdNotFoundIsCached() {
+		final var partyId = UUID.randomUUID().toString();
+
+		when(partyClient.getLegalId(MUNICIPALITY_ID, PartyType.PRIVATE, partyId)).thenReturn(Optional.empty());
+		when(partyClient.getLegalId(MUNICIPALITY_ID, PartyType.ENTERPRISE, partyId)).thenReturn(Optional.empty());
+
+		assertThat(partyIntegration.getLegalId(MUNICIPALITY_ID, partyId)).isEmpty();
+		assertThat(partyIntegration.getLegalIds(MUNICIPALITY_ID, List.of(partyId))).containsEntry(partyId, null);
+
+		verify(partyClient).getLegalId(MUNICIPALITY_ID, PartyType.PRIVATE, partyId);
+		verify(partyClient).getLegalId(MUNICIPALITY_ID, PartyType.ENTERPRISE, partyId);
+	}
+
+	@Test
+	void getLegalIdsOnlyFetchesCacheMisses() {
+		final var partyId1 = UUID.randomUUID().toString();
+		final var partyId2 = UUID.randomUUID().toString();
+		final var legalId1 = "201308222387";
+		final var legalId2 = "199001011234";
+
+		when(partyProperties.maxPartyIdsPerCall()).thenReturn(5);
+		when(partyClient.getLegalIds(MUNICIPALITY_ID, List.of(partyId1))).thenReturn(Map.of(partyId1, legalId1));
+		when(partyClient.getLegalIds(MUNICIPALITY_ID, List.of(partyId2))).thenReturn(Map.of(partyId2, legalId2));
+
+		partyIntegration.getLegalIds(MUNICIPALITY_ID, List.of(partyId1));
+		final var result = partyIntegration.getLegalIds(MUNICIPALITY_ID, List.of(partyId1, partyId2));
+
+		assertThat(result)
+			.hasSize(2)
+			.containsEntry(partyId1, legalId1)
+			.containsEntry(partyId2, legalId2);
+		verify(partyClient).getLegalIds(MUNICIPALITY_ID, List.of(partyId1));
+		verify(partyClient).getLegalIds(MUNICIPALITY_ID, List.of(partyId2));
+		verify(partyProperties, times(2)).maxPartyIdsPerCall();
+	}
+
+	@Test
+	void getLegalIdUsesLegalIdsFromBulkLookup() {
+		final var partyId = UUID.randomUUID().toString();
+		final var legalId = "201308222387";
+
+		when(partyProperties.maxPartyIdsPerCall()).thenReturn(5);
+		when(partyClient.getLegalIds(MUNICIPALITY_ID, List.of(partyId))).thenReturn(Map.of(partyId, legalId));
+
+		// Pre-check of mailboxes followed by a send, the send is served from the cache
+		partyIntegration.getLegalIds(MUNICIPALITY_ID, List.of(partyId));
+		final var result = partyIntegration.getLegalId(MUNICIPALITY_ID, partyId);
+
+		assertThat(result).contains(legalId);
+		verify(partyClient).getLegalIds(MUNICIPALITY_ID, List.of(partyId));
+		verify(partyProperties).maxPartyIdsPerCall();
+	}
+
+	@Test
+	void getLegalIdsEnterpriseLookupsAreMadeConcurrently() {
+		final var partyIds = IntStream.range(0, 10)
+			.mapToObj(i -> "partyId-" + i)
+			.toList();
+		final var started = new CountDownLatch(2);
+
+		when(partyProperties.maxPartyIdsPerCall()).thenReturn(100);
+		when(partyClient.getLegalIds(MUNICIPALITY_ID, partyIds)).thenReturn(Map.of());
+		// Each lookup waits until two lookups are running at the same time, which never happens if they are sequential
+		when(partyClient.getLegalId(eq(MUNICIPALITY_ID), eq(PartyType.ENTERPRISE), anyString())).thenAnswer(invocation -> {
+			started.countDown();
+			started.await();
+			return Optional.of("5591628136");
+		});
+
+		final var result = partyIntegration.getLegalIds(MUNICIPALITY_ID, partyIds);
+
+		assertThat(result).hasSize(10).containsValue("165591628136").doesNotContainValue(null);
+		assertThat(meterRegistry.get(ENTERPRISE_LOOKUP_TIMER).tag("outcome", "found").timer().count()).isEqualTo(10);
+		verify(partyClient).getLegalIds(MUNICIPALITY_ID, partyIds);
+		verify(partyClient, times(10)).getLegalId(eq(MUNICIPALITY_ID), eq(PartyType.ENTERPRISE), anyString());
+		verify(partyProperties).maxPartyIdsPerCall();
+	}
+
+	@Test
+	void getLegalIdsEnterpriseLookupsNotDoneWithinDeadline() {
+		final var integration = createPartyIntegration(Duration.ofMillis(100));
+		final var partyId = UUID.randomUUID().toString();
+		final var release = new CountDownLatch(1);
+
+		when(partyProperties.maxPartyIdsPerCall()).thenReturn(5);
+		when(partyClient.getLegalIds(MUNICIPALITY_ID, List.of(partyId))).thenReturn(Map.of());
+		when(partyClient.getLegalId(MUNICIPALITY_ID, PartyType.ENTERPRISE, partyId)).thenAnswer(invocation -> {
+			release.await();
+			return Optional.of("5591628136");
+		});
+
+		try {
+			// The lookup isn't done in time, so it's returned as not found
+			assertThat(integration.getLegalIds(MUNICIPALITY_ID, List.of(partyId))).containsEntry(partyId, null);
+			assertThat(meterRegistry.get(ENTERPRISE_LOOKUP_TIMEOUT_COUNTER).counter().count()).isOne();
+		} finally {
+			release.countDown();
+		}
+
+		// Since it wasn't cached it's looked up again
+		assertThat(integration.getLegalIds(MUNICIPALITY_ID, List.of(partyId))).containsEntry(partyId, "165591628136");
+
+		verify(partyClient, times(2)).getLegalIds(MUNICIPALITY_ID, List.of(partyId));
+		verify(partyClient, times(2)).getLegalId(MUNICIPALITY_ID, PartyType.ENTERPRISE, partyId);
+		verify(partyProperties, times(2)).maxPartyIdsPerCall();
+	}
+
+	@Test
+	void getLegalIdsEnterpriseLookupFails() {
+		final var partyId = UUID.randomUUID().toString();
+		final var failure = new IllegalStateException("Party is down");
+
+		when(partyProperties.maxPartyIdsPerCall()).thenReturn(5);
+		when(partyClient.getLegalIds(MUNICIPALITY_ID, List.of(partyId))).thenReturn(Map.of());
+		when(partyClient.getLegalId(MUNICIPALITY_ID, PartyType.ENTERPRISE, partyId)).thenThrow(failure);
+
+		assertThatThrownBy(() -> partyIntegration.getLegalIds(MUNICIPALITY_ID, List.of(partyId))).isSameAs(failure);
+
+		verify(partyClient).getLegalIds(MUNICIPALITY_ID, List.of(partyId));
+		verify(partyClient).getLegalId(MUNICIPALITY_ID, PartyType.ENTERPRISE, partyId);
+		verify(partyProperties).maxPartyIdsPerCall();
+	}
+
+	@Test
+	void getLegalIdsChunksAreFetchedConcurrently() {
+		final var partyIds = IntStream.range(0, 4)
+			.mapToObj(i -> "partyId-" + i)
+			.toList();
+		final var started = new CountDownLatch(2);
+
+		when(partyProperties.maxPartyIdsPerCall()).thenReturn(1);
+		// Each call waits until two calls are running at the same time, which never happens if they are sequential
+		when(partyClient.getLegalIds(eq(MUNICIPALITY_ID), anyList())).thenAnswer(invocation -> {
+			started.countDown();
+			started.await();
+			final var ids = invocation.<List<String>>getArgument(1);
+			return Map.of(ids.getFirst(), "legalId-" + ids.getFirst());
+		});
+
+		final var result = partyIntegration.getLegalIds(MUNICIPALITY_ID, partyIds);
+
+		assertThat(result).hasSize(4).containsEntry("partyId-3", "legalId-partyId-3");
+		verify(partyClient, times(4)).getLegalIds(eq(MUNICIPALITY_ID), anyList());
+		verify(partyProperties).maxPartyIdsPerCall();
 	}
 }
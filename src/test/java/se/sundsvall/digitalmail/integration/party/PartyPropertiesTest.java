@@ -28,5 +28,8 @@ class PartyPropertiesTest {
 			assertThat(oauth2.tokenUrl()).isEqualTo("http://token-url.com");
 		});
 		assertThat(properties.maxPartyIdsPerCall()).isEqualTo(30);
+		assertThat(properties.chunkParallelism()).isEqualTo(3);
+		assertThat(properties.maxConcurrentEnterpriseLookups()).isEqualTo(5);
+		assertThat(properties.enterpriseLookupDeadline()).isEqualTo(Duration.of(10, SECONDS));
 	}
 }
@@ -2,6 +2,11 @@ package se.sundsvall.digitalmail.integration.skatteverket;
 
 import jakarta.xml.soap.MessageFactory;
 import jakarta.xml.soap.SOAPException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import javax.net.ssl.SSLContext;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
@@ -11,7 +16,6 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.ws.context.MessageContext;
 import org.springframework.ws.soap.SoapMessage;
 import org.springframework.ws.soap.saaj.SaajSoapMessage;
-import se.sundsvall.dept44.problem.ThrowableProblem;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -53,9 +57,91 @@ class SkatteverketClientConfigTests {
 
 			when(mockContext.getRequest()).thenReturn(soapMessage);
 
-			assertThatExceptionOfType(ThrowableProblem.class)
+			assertThatExceptionOfType(MessageTooBigException.class)
 				.isThrownBy(() -> interceptor.handleRequest(mockContext))
-				.withMessage("Message is too big to be sent as a digital mail.: Size is: 132 bytes. Max allowed is: 0 bytes.");
+				.withMessageStartingWith("Size is at least: ")
+				.withMessageEndingWith(" bytes. Max allowed is: 0 bytes.");
+		}
+
+		@Test
+		void testExactSize_shouldNotThrowException() throws Exception {
+			final var size = new ByteArrayOutputStream();
+			soapMessage.writeTo(size);
+			interceptor = new SkatteverketClientConfig.SoapMessageSizeInterceptor(size.size());
+
+			when(mockContext.getRequest()).thenReturn(soapMessage);
+
+			assertThat(interceptor.handleRequest(mockContext)).isTrue();
+		}
+
+		@Test
+		void testOneByteTooBig_shouldThrowException() throws Exception {
+			final var size = new ByteArrayOutputStream();
+			soapMessage.writeTo(size);
+			interceptor = new SkatteverketClientConfig.SoapMessageSizeInterceptor(size.size() - 1L);
+
+			when(mockContext.getRequest()).thenReturn(soapMessage);
+
+			assertThatExceptionOfType(MessageTooBigException.class)
+				.isThrownBy(() -> interceptor.handleRequest(mockContext))
+				.withMessage("Size is at least: " + size.size() + " bytes. Max allowed is: " + (size.size() - 1) + " bytes.");
+		}
+	}
+
+	@Nested
+	class SizeLimitedOutputStreamTest {
+
+		@Test
+		void stopsAsSoonAsSizeIsExceeded() throws IOException {
+			final var outputStream = new SkatteverketClientConfig.SizeLimitedOutputStream(10);
+
+			outputStream.write(new byte[6], 0, 6);
+			outputStream.write(1);
+			outputStream.write(new byte[8], 5, 3);
+			assertThat(outputStream.size()).isEqualTo(10);
+			assertThat(outputStream.isSizeExceeded()).isFalse();
+
+			assertThatExceptionOfType(IOException.class).isThrownBy(() -> outputStream.write(1));
+			assertThat(outputStream.isSizeExceeded()).isTrue();
+			assertThatExceptionOfType(IOException.class).isThrownBy(() -> outputStream.write(new byte[1], 0, 1));
+		}
+	}
+
+	@Nested
+	@ExtendWith(MockitoExtension.class)
+	class ConnectionManagerTest {
+
+		@Mock
+		private SkatteverketProperties propertiesMock;
+
+		@Test
+		void createConnectionManager() throws Exception {
+			when(propertiesMock.maxConnections()).thenReturn(50);
+			when(propertiesMock.maxConnectionsPerHost()).thenReturn(10);
+			when(propertiesMock.maxConnectionsPerSupplierHost()).thenReturn(Map.of("service.supplier.se", 30));
+			when(propertiesMock.connectTimeout()).thenReturn(5000L);
+			when(propertiesMock.readTimeout()).thenReturn(6000L);
+			when(propertiesMock.connectionTimeToLive()).thenReturn(Duration.ofMinutes(1));
+
+			try (final var connectionManager = SkatteverketClientConfig.createConnectionManager(propertiesMock, SSLContext.getDefault())) {
+				assertThat(connectionManager.getMaxTotal()).isEqualTo(50);
+				assertThat(connectionManager.getDefaultMaxPerRoute()).isEqualTo(10);
+				assertThat(connectionManager.getMaxPerRoute(SkatteverketClientConfig.supplierRoute("service.supplier.se"))).isEqualTo(30);
+				assertThat(connectionManager.getMaxPerRoute(SkatteverketClientConfig.supplierRoute("other.supplier.se"))).isEqualTo(10);
+			}
+		}
+
+		@Test
+		void createConnectionManagerWithoutSupplierHostLimits() throws Exception {
+			when(propertiesMock.maxConnections()).thenReturn(50);
+			when(propertiesMock.maxConnectionsPerHost()).thenReturn(10);
+			when(propertiesMock.connectTimeout()).thenReturn(5000L);
+			when(propertiesMock.readTimeout()).thenReturn(6000L);
+			when(propertiesMock.connectionTimeToLive()).thenReturn(Duration.ofMinutes(1));
+
+			try (final var connectionManager = SkatteverketClientConfig.createConnectionManager(propertiesMock, SSLContext.getDefault())) {
+				assertThat(connectionManager.getMaxPerRoute(SkatteverketClientConfig.supplierRoute("service.supplier.se"))).isEqualTo(10);
+			}
 		}
 	}
 }
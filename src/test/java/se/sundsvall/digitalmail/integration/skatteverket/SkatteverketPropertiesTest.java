@@ -1,12 +1,15 @@
 package se.sundsvall.digitalmail.integration.skatteverket;
 
+import java.time.Duration;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.unit.DataSize;
 import se.sundsvall.digitalmail.Application;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 
 @SpringBootTest(classes = Application.class)
 @ActiveProfiles("junit")
@@ -23,5 +26,16 @@ class SkatteverketPropertiesTest {
 		assertThat(properties.shouldUseKeystore()).isTrue();
 		assertThat(properties.keyStoreAsBase64()).isBase64();
 		assertThat(properties.keyStorePassword()).isEqualTo("changeit");
+		assertThat(properties.marshallerPoolSize()).isEqualTo(16);
+		assertThat(properties.reachableChunkParallelism()).isEqualTo(4);
+		assertThat(properties.maxConnections()).isEqualTo(50);
+		assertThat(properties.maxConnectionsPerHost()).isEqualTo(10);
+		assertThat(properties.maxConnectionsPerSupplierHost()).containsExactly(entry("service.supplier.se", 30));
+		assertThat(properties.idleConnectionTimeout()).isEqualTo(Duration.ofSeconds(10));
+		assertThat(properties.connectionTimeToLive()).isEqualTo(Duration.ofMinutes(1));
+		assertThat(properties.envelopeOverhead()).isEqualTo(DataSize.ofKilobytes(2));
+		assertThat(properties.supplierEnvelopeOverhead()).containsExactly(entry("service.supplier.se", DataSize.ofKilobytes(1)));
+		assertThat(properties.batchBulkheadAttempts()).isEqualTo(2);
+		assertThat(properties.batchBulkheadBackoff()).isEqualTo(Duration.ofSeconds(2));
 	}
 }
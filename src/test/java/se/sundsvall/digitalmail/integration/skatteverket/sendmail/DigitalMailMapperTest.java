@@ -1,7 +1,5 @@
 package se.sundsvall.digitalmail.integration.skatteverket.sendmail;
 
-import jakarta.xml.bind.JAXBContext;
-import jakarta.xml.bind.JAXBElement;
 import java.io.ByteArrayInputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
@@ -10,11 +8,8 @@ import java.util.List;
 import javax.xml.crypto.dsig.XMLSignature;
 import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
-import javax.xml.namespace.QName;
-import javax.xml.parsers.DocumentBuilderFactory;
 import org.assertj.core.api.SoftAssertions;
 import org.assertj.core.api.junit.jupiter.SoftAssertionsExtension;
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,18 +17,18 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
+import org.w3c.dom.Element;
+import se.gov.minameddelanden.common.XmlUtil;
 import se.gov.minameddelanden.common.sign.X509KeySelector;
-import se.gov.minameddelanden.schema.message.v3.SealedDelivery;
-import se.gov.minameddelanden.schema.message.v3.SignedDelivery;
 import se.gov.minameddelanden.schema.service.DeliveryResult;
 import se.gov.minameddelanden.schema.service.DeliveryStatus;
-import se.gov.minameddelanden.schema.service.v3.DeliverSecure;
 import se.gov.minameddelanden.schema.service.v3.DeliverSecureResponse;
 import se.sundsvall.dept44.problem.ThrowableProblem;
 import se.sundsvall.digitalmail.Application;
 import se.sundsvall.digitalmail.TestObjectFactory;
 import se.sundsvall.digitalmail.api.model.BodyInformation;
 import se.sundsvall.digitalmail.api.model.File;
+import se.sundsvall.digitalmail.domain.attachment.DecodedAttachment;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
@@ -61,6 +56,8 @@ class DigitalMailMapperTest {
 
 		softly.assertThat(seal.getReceivedTime()).isNotNull();
 		softly.assertThat(seal.isSignaturesOK()).isTrue();
+		softly.assertThat(sealedDelivery.getSignature()).isNotNull();
+		softly.assertThat(signedDelivery.getSignature()).isNotNull();
 
 		softly.assertThat(signedDelivery.getDelivery().getHeader().getCorrelationId()).isNull();
 		softly.assertThat(signedDelivery.getDelivery().getHeader().getRecipient()).isEqualTo("recipientId");
@@ -146,7 +143,7 @@ class DigitalMailMapperTest {
 		attachment2.setFilename("filename2.pdf");
 		attachment2.setContentType(MediaType.APPLICATION_PDF_VALUE);
 
-		final var attachments = mapper.createAttachments(List.of(attachment, attachment2));
+		final var attachments = mapper.createAttachments(DecodedAttachment.decode(List.of(attachment, attachment2)));
 
 		assertThat(new String(attachments.getFirst().getBody(), StandardCharsets.UTF_8)).isEqualTo("body");
 		assertThat(attachments.get(0).getContentType()).isEqualTo(MediaType.APPLICATION_PDF_VALUE);
@@ -157,6 +154,18 @@ class DigitalMailMapperTest {
 		assertThat(attachments.get(1).getFilename()).isEqualTo("filename2.pdf");
 	}
 
+	@Test
+	void testCreateAttachmentsWithPrecalculatedChecksum() {
+		final var content = "body".getBytes(StandardCharsets.UTF_8);
+		final var withChecksum = new DecodedAttachment(MediaType.APPLICATION_PDF_VALUE, "filename.pdf", content, "CHECKSUM");
+		final var withoutChecksum = new DecodedAttachment(MediaType.APPLICATION_PDF_VALUE, "filename2.pdf", content);
+
+		final var attachments = mapper.createAttachments(List.of(withChecksum, withoutChecksum));
+
+		assertThat(attachments.getFirst().getChecksum()).isEqualTo("CHECKSUM");
+		assertThat(attachments.getLast().getChecksum()).isEqualTo(mapper.createMd5Checksum(content));
+	}
+
 	@Test
 	void testCreateDigitalMailResponse() {
 		final var deliveryResult = new DeliveryResult();
@@ -199,46 +208,49 @@ class DigitalMailMapperTest {
 		assertThat(messageBody.getContentType()).isEqualTo(TEXT_PLAIN_VALUE);
 	}
 
-	@Disabled("Implement validation of created message, so it works..")
 	@Test
-	void testCreateDeliverSecure_andValidateSignature() throws Exception {
-		final var dto = TestObjectFactory.generateDigitalMailRequestDto();
-		final var deliverSecure = mapper.createDeliverSecure(dto);
-		final var sealedDelivery = deliverSecure.getDeliverSecure();
-
-		final var documentFactory = DocumentBuilderFactory.newInstance();
-		documentFactory.setNamespaceAware(true);
-		final var documentBuilder = documentFactory.newDocumentBuilder();
-		final var document = documentBuilder.newDocument();
+	void testCreateSealedDeliveryDocument_shouldHaveValidSignatures() throws Exception {
+		final var sealedDeliveryDocument = mapper.createSealedDeliveryDocument(TestObjectFactory.generateDigitalMailRequestDto());
+		final var sealedDeliveryRoot = sealedDeliveryDocument.getDocumentElement();
+		final var signedDeliveryRoot = (Element) sealedDeliveryRoot.getFirstChild();
 
-		final var sealedDeliveryJAXBElement = new JAXBElement<>(new QName("http://minameddelanden.gov.se/schema/Message/v3", "sealedDelivery"), SealedDelivery.class, sealedDelivery);
-		final var jaxbContext = JAXBContext.newInstance(SignedDelivery.class, SealedDelivery.class, DeliverSecure.class);
-		final var marshaller = jaxbContext.createMarshaller();
+		assertThat(signedDeliveryRoot.getLocalName()).isEqualTo("SignedDelivery");
 
-		marshaller.marshal(sealedDeliveryJAXBElement, document);
+		// The outer signature covers the whole sealed delivery, including the inner signature
+		assertThat(validateSignature(sealedDeliveryRoot)).isTrue();
 
-		final var nodeList = document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
-		if (nodeList.getLength() == 0) {
-			throw new Exception("Cannot find Signature element");
-		}
+		// The inner signature references its own document, which is the signed delivery on its own, as it was signed
+		final var signedDeliveryDocument = XmlUtil.newDocument();
+		signedDeliveryDocument.appendChild(signedDeliveryDocument.importNode(signedDeliveryRoot, true));
+		assertThat(validateSignature(signedDeliveryDocument.getDocumentElement())).isTrue();
+	}
 
-		final var signatureFactory = XMLSignatureFactory.getInstance("DOM");
-		final var validateContext = new DOMValidateContext(new X509KeySelector(), nodeList.item(0));
-		final var xmlSignature = signatureFactory.unmarshalXMLSignature(validateContext);
+	@Test
+	void testCreateSealedDeliveryDocument_shouldNotValidateWhenSignedDeliveryIsChanged() throws Exception {
+		final var sealedDeliveryDocument = mapper.createSealedDeliveryDocument(TestObjectFactory.generateDigitalMailRequestDto());
+		final var signedDeliveryRoot = (Element) sealedDeliveryDocument.getDocumentElement().getFirstChild();
+		final var subject = (Element) signedDeliveryRoot.getElementsByTagNameNS("*", "Subject").item(0);
+		subject.setTextContent("Some other subject");
 
-		final var iterator = xmlSignature.getSignedInfo().getReferences().iterator();
+		assertThat(validateSignature(sealedDeliveryDocument.getDocumentElement())).isFalse();
 
-		for (var j = 0; iterator.hasNext(); j++) {
-			var refValid = iterator.next().validate(validateContext);
+		final var signedDeliveryDocument = XmlUtil.newDocument();
+		signedDeliveryDocument.appendChild(signedDeliveryDocument.importNode(signedDeliveryRoot, true));
+		assertThat(validateSignature(signedDeliveryDocument.getDocumentElement())).isFalse();
+	}
 
-			System.out.println("ref[" + j + "] validity status: " + refValid);
+	// Validates the enveloped signature that is a direct child of the given element
+	private static boolean validateSignature(final Element signed) throws Exception {
+		Element signature = null;
+		for (var node = signed.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node instanceof final Element element && XMLSignature.XMLNS.equals(element.getNamespaceURI()) && "Signature".equals(element.getLocalName())) {
+				signature = element;
+			}
 		}
+		assertThat(signature).as("Signature of " + signed.getLocalName()).isNotNull();
 
-		final var validated = xmlSignature.validate(validateContext);
-
-		System.out.println(validated);
-
-		assertThat(validated).isTrue();
+		final var validateContext = new DOMValidateContext(new X509KeySelector(), signature);
+		return XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(validateContext).validate(validateContext);
 	}
 
 	private KeyStore getKeyStore() throws Exception {
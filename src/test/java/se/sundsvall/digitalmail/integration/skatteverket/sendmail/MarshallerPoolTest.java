@@ -0,0 +1,59 @@
+package se.sundsvall.digitalmail.integration.skatteverket.sendmail;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import se.gov.minameddelanden.schema.message.v3.SignedDelivery;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static se.sundsvall.digitalmail.integration.skatteverket.sendmail.MarshallerPool.METRIC_NAME;
+
+class MarshallerPoolTest {
+
+	private static final QName SIGNED_DELIVERY_QNAME = new QName("http://minameddelanden.gov.se/schema/Message/v3", "SignedDelivery");
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private MarshallerPool marshallerPool;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		meterRegistry = new SimpleMeterRegistry();
+		marshallerPool = new MarshallerPool(JAXBContext.newInstance(SignedDelivery.class), 1, meterRegistry);
+	}
+
+	@Test
+	void marshalReusesMarshaller() throws Exception {
+		marshallerPool.marshal(createSignedDeliveryElement(), newDocument());
+		marshallerPool.marshal(createSignedDeliveryElement(), newDocument());
+
+		assertThat(marshallerPool.idleCount()).isOne();
+		assertThat(meterRegistry.get(METRIC_NAME).tag("result", "miss").counter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get(METRIC_NAME).tag("result", "hit").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void marshalWritesToDocument() throws Exception {
+		final var document = newDocument();
+
+		marshallerPool.marshal(createSignedDeliveryElement(), document);
+
+		assertThat(document.getDocumentElement().getLocalName()).isEqualTo("SignedDelivery");
+		assertThat(document.getDocumentElement().getNamespaceURI()).isEqualTo(SIGNED_DELIVERY_QNAME.getNamespaceURI());
+	}
+
+	private static JAXBElement<SignedDelivery> createSignedDeliveryElement() {
+		return new JAXBElement<>(SIGNED_DELIVERY_QNAME, SignedDelivery.class, new SignedDelivery());
+	}
+
+	private static Document newDocument() throws Exception {
+		final var documentBuilderFactory = DocumentBuilderFactory.newInstance();
+		documentBuilderFactory.setNamespaceAware(true);
+		return documentBuilderFactory.newDocumentBuilder().newDocument();
+	}
+}
@@ -1,8 +1,16 @@
 package se.sundsvall.digitalmail.integration.skatteverket.sendmail;
 
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.ws.client.core.WebServiceTemplate;
@@ -12,16 +20,22 @@ import se.sundsvall.dept44.problem.ThrowableProblem;
 import se.sundsvall.digitalmail.api.model.DigitalMailRequest;
 import se.sundsvall.digitalmail.api.model.DigitalMailResponse;
 import se.sundsvall.digitalmail.integration.skatteverket.DigitalMailDto;
+import se.sundsvall.digitalmail.integration.skatteverket.MessageTooBigException;
+import se.sundsvall.digitalmail.integration.skatteverket.SkatteverketProperties;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import static se.sundsvall.digitalmail.TestObjectFactory.ORGANIZATION_NUMBER;
+import static se.sundsvall.digitalmail.integration.skatteverket.sendmail.DigitalMailIntegration.SUPPLIER_CONFIG;
 
 @ExtendWith(MockitoExtension.class)
 class SecureMailIntegrationTest {
@@ -30,9 +44,27 @@ class SecureMailIntegrationTest {
 	private WebServiceTemplate mockWebServiceTemplate;
 	@Mock
 	private DigitalMailMapper mockMapper;
-	@InjectMocks
+	@Mock
+	private SkatteverketProperties mockProperties;
+
+	private CircuitBreakerRegistry circuitBreakerRegistry;
+	private BulkheadRegistry bulkheadRegistry;
 	private DigitalMailIntegration mailIntegration;
 
+	@BeforeEach
+	void setUp() {
+		circuitBreakerRegistry = CircuitBreakerRegistry.of(Map.of(SUPPLIER_CONFIG, CircuitBreakerConfig.custom()
+			.ignoreExceptions(MessageTooBigException.class)
+			.build()));
+		bulkheadRegistry = BulkheadRegistry.of(Map.of(SUPPLIER_CONFIG, BulkheadConfig.custom()
+			.maxConcurrentCalls(1)
+			.maxWaitDuration(Duration.ZERO)
+			.build()));
+		when(mockProperties.batchBulkheadAttempts()).thenReturn(3);
+		when(mockProperties.batchBulkheadBackoff()).thenReturn(Duration.ofMillis(10));
+		mailIntegration = new DigitalMailIntegration(mockWebServiceTemplate, mockMapper, circuitBreakerRegistry, bulkheadRegistry, mockProperties);
+	}
+
 	@Test
 	void testSuccessfulSentMail_shouldReturnDeliveryResult() {
 		when(mockMapper.createDeliverSecure(any(DigitalMailDto.class))).thenReturn(new DeliverSecure());
@@ -66,4 +98,167 @@ class SecureMailIntegrationTest {
 
 		assertThat(problemCause.getMessage()).isEqualTo("Couldn't get cause");
 	}
+
+	@Test
+	void testOpenCircuitForSupplier_shouldThrowProblemWithoutCallingSupplier() {
+		circuitBreakerRegistry.circuitBreaker("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG).transitionToOpenState();
+
+		final var digitalMailDto = new DigitalMailDto(DigitalMailRequest.builder().build(), ORGANIZATION_NUMBER);
+
+		assertThatExceptionOfType(ThrowableProblem.class)
+			.isThrownBy(() -> mailIntegration.sendDigitalMail(digitalMailDto, "https://nowhere.com/deliver"))
+			.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(SERVICE_UNAVAILABLE))
+			.withMessageStartingWith("Couldn't send secure digital mail, the mailbox supplier is unavailable");
+
+		// Rejected deliveries are not signed
+		verify(mockMapper, never()).createDeliverSecure(any());
+		verify(mockWebServiceTemplate, never()).marshalSendAndReceive(anyString(), any());
+	}
+
+	@Test
+	void testOpenCircuitForSupplierInBatch_shouldNotWaitForSupplier() {
+		circuitBreakerRegistry.circuitBreaker("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG).transitionToOpenState();
+		final var bulkhead = bulkheadRegistry.bulkhead("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG);
+		final var rejected = new AtomicInteger();
+		bulkhead.getEventPublisher().onCallRejected(event -> rejected.incrementAndGet());
+
+		final var digitalMailDto = new DigitalMailDto(DigitalMailRequest.builder().build(), ORGANIZATION_NUMBER);
+
+		assertThatExceptionOfType(ThrowableProblem.class)
+			.isThrownBy(() -> mailIntegration.sendBatchDigitalMail(digitalMailDto, "https://nowhere.com"))
+			.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(SERVICE_UNAVAILABLE));
+
+		assertThat(rejected).hasValue(0);
+		assertThat(bulkhead.getMetrics().getAvailableConcurrentCalls()).isOne();
+		verify(mockMapper, never()).createDeliverSecure(any());
+		verify(mockWebServiceTemplate, never()).marshalSendAndReceive(anyString(), any());
+	}
+
+	@Test
+	void testOpenCircuitForOtherSupplier_shouldSendMail() {
+		circuitBreakerRegistry.circuitBreaker("digitalMailIntegration-elsewhere.com", SUPPLIER_CONFIG).transitionToOpenState();
+		when(mockMapper.createDeliverSecure(any(DigitalMailDto.class))).thenReturn(new DeliverSecure());
+		when(mockWebServiceTemplate.marshalSendAndReceive(eq("https://nowhere.com"), any(DeliverSecure.class))).thenReturn(new DeliverSecureResponse());
+		when(mockMapper.createDigitalMailResponse(any(DeliverSecureResponse.class), anyString())).thenReturn(new DigitalMailResponse());
+
+		final var digitalMailDto = new DigitalMailDto(DigitalMailRequest.builder().withPartyId("somePartyId").build(), ORGANIZATION_NUMBER);
+
+		assertThat(mailIntegration.sendDigitalMail(digitalMailDto, "https://nowhere.com")).isNotNull();
+		assertThat(circuitBreakerRegistry.circuitBreaker("digitalMailIntegration-nowhere.com").getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+	}
+
+	@Test
+	void testFullBulkheadForSupplier_shouldThrowProblemWithoutCallingSupplier() {
+		final var bulkhead = bulkheadRegistry.bulkhead("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG);
+		assertThat(bulkhead.tryAcquirePermission()).isTrue();
+		final var rejected = new AtomicInteger();
+		bulkhead.getEventPublisher().onCallRejected(event -> rejected.incrementAndGet());
+
+		final var digitalMailDto = new DigitalMailDto(DigitalMailRequest.builder().build(), ORGANIZATION_NUMBER);
+
+		try {
+			assertThatExceptionOfType(ThrowableProblem.class)
+				.isThrownBy(() -> mailIntegration.sendDigitalMail(digitalMailDto, "https://nowhere.com"))
+				.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(SERVICE_UNAVAILABLE));
+		} finally {
+			bulkhead.onComplete();
+		}
+
+		// A single delivery doesn't wait for the bulkhead more than once
+		assertThat(rejected).hasValue(1);
+		verify(mockMapper, never()).createDeliverSecure(any());
+		verify(mockWebServiceTemplate, never()).marshalSendAndReceive(anyString(), any());
+		// Calls rejected by the bulkhead are not failures of the supplier
+		final var circuitBreaker = circuitBreakerRegistry.circuitBreaker("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG);
+		assertThat(circuitBreaker.getMetrics().getNumberOfFailedCalls()).isZero();
+		assertThat(circuitBreaker.getMetrics().getNumberOfBufferedCalls()).isZero();
+	}
+
+	@Test
+	void testFullBulkheadForSupplierInBatch_shouldWaitForBulkheadAgain() {
+		final var bulkhead = bulkheadRegistry.bulkhead("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG);
+		assertThat(bulkhead.tryAcquirePermission()).isTrue();
+		// The bulkhead is freed once the delivery has been rejected by it
+		final var rejected = new AtomicInteger();
+		bulkhead.getEventPublisher().onCallRejected(event -> {
+			if (rejected.incrementAndGet() == 1) {
+				bulkhead.onComplete();
+			}
+		});
+		when(mockMapper.createDeliverSecure(any(DigitalMailDto.class))).thenReturn(new DeliverSecure());
+		when(mockWebServiceTemplate.marshalSendAndReceive(eq("https://nowhere.com"), any(DeliverSecure.class))).thenReturn(new DeliverSecureResponse());
+		when(mockMapper.createDigitalMailResponse(any(DeliverSecureResponse.class), anyString())).thenReturn(new DigitalMailResponse());
+
+		final var digitalMailDto = new DigitalMailDto(DigitalMailRequest.builder().withPartyId("somePartyId").build(), ORGANIZATION_NUMBER);
+
+		assertThat(mailIntegration.sendBatchDigitalMail(digitalMailDto, "https://nowhere.com")).isNotNull();
+
+		assertThat(rejected).hasValue(1);
+		assertThat(bulkhead.getMetrics().getAvailableConcurrentCalls()).isOne();
+		// The request is signed once, after the bulkhead permits it
+		verify(mockMapper).createDeliverSecure(any(DigitalMailDto.class));
+		verify(mockWebServiceTemplate).marshalSendAndReceive(eq("https://nowhere.com"), any(DeliverSecure.class));
+	}
+
+	@Test
+	void testFullBulkheadForSupplierInBatch_shouldThrowProblemAfterLastAttempt() {
+		final var bulkhead = bulkheadRegistry.bulkhead("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG);
+		assertThat(bulkhead.tryAcquirePermission()).isTrue();
+		final var rejected = new AtomicInteger();
+		bulkhead.getEventPublisher().onCallRejected(event -> rejected.incrementAndGet());
+
+		final var digitalMailDto = new DigitalMailDto(DigitalMailRequest.builder().build(), ORGANIZATION_NUMBER);
+
+		try {
+			assertThatExceptionOfType(ThrowableProblem.class)
+				.isThrownBy(() -> mailIntegration.sendBatchDigitalMail(digitalMailDto, "https://nowhere.com"))
+				.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(SERVICE_UNAVAILABLE));
+		} finally {
+			bulkhead.onComplete();
+		}
+
+		assertThat(rejected).hasValue(3);
+		verify(mockMapper, never()).createDeliverSecure(any());
+		verify(mockWebServiceTemplate, never()).marshalSendAndReceive(anyString(), any());
+		assertThat(circuitBreakerRegistry.circuitBreaker("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG).getMetrics().getNumberOfBufferedCalls()).isZero();
+	}
+
+	@Test
+	void testTooBigMessage_shouldThrowProblemWithoutFailingSupplier() {
+		when(mockMapper.createDeliverSecure(any(DigitalMailDto.class))).thenReturn(new DeliverSecure());
+		when(mockWebServiceTemplate.marshalSendAndReceive(eq("https://nowhere.com"), any(DeliverSecure.class)))
+			.thenThrow(new MessageTooBigException("Size is at least: 2 bytes. Max allowed is: 1 bytes."));
+
+		final var digitalMailDto = new DigitalMailDto(DigitalMailRequest.builder().build(), ORGANIZATION_NUMBER);
+
+		assertThatExceptionOfType(ThrowableProblem.class)
+			.isThrownBy(() -> mailIntegration.sendDigitalMail(digitalMailDto, "https://nowhere.com"))
+			.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(BAD_REQUEST))
+			.withMessage("Message is too big to be sent as a digital mail.: Size is at least: 2 bytes. Max allowed is: 1 bytes.");
+
+		final var circuitBreaker = circuitBreakerRegistry.circuitBreaker("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG);
+		assertThat(circuitBreaker.getMetrics().getNumberOfFailedCalls()).isZero();
+		assertThat(circuitBreaker.getMetrics().getNumberOfBufferedCalls()).isZero();
+		assertThat(bulkheadRegistry.bulkhead("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG).getMetrics().getAvailableConcurrentCalls()).isOne();
+	}
+
+	@Test
+	void testFailingSupplier_shouldBeRecordedByCircuitBreaker() {
+		when(mockMapper.createDeliverSecure(any(DigitalMailDto.class))).thenReturn(new DeliverSecure());
+		when(mockWebServiceTemplate.marshalSendAndReceive(eq("https://nowhere.com"), any(DeliverSecure.class))).thenThrow(new RuntimeException("error-message"));
+
+		final var digitalMailDto = new DigitalMailDto(DigitalMailRequest.builder().build(), ORGANIZATION_NUMBER);
+
+		assertThatExceptionOfType(ThrowableProblem.class)
+			.isThrownBy(() -> mailIntegration.sendDigitalMail(digitalMailDto, "https://nowhere.com"));
+
+		assertThat(circuitBreakerRegistry.circuitBreaker("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG).getMetrics().getNumberOfFailedCalls()).isOne();
+		assertThat(bulkheadRegistry.bulkhead("digitalMailIntegration-nowhere.com", SUPPLIER_CONFIG).getMetrics().getAvailableConcurrentCalls()).isOne();
+	}
+
+	@Test
+	void testSupplierName() {
+		assertThat(DigitalMailIntegration.supplierName("https://service.supplier.se/deliver")).isEqualTo("digitalMailIntegration-service.supplier.se");
+		assertThat(DigitalMailIntegration.supplierName(null)).isEqualTo("digitalMailIntegration-unknown");
+	}
 }
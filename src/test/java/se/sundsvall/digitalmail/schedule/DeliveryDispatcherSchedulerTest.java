@@ -0,0 +1,32 @@
+package se.sundsvall.digitalmail.schedule;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import se.sundsvall.digitalmail.service.AsyncDeliveryService;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class DeliveryDispatcherSchedulerTest {
+
+	@Mock
+	private AsyncDeliveryService mockAsyncDeliveryService;
+
+	@AfterEach
+	void tearDown() {
+		verifyNoMoreInteractions(mockAsyncDeliveryService);
+	}
+
+	@Test
+	void execute() {
+		final var scheduler = new DeliveryDispatcherScheduler(mockAsyncDeliveryService, new DeliveryDispatcherProperties(50, 5));
+
+		scheduler.execute();
+
+		verify(mockAsyncDeliveryService).dispatchPending(50, 5);
+	}
+}
@@ -0,0 +1,34 @@
+package se.sundsvall.digitalmail.schedule;
+
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import se.sundsvall.digitalmail.service.ReachabilityJobService;
+
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+@ExtendWith(MockitoExtension.class)
+class ReachabilityJobSchedulerTest {
+
+	@Mock
+	private ReachabilityJobService mockReachabilityJobService;
+
+	@AfterEach
+	void tearDown() {
+		verifyNoMoreInteractions(mockReachabilityJobService);
+	}
+
+	@Test
+	void execute() {
+		final var scheduler = new ReachabilityJobScheduler(mockReachabilityJobService, new ReachabilityJobProperties(500, 20, 5, Duration.ofDays(3)));
+
+		scheduler.execute();
+
+		verify(mockReachabilityJobService).deleteExpired(Duration.ofDays(3));
+		verify(mockReachabilityJobService).processPending(500, 20, 5);
+	}
+}
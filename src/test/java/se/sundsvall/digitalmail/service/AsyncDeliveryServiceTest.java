@@ -0,0 +1,266 @@
+package se.sundsvall.digitalmail.service;
+
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import se.sundsvall.dept44.problem.Problem;
+import se.sundsvall.dept44.problem.ThrowableProblem;
+import se.sundsvall.digitalmail.api.model.DeliveryStatus;
+import se.sundsvall.digitalmail.api.model.DigitalMailRequest;
+import se.sundsvall.digitalmail.api.model.DigitalMailResponse;
+import se.sundsvall.digitalmail.integration.db.DeliveryRepository;
+import se.sundsvall.digitalmail.integration.db.model.DeliveryEntity;
+import se.sundsvall.digitalmail.integration.skatteverket.DigitalMailDto;
+import tools.jackson.databind.json.JsonMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
+import static se.sundsvall.digitalmail.TestObjectFactory.ORGANIZATION_NUMBER;
+import static se.sundsvall.digitalmail.TestObjectFactory.generateDigitalMailRequestDto;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.DELIVERED;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.FAILED;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.NOT_DELIVERED;
+import static se.sundsvall.digitalmail.domain.delivery.DeliveryState.PENDING;
+
+@ExtendWith(MockitoExtension.class)
+class AsyncDeliveryServiceTest {
+
+	private static final String MUNICIPALITY_ID = "2281";
+	private static final String DELIVERY_ID = "b82bd8ac-1507-4d9a-958d-369261eecc15";
+	private static final String REQUEST_JSON = "{\"partyId\":\"somePartyId\"}";
+	private static final int MAX_ATTEMPTS = 3;
+
+	@Mock
+	private DeliveryRepository mockDeliveryRepository;
+
+	@Mock
+	private DigitalMailService mockDigitalMailService;
+
+	@Mock
+	private JsonMapper mockJsonMapper;
+
+	@Captor
+	private ArgumentCaptor<DeliveryEntity> entityCaptor;
+
+	@InjectMocks
+	private AsyncDeliveryService asyncDeliveryService;
+
+	@AfterEach
+	void tearDown() {
+		verifyNoMoreInteractions(mockDeliveryRepository, mockDigitalMailService, mockJsonMapper);
+	}
+
+	@Test
+	void testEnqueue() {
+		final var request = generateDigitalMailRequestDto();
+
+		when(mockJsonMapper.writeValueAsString(request)).thenReturn(REQUEST_JSON);
+		when(mockDeliveryRepository.save(any(DeliveryEntity.class))).thenAnswer(invocation -> {
+			final DeliveryEntity entity = invocation.getArgument(0);
+			entity.setId(DELIVERY_ID);
+			return entity;
+		});
+
+		final var delivery = asyncDeliveryService.enqueue(request, ORGANIZATION_NUMBER, MUNICIPALITY_ID);
+
+		assertThat(delivery.getDeliveryId()).isEqualTo(DELIVERY_ID);
+		assertThat(delivery.getPartyId()).isEqualTo(request.getPartyId());
+		assertThat(delivery.getState()).isEqualTo(PENDING);
+
+		verify(mockJsonMapper).writeValueAsString(request);
+		verify(mockDeliveryRepository).save(entityCaptor.capture());
+		assertThat(entityCaptor.getValue()).satisfies(entity -> {
+			assertThat(entity.getMunicipalityId()).isEqualTo(MUNICIPALITY_ID);
+			assertThat(entity.getOrganizationNumber()).isEqualTo(ORGANIZATION_NUMBER);
+			assertThat(entity.getPartyId()).isEqualTo(request.getPartyId());
+			assertThat(entity.getRequest()).isEqualTo(REQUEST_JSON);
+			assertThat(entity.getState()).isEqualTo(PENDING);
+			assertThat(entity.getAttempts()).isZero();
+		});
+	}
+
+	@Test
+	void testGetDelivery() {
+		final var entity = DeliveryEntity.builder()
+			.withId(DELIVERY_ID)
+			.withPartyId("somePartyId")
+			.withState(DELIVERED)
+			.withTransactionId("someTransactionId")
+			.build();
+
+		when(mockDeliveryRepository.findByIdAndMunicipalityIdAndOrganizationNumber(DELIVERY_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER)).thenReturn(Optional.of(entity));
+
+		final var delivery = asyncDeliveryService.getDelivery(DELIVERY_ID, ORGANIZATION_NUMBER, MUNICIPALITY_ID);
+
+		assertThat(delivery.getDeliveryId()).isEqualTo(DELIVERY_ID);
+		assertThat(delivery.getPartyId()).isEqualTo("somePartyId");
+		assertThat(delivery.getState()).isEqualTo(DELIVERED);
+		assertThat(delivery.getTransactionId()).isEqualTo("someTransactionId");
+
+		verify(mockDeliveryRepository).findByIdAndMunicipalityIdAndOrganizationNumber(DELIVERY_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+	}
+
+	@Test
+	void testGetDeliveryNotFound() {
+		when(mockDeliveryRepository.findByIdAndMunicipalityIdAndOrganizationNumber(DELIVERY_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER)).thenReturn(Optional.empty());
+
+		assertThatThrownBy(() -> asyncDeliveryService.getDelivery(DELIVERY_ID, ORGANIZATION_NUMBER, MUNICIPALITY_ID))
+			.isInstanceOf(ThrowableProblem.class)
+			.hasMessage("Delivery not found: No delivery with id '%s' could be found".formatted(DELIVERY_ID));
+
+		verify(mockDeliveryRepository).findByIdAndMunicipalityIdAndOrganizationNumber(DELIVERY_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+	}
+
+	@Test
+	void testDispatchPendingDelivered() {
+		final var request = generateDigitalMailRequestDto();
+		final var entity = createPendingEntity(0);
+		final var response = DigitalMailResponse.builder()
+			.withDeliveryStatus(new DeliveryStatus(true, request.getPartyId(), "someTransactionId"))
+			.build();
+
+		when(mockDeliveryRepository.findByStateOrderByCreatedAsc(PENDING, Limit.of(10))).thenReturn(List.of(entity));
+		when(mockJsonMapper.readValue(REQUEST_JSON, DigitalMailRequest.class)).thenReturn(request);
+		when(mockDigitalMailService.sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID))).thenReturn(response);
+
+		asyncDeliveryService.dispatchPending(10, MAX_ATTEMPTS);
+
+		verify(mockDeliveryRepository).findByStateOrderByCreatedAsc(PENDING, Limit.of(10));
+		verify(mockJsonMapper).readValue(REQUEST_JSON, DigitalMailRequest.class);
+		verify(mockDigitalMailService).sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID));
+		verify(mockDeliveryRepository).save(entity);
+
+		assertThat(entity.getState()).isEqualTo(DELIVERED);
+		assertThat(entity.getTransactionId()).isEqualTo("someTransactionId");
+		assertThat(entity.getAttempts()).isOne();
+		assertThat(entity.getRequest()).isNull();
+	}
+
+	@Test
+	void testDispatchPendingNotDelivered() {
+		final var request = generateDigitalMailRequestDto();
+		final var entity = createPendingEntity(0);
+		final var response = DigitalMailResponse.builder()
+			.withDeliveryStatus(new DeliveryStatus(false, request.getPartyId(), null))
+			.build();
+
+		when(mockDeliveryRepository.findByStateOrderByCreatedAsc(PENDING, Limit.of(10))).thenReturn(List.of(entity));
+		when(mockJsonMapper.readValue(REQUEST_JSON, DigitalMailRequest.class)).thenReturn(request);
+		when(mockDigitalMailService.sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID))).thenReturn(response);
+
+		asyncDeliveryService.dispatchPending(10, MAX_ATTEMPTS);
+
+		verify(mockDeliveryRepository).findByStateOrderByCreatedAsc(PENDING, Limit.of(10));
+		verify(mockJsonMapper).readValue(REQUEST_JSON, DigitalMailRequest.class);
+		verify(mockDigitalMailService).sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID));
+		verify(mockDeliveryRepository).save(entity);
+
+		assertThat(entity.getState()).isEqualTo(NOT_DELIVERED);
+		assertThat(entity.getRequest()).isNull();
+	}
+
+	@Test
+	void testDispatchPendingTemporaryFailureIsRetried() {
+		final var request = generateDigitalMailRequestDto();
+		final var entity = createPendingEntity(0);
+
+		when(mockDeliveryRepository.findByStateOrderByCreatedAsc(PENDING, Limit.of(10))).thenReturn(List.of(entity));
+		when(mockJsonMapper.readValue(REQUEST_JSON, DigitalMailRequest.class)).thenReturn(request);
+		when(mockDigitalMailService.sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID)))
+			.thenThrow(Problem.builder().withTitle("Error").withDetail("Timeout").withStatus(INTERNAL_SERVER_ERROR).build());
+
+		asyncDeliveryService.dispatchPending(10, MAX_ATTEMPTS);
+
+		verify(mockDeliveryRepository).findByStateOrderByCreatedAsc(PENDING, Limit.of(10));
+		verify(mockJsonMapper).readValue(REQUEST_JSON, DigitalMailRequest.class);
+		verify(mockDigitalMailService).sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID));
+		verify(mockDeliveryRepository).save(entity);
+
+		assertThat(entity.getState()).isEqualTo(PENDING);
+		assertThat(entity.getAttempts()).isOne();
+		assertThat(entity.getDetail()).isEqualTo("Error: Timeout");
+		assertThat(entity.getRequest()).isEqualTo(REQUEST_JSON);
+	}
+
+	@Test
+	void testDispatchPendingTemporaryFailureOnLastAttempt() {
+		final var request = generateDigitalMailRequestDto();
+		final var entity = createPendingEntity(MAX_ATTEMPTS - 1);
+
+		when(mockDeliveryRepository.findByStateOrderByCreatedAsc(PENDING, Limit.of(10))).thenReturn(List.of(entity));
+		when(mockJsonMapper.readValue(REQUEST_JSON, DigitalMailRequest.class)).thenReturn(request);
+		when(mockDigitalMailService.sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID))).thenThrow(new IllegalStateException("Connection reset"));
+
+		asyncDeliveryService.dispatchPending(10, MAX_ATTEMPTS);
+
+		verify(mockDeliveryRepository).findByStateOrderByCreatedAsc(PENDING, Limit.of(10));
+		verify(mockJsonMapper).readValue(REQUEST_JSON, DigitalMailRequest.class);
+		verify(mockDigitalMailService).sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID));
+		verify(mockDeliveryRepository).save(entity);
+
+		assertThat(entity.getState()).isEqualTo(FAILED);
+		assertThat(entity.getAttempts()).isEqualTo(MAX_ATTEMPTS);
+		assertThat(entity.getDetail()).isEqualTo("Connection reset");
+		assertThat(entity.getRequest()).isNull();
+	}
+
+	@Test
+	void testDispatchPendingPermanentFailure() {
+		final var request = generateDigitalMailRequestDto();
+		final var entity = createPendingEntity(0);
+
+		when(mockDeliveryRepository.findByStateOrderByCreatedAsc(PENDING, Limit.of(10))).thenReturn(List.of(entity));
+		when(mockJsonMapper.readValue(REQUEST_JSON, DigitalMailRequest.class)).thenReturn(request);
+		when(mockDigitalMailService.sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID)))
+			.thenThrow(Problem.builder().withTitle("Error").withDetail("No mailbox found").withStatus(NOT_FOUND).build());
+
+		asyncDeliveryService.dispatchPending(10, MAX_ATTEMPTS);
+
+		verify(mockDeliveryRepository).findByStateOrderByCreatedAsc(PENDING, Limit.of(10));
+		verify(mockJsonMapper).readValue(REQUEST_JSON, DigitalMailRequest.class);
+		verify(mockDigitalMailService).sendDigitalMail(any(DigitalMailDto.class), eq(MUNICIPALITY_ID));
+		verify(mockDeliveryRepository).save(entity);
+
+		assertThat(entity.getState()).isEqualTo(FAILED);
+		assertThat(entity.getAttempts()).isOne();
+		assertThat(entity.getRequest()).isNull();
+	}
+
+	@Test
+	void testDispatchPendingNothingToSend() {
+		when(mockDeliveryRepository.findByStateOrderByCreatedAsc(PENDING, Limit.of(10))).thenReturn(List.of());
+
+		asyncDeliveryService.dispatchPending(10, MAX_ATTEMPTS);
+
+		verify(mockDeliveryRepository).findByStateOrderByCreatedAsc(PENDING, Limit.of(10));
+		verifyNoInteractions(mockDigitalMailService, mockJsonMapper);
+	}
+
+	private static DeliveryEntity createPendingEntity(final int attempts) {
+		return DeliveryEntity.builder()
+			.withId(DELIVERY_ID)
+			.withMunicipalityId(MUNICIPALITY_ID)
+			.withOrganizationNumber(ORGANIZATION_NUMBER)
+			.withPartyId("somePartyId")
+			.withRequest(REQUEST_JSON)
+			.withState(PENDING)
+			.withAttempts(attempts)
+			.build();
+	}
+}
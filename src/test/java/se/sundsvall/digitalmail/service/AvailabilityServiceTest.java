@@ -1,25 +1,37 @@
 package se.sundsvall.digitalmail.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.IntStream;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import se.sundsvall.digitalmail.configuration.ReachabilityCacheProperties;
 import se.sundsvall.digitalmail.integration.skatteverket.MailboxDto;
+import se.sundsvall.digitalmail.integration.skatteverket.SkatteverketProperties;
 import se.sundsvall.digitalmail.integration.skatteverket.reachable.ReachableIntegration;
 
 import static java.util.Collections.emptyList;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 import static se.sundsvall.digitalmail.TestObjectFactory.ORGANIZATION_NUMBER;
+import static se.sundsvall.digitalmail.integration.skatteverket.MailboxDto.REASON_MAILBOX_PENDING;
+import static se.sundsvall.digitalmail.service.AvailabilityService.REACHABILITY_CACHE;
 
 @ExtendWith(MockitoExtension.class)
 class AvailabilityServiceTest {
@@ -27,14 +39,30 @@ class AvailabilityServiceTest {
 	@Mock
 	private ReachableIntegration mockReachableIntegration;
 
-	@InjectMocks
+	@Mock
+	private SkatteverketProperties mockSkatteverketProperties;
+
+	private ExecutorService executor;
+
+	private SimpleMeterRegistry meterRegistry;
+
 	private AvailabilityService availabilityService;
 
 	private static final MailboxDto VALID_MAILBOX = new MailboxDto(null, "someRecipient", "someServiceAddress", "someServiceName", true);
 	private static final MailboxDto INVALID_MAILBOX = new MailboxDto("Sender not accepted by recipient", "someRecipient", "someServiceAddress", "someServiceName", false);
 
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+		when(mockSkatteverketProperties.reachableChunkParallelism()).thenReturn(2);
+		availabilityService = new AvailabilityService(mockReachableIntegration, new ReachabilityCacheProperties(100, Duration.ofHours(1), Duration.ofMinutes(15), Duration.ZERO), mockSkatteverketProperties,
+			executor, meterRegistry);
+	}
+
 	@AfterEach
 	void tearDown() {
+		executor.shutdownNow();
 		verifyNoMoreInteractions(mockReachableIntegration);
 	}
 
@@ -78,10 +106,100 @@ class AvailabilityServiceTest {
 
 		final var result = availabilityService.getRecipientMailboxesAndCheckAvailability(legalIds, ORGANIZATION_NUMBER);
 
-		// Verify we got the same number of mailboxes back.
-		assertThat(result).hasSize(numberOfLegalIds);
+		// Verify we got the same number of mailboxes back, in the same order.
+		assertThat(result).extracting(MailboxDto::getRecipientId).containsExactlyElementsOf(legalIds);
 
 		verify(mockReachableIntegration, times(3)).isReachable(anyList(), anyString());
 		verifyNoMoreInteractions(mockReachableIntegration);
 	}
+
+	@Test
+	void testOnlyCacheMissesAreSentToSkatteverket() {
+		when(mockReachableIntegration.isReachable(anyList(), anyString()))
+			.thenAnswer(invocation -> invocation.<List<String>>getArgument(0).stream()
+				.map(id -> new MailboxDto(null, id, "serviceAddress", "serviceName", true))
+				.toList());
+
+		availabilityService.getRecipientMailboxesAndCheckAvailability(List.of("legalId-1", "legalId-2"), ORGANIZATION_NUMBER);
+		final var result = availabilityService.getRecipientMailboxesAndCheckAvailability(List.of("legalId-1", "legalId-2", "legalId-3"), ORGANIZATION_NUMBER);
+
+		assertThat(result).extracting(MailboxDto::getRecipientId).containsExactlyInAnyOrder("legalId-1", "legalId-2", "legalId-3");
+		assertThat(meterRegistry.get("cache.gets").tag("cache", REACHABILITY_CACHE).tag("result", "hit").functionCounter().count()).isEqualTo(2);
+
+		verify(mockReachableIntegration).isReachable(List.of("legalId-1", "legalId-2"), ORGANIZATION_NUMBER);
+		verify(mockReachableIntegration).isReachable(List.of("legalId-3"), ORGANIZATION_NUMBER);
+	}
+
+	@Test
+	void testCacheIsPerSender() {
+		final var mailbox = new MailboxDto(null, "legalId", "serviceAddress", "serviceName", true);
+		when(mockReachableIntegration.isReachable(anyList(), anyString())).thenReturn(List.of(mailbox));
+
+		availabilityService.getRecipientMailboxesAndCheckAvailability(List.of("legalId"), ORGANIZATION_NUMBER);
+		availabilityService.getRecipientMailboxesAndCheckAvailability(List.of("legalId"), "otherOrganizationNumber");
+
+		verify(mockReachableIntegration).isReachable(List.of("legalId"), ORGANIZATION_NUMBER);
+		verify(mockReachableIntegration).isReachable(List.of("legalId"), "otherOrganizationNumber");
+	}
+
+	@Test
+	void testUnreachableMailboxesAreCached() {
+		final var mailbox = new MailboxDto("Sender not accepted by recipient", "legalId", null, null, false);
+		when(mockReachableIntegration.isReachable(anyList(), anyString())).thenReturn(List.of(mailbox));
+
+		availabilityService.getRecipientMailboxesAndCheckAvailability(List.of("legalId"), ORGANIZATION_NUMBER);
+		final var result = availabilityService.getRecipientMailboxesAndCheckAvailability(List.of("legalId"), ORGANIZATION_NUMBER);
+
+		assertThat(result).containsExactly(mailbox);
+		verify(mockReachableIntegration).isReachable(anyList(), eq(ORGANIZATION_NUMBER));
+	}
+
+	@Test
+	void testPendingMailboxesExpireWithTheirOwnTtl() {
+		// The pending ttl is zero in this test, so pending mailboxes are fetched every time
+		final var mailbox = new MailboxDto(REASON_MAILBOX_PENDING, "legalId", null, null, false);
+		when(mockReachableIntegration.isReachable(anyList(), anyString())).thenReturn(List.of(mailbox));
+
+		availabilityService.getRecipientMailboxesAndCheckAvailability(List.of("legalId"), ORGANIZATION_NUMBER);
+		availabilityService.getRecipientMailboxesAndCheckAvailability(List.of("legalId"), ORGANIZATION_NUMBER);
+
+		verify(mockReachableIntegration, times(2)).isReachable(List.of("legalId"), ORGANIZATION_NUMBER);
+	}
+
+	@Test
+	void testChunksAreSentConcurrently() {
+		final var legalIds = IntStream.range(0, 2500)
+			.mapToObj(i -> "legalId-" + i)
+			.toList();
+		final var started = new CountDownLatch(2);
+
+		// Each call waits until two calls are running at the same time, which never happens if they are sequential
+		when(mockReachableIntegration.isReachable(anyList(), anyString())).thenAnswer(invocation -> {
+			started.countDown();
+			started.await();
+			return invocation.<List<String>>getArgument(0).stream()
+				.map(id -> new MailboxDto(null, id, "serviceAddress", "serviceName", true))
+				.toList();
+		});
+
+		final var result = availabilityService.getRecipientMailboxesAndCheckAvailability(legalIds, ORGANIZATION_NUMBER);
+
+		assertThat(result).extracting(MailboxDto::getRecipientId).containsExactlyElementsOf(legalIds);
+		verify(mockReachableIntegration, times(3)).isReachable(anyList(), eq(ORGANIZATION_NUMBER));
+	}
+
+	@Test
+	void testFailingChunkFailsTheCall() {
+		final var legalIds = IntStream.range(0, 2500)
+			.mapToObj(i -> "legalId-" + i)
+			.toList();
+		final var failure = new IllegalStateException("Circuit breaker is open");
+
+		when(mockReachableIntegration.isReachable(anyList(), anyString())).thenThrow(failure);
+
+		assertThatThrownBy(() -> availabilityService.getRecipientMailboxesAndCheckAvailability(legalIds, ORGANIZATION_NUMBER)).isSameAs(failure);
+
+		// No more chunks are sent once a chunk has failed
+		verify(mockReachableIntegration, atMost(2)).isReachable(anyList(), eq(ORGANIZATION_NUMBER));
+	}
 }
@@ -0,0 +1,214 @@
+package se.sundsvall.digitalmail.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
+import se.sundsvall.digitalmail.TestObjectFactory;
+import se.sundsvall.digitalmail.api.model.File;
+import se.sundsvall.digitalmail.configuration.CompressionProperties;
+import se.sundsvall.digitalmail.domain.attachment.DecodedAttachment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static se.sundsvall.digitalmail.service.CompressionService.BYTES_SAVED_COUNTER;
+import static se.sundsvall.digitalmail.service.CompressionService.CACHE_COUNTER;
+import static se.sundsvall.digitalmail.service.CompressionService.CACHE_HIT_RATIO_GAUGE;
+import static se.sundsvall.digitalmail.service.CompressionService.CACHE_SIZE_GAUGE;
+import static se.sundsvall.digitalmail.service.CompressionService.COMPRESSION_TIMER;
+import static se.sundsvall.digitalmail.service.CompressionService.DECISION_COUNTER;
+import static se.sundsvall.digitalmail.service.CompressionService.QUEUE_GAUGE;
+import static se.sundsvall.digitalmail.service.CompressionService.SKIPPED_COUNTER;
+
+class CompressionServiceTest {
+
+	private static final String CONTENT_TYPE = "application/pdf";
+	private static final String INVALID_PDF = Base64.getEncoder().encodeToString("This is not a pdf".getBytes(StandardCharsets.UTF_8));
+
+	private ThreadPoolTaskExecutor executor;
+	private SimpleMeterRegistry meterRegistry;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		executor = createExecutor(2, 10);
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	void decodeAndCompress() {
+		final var pdf = TestObjectFactory.getSamplePdfBase64();
+		final var files = List.of(
+			new File(CONTENT_TYPE, pdf, "first.pdf"),
+			new File(CONTENT_TYPE, INVALID_PDF, "invalid.pdf"),
+			new File(CONTENT_TYPE, pdf, "second.pdf"));
+		final var service = new CompressionService(executor, new CompressionProperties(Duration.ofSeconds(30), DataSize.ofMegabytes(10), DataSize.ofBytes(0), 0.9, false), meterRegistry);
+
+		final var result = service.decodeAndCompress(files);
+
+		// Order is kept, valid pdfs are compressed and the invalid one is passed on as is
+		assertThat(result).extracting(DecodedAttachment::filename).containsExactly("first.pdf", "invalid.pdf", "second.pdf");
+		assertThat(result.getFirst().content().length).isLessThan(Base64.getDecoder().decode(pdf).length);
+		assertThat(result.get(1).content()).isEqualTo(Base64.getDecoder().decode(INVALID_PDF));
+		assertThat(result.getLast().content()).isEqualTo(result.getFirst().content());
+		assertThat(result).extracting(DecodedAttachment::checksum).doesNotContainNull();
+
+		// The identical pdfs are only compressed once
+		assertThat(meterRegistry.get(COMPRESSION_TIMER).tag("outcome", "compressed").timer().count()).isOne();
+		assertThat(meterRegistry.get(COMPRESSION_TIMER).tag("outcome", "uncompressed").timer().count()).isOne();
+		assertThat(meterRegistry.get(DECISION_COUNTER).tag("reason", "compressed").counter().count()).isOne();
+		assertThat(meterRegistry.get(DECISION_COUNTER).tag("reason", "failed").counter().count()).isOne();
+		assertThat(meterRegistry.find(SKIPPED_COUNTER).counter()).isNull();
+		assertThat(meterRegistry.get(QUEUE_GAUGE).gauge().value()).isZero();
+	}
+
+	@Test
+	void decodeAndCompressFromCache() {
+		final var pdf = TestObjectFactory.getSamplePdfBase64();
+		final var pdfLength = Base64.getDecoder().decode(pdf).length;
+		final var service = new CompressionService(executor, new CompressionProperties(Duration.ofSeconds(30), DataSize.ofMegabytes(10), DataSize.ofBytes(0), 0.9, false), meterRegistry);
+
+		final var first = service.decodeAndCompress(List.of(new File(CONTENT_TYPE, pdf, "first.pdf")));
+		final var second = service.decodeAndCompress(List.of(new File(CONTENT_TYPE, pdf, "second.pdf")));
+
+		// The second attachment is taken from the cache, with its own filename
+		assertThat(second.getFirst().filename()).isEqualTo("second.pdf");
+		assertThat(second.getFirst().content()).isSameAs(first.getFirst().content());
+		assertThat(second.getFirst().checksum()).isEqualTo(first.getFirst().checksum()).hasSize(32);
+
+		assertThat(meterRegistry.get(COMPRESSION_TIMER).tag("outcome", "compressed").timer().count()).isOne();
+		assertThat(meterRegistry.get(CACHE_COUNTER).tag("result", "hit").counter().count()).isOne();
+		assertThat(meterRegistry.get(CACHE_COUNTER).tag("result", "miss").counter().count()).isOne();
+		assertThat(meterRegistry.get(CACHE_HIT_RATIO_GAUGE).gauge().value()).isEqualTo(0.5);
+		assertThat(meterRegistry.get(BYTES_SAVED_COUNTER).counter().count()).isEqualTo(pdfLength);
+		assertThat(meterRegistry.find(CACHE_SIZE_GAUGE).gauge()).isNotNull();
+	}
+
+	@Test
+	void decodeAndCompressWhenTooSmall() {
+		final var pdf = TestObjectFactory.getSamplePdfBase64();
+		final var service = new CompressionService(executor, new CompressionProperties(Duration.ofSeconds(30), DataSize.ofMegabytes(10), DataSize.ofMegabytes(1), 0.9, false), meterRegistry);
+
+		final var result = service.decodeAndCompress(List.of(new File(CONTENT_TYPE, pdf, "sample.pdf")));
+
+		assertThat(result.getFirst().content()).isEqualTo(Base64.getDecoder().decode(pdf));
+		assertThat(meterRegistry.get(COMPRESSION_TIMER).tag("outcome", "uncompressed").timer().count()).isOne();
+		assertThat(meterRegistry.get(DECISION_COUNTER).tag("reason", "too_small").counter().count()).isOne();
+	}
+
+	@Test
+	void decodeAndCompressOnlyWhenTooBig() {
+		final var pdf = TestObjectFactory.getSamplePdfBase64();
+		final var files = List.of(new File(CONTENT_TYPE, pdf, "sample.pdf"));
+		final var service = new CompressionService(executor, new CompressionProperties(Duration.ofSeconds(30), DataSize.ofMegabytes(10), DataSize.ofBytes(0), 0.9, true), meterRegistry);
+
+		// The attachments fit, so they are only decoded
+		final var uncompressed = service.decodeAndCompress(files, decoded -> true);
+
+		assertThat(uncompressed.getFirst().content()).isEqualTo(Base64.getDecoder().decode(pdf));
+		assertThat(meterRegistry.get(SKIPPED_COUNTER).tag("reason", "fits").counter().count()).isOne();
+		assertThat(meterRegistry.find(COMPRESSION_TIMER).timer()).isNull();
+
+		// The attachments don't fit, so they are compressed
+		final var compressed = service.decodeAndCompress(files, decoded -> false);
+
+		assertThat(compressed.getFirst().content().length).isLessThan(Base64.getDecoder().decode(pdf).length);
+		assertThat(meterRegistry.get(COMPRESSION_TIMER).tag("outcome", "compressed").timer().count()).isOne();
+	}
+
+	@Test
+	void decodeAndCompressAlwaysWhenNotOnlyWhenTooBig() {
+		final var pdf = TestObjectFactory.getSamplePdfBase64();
+		final var service = new CompressionService(executor, new CompressionProperties(Duration.ofSeconds(30), DataSize.ofMegabytes(10), DataSize.ofBytes(0), 0.9, false), meterRegistry);
+
+		final var result = service.decodeAndCompress(List.of(new File(CONTENT_TYPE, pdf, "sample.pdf")), decoded -> true);
+
+		assertThat(result.getFirst().content().length).isLessThan(Base64.getDecoder().decode(pdf).length);
+		assertThat(meterRegistry.find(SKIPPED_COUNTER).counter()).isNull();
+	}
+
+	@Test
+	void decodeAndCompressWithNoAttachments() {
+		final var service = new CompressionService(executor, new CompressionProperties(Duration.ofSeconds(30), DataSize.ofMegabytes(10), DataSize.ofBytes(0), 0.9, false), meterRegistry);
+
+		assertThat(service.decodeAndCompress(null)).isEmpty();
+		assertThat(service.decodeAndCompress(List.of())).isEmpty();
+	}
+
+	@Test
+	void decodeAndCompressWhenTimeBudgetIsExceeded() throws Exception {
+		final var pdf = TestObjectFactory.getSamplePdfBase64();
+		final var service = new CompressionService(executor, new CompressionProperties(Duration.ofMillis(50), DataSize.ofMegabytes(10), DataSize.ofBytes(0), 0.9, false), meterRegistry);
+		final var latch = blockExecutor(2);
+
+		try {
+			final var result = service.decodeAndCompress(List.of(new File(CONTENT_TYPE, pdf, "sample.pdf")));
+
+			// The attachment is sent uncompressed
+			assertThat(result).hasSize(1);
+			assertThat(result.getFirst().content()).isEqualTo(Base64.getDecoder().decode(pdf));
+			assertThat(meterRegistry.get(SKIPPED_COUNTER).tag("reason", "timeout").counter().count()).isOne();
+		} finally {
+			latch.countDown();
+		}
+	}
+
+	@Test
+	void decodeAndCompressWhenQueueIsFull() throws Exception {
+		executor.shutdown();
+		executor = createExecutor(1, 0);
+
+		final var pdf = TestObjectFactory.getSamplePdfBase64();
+		final var service = new CompressionService(executor, new CompressionProperties(Duration.ofSeconds(30), DataSize.ofMegabytes(10), DataSize.ofBytes(0), 0.9, false), meterRegistry);
+		final var latch = blockExecutor(1);
+
+		try {
+			final var result = service.decodeAndCompress(List.of(new File(CONTENT_TYPE, pdf, "sample.pdf")));
+
+			assertThat(result).hasSize(1);
+			assertThat(result.getFirst().content()).isEqualTo(Base64.getDecoder().decode(pdf));
+			assertThat(meterRegistry.get(SKIPPED_COUNTER).tag("reason", "rejected").counter().count()).isOne();
+		} finally {
+			latch.countDown();
+		}
+	}
+
+	private static ThreadPoolTaskExecutor createExecutor(final int poolSize, final int queueCapacity) {
+		final var taskExecutor = new ThreadPoolTaskExecutor();
+		taskExecutor.setCorePoolSize(poolSize);
+		taskExecutor.setMaxPoolSize(poolSize);
+		taskExecutor.setQueueCapacity(queueCapacity);
+		taskExecutor.initialize();
+		return taskExecutor;
+	}
+
+	// Occupies all threads of the executor until the returned latch is counted down
+	private CountDownLatch blockExecutor(final int threads) throws InterruptedException {
+		final var release = new CountDownLatch(1);
+		final var started = new CountDownLatch(threads);
+
+		for (var i = 0; i < threads; i++) {
+			executor.execute(() -> {
+				started.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+		}
+
+		started.await();
+		return release;
+	}
+}
@@ -1,19 +1,27 @@
 package se.sundsvall.digitalmail.service;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import se.sundsvall.dept44.problem.Problem;
 import se.sundsvall.dept44.problem.ThrowableProblem;
+import se.sundsvall.digitalmail.api.model.DeliveryStatus;
 import se.sundsvall.digitalmail.api.model.DigitalMailResponse;
 import se.sundsvall.digitalmail.api.model.Mailbox;
+import se.sundsvall.digitalmail.domain.attachment.DecodedAttachment;
 import se.sundsvall.digitalmail.integration.kivra.InvoiceDto;
 import se.sundsvall.digitalmail.integration.kivra.KivraIntegration;
 import se.sundsvall.digitalmail.integration.party.PartyIntegration;
@@ -28,15 +36,20 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static se.sundsvall.digitalmail.TestObjectFactory.MUNICIPALITY_ID;
 import static se.sundsvall.digitalmail.TestObjectFactory.ORGANIZATION_NUMBER;
+import static se.sundsvall.digitalmail.TestObjectFactory.generateDigitalMailBatchRequest;
 import static se.sundsvall.digitalmail.TestObjectFactory.generateDigitalMailRequestDto;
 import static se.sundsvall.digitalmail.TestObjectFactory.generateInvoiceDto;
 
@@ -55,12 +68,28 @@ class DigitalMailServiceTest {
 	@Mock
 	private AvailabilityService mockAvailabilityService;
 
+	@Mock
+	private CompressionService mockCompressionService;
+
+	@Mock
+	private MessageSizeEstimator mockMessageSizeEstimator;
+
+	@Captor
+	private ArgumentCaptor<DigitalMailDto> dtoCaptor;
+
+	@Captor
+	private ArgumentCaptor<Predicate<List<DecodedAttachment>>> fitsCaptor;
+
+	private static final List<DecodedAttachment> DECODED_ATTACHMENTS = List.of(new DecodedAttachment("application/pdf", "test.pdf", new byte[] {
+		1, 2, 3
+	}));
+
 	@InjectMocks
 	private DigitalMailService service;
 
 	@AfterEach
 	void afterEach() {
-		verifyNoMoreInteractions(mockPartyIntegration, mockDigitalMailIntegration, mockKivraIntegration, mockAvailabilityService);
+		verifyNoMoreInteractions(mockPartyIntegration, mockDigitalMailIntegration, mockKivraIntegration, mockAvailabilityService, mockCompressionService, mockMessageSizeEstimator);
 	}
 
 	@Test
@@ -72,17 +101,53 @@ class DigitalMailServiceTest {
 		when(mockAvailabilityService.getRecipientMailboxesAndCheckAvailability(anyList(), eq(ORGANIZATION_NUMBER))).thenReturn(List.of(mailbox));
 		when(mockDigitalMailIntegration.sendDigitalMail(any(DigitalMailDto.class), eq("serviceAddress"))).thenReturn(new DigitalMailResponse());
 
-		final var pdfLength = request.getAttachments().getFirst().getBody().length();  // Save the length of the pdf before compression
+		when(mockCompressionService.decodeAndCompress(eq(request.getAttachments()), any())).thenReturn(DECODED_ATTACHMENTS);
 
 		final var digitalMailResponse = service.sendDigitalMail(request, MUNICIPALITY_ID);
 
-		final var compressedPdfLength = request.getAttachments().getFirst().getBody().length(); // Save the length of the pdf after compression
-
-		assertThat(compressedPdfLength).isLessThan(pdfLength);  // Check that the pdf has been compressed
+		assertThat(request.getDecodedAttachments()).isSameAs(DECODED_ATTACHMENTS);
 		assertThat(digitalMailResponse).isNotNull();
+		verify(mockCompressionService).decodeAndCompress(eq(request.getAttachments()), any());
 		verify(mockPartyIntegration).getLegalId(anyString(), anyString());
 		verify(mockAvailabilityService).getRecipientMailboxesAndCheckAvailability(anyList(), eq(ORGANIZATION_NUMBER));
 		verify(mockDigitalMailIntegration).sendDigitalMail(any(DigitalMailDto.class), eq("serviceAddress"));
+		verify(mockMessageSizeEstimator).checkSize(request.getBodyInformation(), DECODED_ATTACHMENTS, null);
+		verify(mockMessageSizeEstimator).checkSize(request.getBodyInformation(), DECODED_ATTACHMENTS, "serviceAddress");
+	}
+
+	@Test
+	void testSendDigitalMailTooBig_shouldThrowProblemBeforeAnyLookups() {
+		final var request = generateDigitalMailRequestDto();
+
+		when(mockCompressionService.decodeAndCompress(eq(request.getAttachments()), any())).thenReturn(DECODED_ATTACHMENTS);
+		doThrow(Problem.builder().withStatus(BAD_REQUEST).build()).when(mockMessageSizeEstimator).checkSize(request.getBodyInformation(), DECODED_ATTACHMENTS, null);
+
+		assertThatExceptionOfType(ThrowableProblem.class)
+			.isThrownBy(() -> service.sendDigitalMail(request, MUNICIPALITY_ID))
+			.satisfies(thrownProblem -> assertThat(thrownProblem.getStatus()).isEqualTo(BAD_REQUEST));
+
+		verify(mockCompressionService).decodeAndCompress(eq(request.getAttachments()), any());
+		verify(mockMessageSizeEstimator).checkSize(request.getBodyInformation(), DECODED_ATTACHMENTS, null);
+		verifyNoInteractions(mockPartyIntegration, mockAvailabilityService, mockDigitalMailIntegration);
+	}
+
+	@Test
+	void testSendDigitalMailAsksEstimatorWhetherAttachmentsFitUncompressed() {
+		final var request = generateDigitalMailRequestDto();
+
+		when(mockPartyIntegration.getLegalId(anyString(), anyString())).thenReturn(Optional.empty());
+		when(mockCompressionService.decodeAndCompress(eq(request.getAttachments()), fitsCaptor.capture())).thenReturn(DECODED_ATTACHMENTS);
+		when(mockMessageSizeEstimator.fits(request.getBodyInformation(), DECODED_ATTACHMENTS, null)).thenReturn(true);
+
+		assertThatExceptionOfType(ThrowableProblem.class).isThrownBy(() -> service.sendDigitalMail(request, MUNICIPALITY_ID));
+
+		// The compression service asks the estimator whether the decoded attachments fit without compression
+		assertThat(fitsCaptor.getValue().test(DECODED_ATTACHMENTS)).isTrue();
+
+		verify(mockCompressionService).decodeAndCompress(eq(request.getAttachments()), any());
+		verify(mockMessageSizeEstimator).fits(request.getBodyInformation(), DECODED_ATTACHMENTS, null);
+		verify(mockMessageSizeEstimator).checkSize(request.getBodyInformation(), DECODED_ATTACHMENTS, null);
+		verify(mockPartyIntegration).getLegalId(anyString(), anyString());
 	}
 
 	// Same thing will happen if any integration throws an exception so will only test one.
@@ -99,9 +164,11 @@ class DigitalMailServiceTest {
 				assertThat(thrownProblem.getMessage()).isEqualTo("Error while sending digital mail: No legal Id found for partyId: " + request.getPartyId());
 			});
 
+		verify(mockCompressionService).decodeAndCompress(eq(request.getAttachments()), any());
 		verify(mockPartyIntegration).getLegalId(anyString(), anyString());
 		verify(mockAvailabilityService, never()).getRecipientMailboxesAndCheckAvailability(anyList(), eq(ORGANIZATION_NUMBER));
 		verify(mockDigitalMailIntegration, never()).sendDigitalMail(any(DigitalMailDto.class), eq("serviceAddress"));
+		verify(mockMessageSizeEstimator).checkSize(eq(request.getBodyInformation()), anyList(), isNull());
 	}
 
 	@Test
@@ -118,9 +185,77 @@ class DigitalMailServiceTest {
 				assertThat(thrownProblem.getMessage()).isEqualTo("Couldn't find any mailboxes: No mailbox could be found for any of the given partyIds or the recipients doesn't allow the sender.");
 			});
 
+		verify(mockCompressionService).decodeAndCompress(eq(request.getAttachments()), any());
 		verify(mockPartyIntegration).getLegalId(anyString(), anyString());
 		verify(mockAvailabilityService).getRecipientMailboxesAndCheckAvailability(anyList(), eq(ORGANIZATION_NUMBER));
 		verify(mockDigitalMailIntegration, never()).sendDigitalMail(any(DigitalMailDto.class), eq("serviceAddress"));
+		verify(mockMessageSizeEstimator).checkSize(eq(request.getBodyInformation()), anyList(), isNull());
+	}
+
+	@Test
+	void testSendDigitalMailBatch() {
+		final var request = generateDigitalMailBatchRequest("partyId1", "partyId2", "partyIdTooBig", "partyIdUnreachable", "partyIdNotFound");
+		final var batchService = new DigitalMailService(mockPartyIntegration, mockDigitalMailIntegration, mockKivraIntegration, mockAvailabilityService, mockCompressionService, mockMessageSizeEstimator, Runnable::run);
+		when(mockCompressionService.decodeAndCompress(eq(request.getAttachments()), any())).thenReturn(DECODED_ATTACHMENTS);
+		when(mockMessageSizeEstimator.fits(eq(request.getBodyInformation()), eq(DECODED_ATTACHMENTS), anyString())).thenAnswer(invocation -> !"serviceAddress3".equals(invocation.getArgument(2)));
+
+		final var partyIdLegalIdMap = new HashMap<String, String>();
+		partyIdLegalIdMap.put("partyId1", "legalId1");
+		partyIdLegalIdMap.put("partyId2", "legalId2");
+		partyIdLegalIdMap.put("partyIdTooBig", "legalId3");
+		partyIdLegalIdMap.put("partyIdUnreachable", "legalIdUnreachable");
+		partyIdLegalIdMap.put("partyIdNotFound", null);
+		when(mockPartyIntegration.getLegalIds(MUNICIPALITY_ID, request.getPartyIds())).thenReturn(partyIdLegalIdMap);
+		when(mockAvailabilityService.getRecipientMailboxesAndCheckAvailability(anyList(), eq(ORGANIZATION_NUMBER))).thenReturn(List.of(
+			new MailboxDto(null, "legalId1", "serviceAddress1", "kivra", true),
+			new MailboxDto(null, "legalId2", "serviceAddress2", "billo", true),
+			new MailboxDto(null, "legalId3", "serviceAddress3", "fortnox", true),
+			new MailboxDto("Sender not accepted by recipient", "legalIdUnreachable", null, null, false)));
+		when(mockDigitalMailIntegration.sendBatchDigitalMail(any(DigitalMailDto.class), eq("serviceAddress1"))).thenAnswer(invocation -> DigitalMailResponse.builder()
+			.withDeliveryStatus(new DeliveryStatus(true, invocation.<DigitalMailDto>getArgument(0).getPartyId(), "transactionId1"))
+			.build());
+		when(mockDigitalMailIntegration.sendBatchDigitalMail(any(DigitalMailDto.class), eq("serviceAddress2"))).thenThrow(Problem.builder().withStatus(INTERNAL_SERVER_ERROR).build());
+
+		final var result = batchService.sendDigitalMailBatch(request, ORGANIZATION_NUMBER, MUNICIPALITY_ID);
+
+		assertThat(result).extracting(DeliveryStatus::getPartyId, DeliveryStatus::isDelivered, DeliveryStatus::getTransactionId)
+			.containsExactly(
+				tuple("partyId1", true, "transactionId1"),
+				tuple("partyId2", false, null),
+				tuple("partyIdTooBig", false, null),
+				tuple("partyIdUnreachable", false, null),
+				tuple("partyIdNotFound", false, null));
+
+		verify(mockPartyIntegration).getLegalIds(MUNICIPALITY_ID, request.getPartyIds());
+		verify(mockAvailabilityService).getRecipientMailboxesAndCheckAvailability(anyList(), eq(ORGANIZATION_NUMBER));
+		verify(mockDigitalMailIntegration, times(2)).sendBatchDigitalMail(dtoCaptor.capture(), anyString());
+		verify(mockMessageSizeEstimator).checkSize(request.getBodyInformation(), DECODED_ATTACHMENTS, null);
+		verify(mockMessageSizeEstimator, times(3)).fits(eq(request.getBodyInformation()), eq(DECODED_ATTACHMENTS), anyString());
+
+		// The attachments are compressed once and shared by all recipients
+		verify(mockCompressionService).decodeAndCompress(eq(request.getAttachments()), any());
+		assertThat(dtoCaptor.getAllValues()).allSatisfy(dto -> assertThat(dto.getDecodedAttachments()).isSameAs(DECODED_ATTACHMENTS));
+		verifyNoInteractions(mockKivraIntegration);
+	}
+
+	@Test
+	void testSendDigitalMailBatchWhenNoLegalIdFound() {
+		final var request = generateDigitalMailBatchRequest("partyId1");
+		final var batchService = new DigitalMailService(mockPartyIntegration, mockDigitalMailIntegration, mockKivraIntegration, mockAvailabilityService, mockCompressionService, mockMessageSizeEstimator, Runnable::run);
+
+		final var partyIdLegalIdMap = new HashMap<String, String>();
+		partyIdLegalIdMap.put("partyId1", null);
+		when(mockPartyIntegration.getLegalIds(MUNICIPALITY_ID, request.getPartyIds())).thenReturn(partyIdLegalIdMap);
+
+		final var result = batchService.sendDigitalMailBatch(request, ORGANIZATION_NUMBER, MUNICIPALITY_ID);
+
+		assertThat(result).extracting(DeliveryStatus::getPartyId, DeliveryStatus::isDelivered)
+			.containsExactly(tuple("partyId1", false));
+
+		verify(mockCompressionService).decodeAndCompress(eq(request.getAttachments()), any());
+		verify(mockPartyIntegration).getLegalIds(MUNICIPALITY_ID, request.getPartyIds());
+		verify(mockMessageSizeEstimator).checkSize(eq(request.getBodyInformation()), anyList(), isNull());
+		verifyNoInteractions(mockAvailabilityService, mockDigitalMailIntegration, mockKivraIntegration);
 	}
 
 	/**
@@ -267,4 +402,32 @@ class DigitalMailServiceTest {
 		verify(mockAvailabilityService).getRecipientMailboxesAndCheckAvailability(anyList(), eq(ORGANIZATION_NUMBER));
 		verifyNoInteractions(mockKivraIntegration, mockDigitalMailIntegration);
 	}
+
+	@Test
+	void testStreamMailboxes() {
+		final var partyIds = IntStream.range(0, 2500)
+			.mapToObj(i -> "partyId" + i)
+			.toList();
+		final var chunks = new ArrayList<List<Mailbox>>();
+
+		when(mockPartyIntegration.getLegalIds(eq(MUNICIPALITY_ID), anyList())).thenAnswer(invocation -> invocation.<List<String>>getArgument(1).stream()
+			.collect(Collectors.toMap(partyId -> partyId, partyId -> "legalId-" + partyId)));
+		when(mockAvailabilityService.getRecipientMailboxesAndCheckAvailability(anyList(), eq(ORGANIZATION_NUMBER))).thenAnswer(invocation -> invocation.<List<String>>getArgument(0).stream()
+			.map(legalId -> new MailboxDto(null, legalId, "serviceAddress", "kivra", true))
+			.toList());
+
+		service.streamMailboxes(partyIds, MUNICIPALITY_ID, ORGANIZATION_NUMBER, chunks::add);
+
+		// Each chunk is handed over on its own
+		assertThat(chunks).extracting(List::size).containsExactly(1000, 1000, 500);
+		assertThat(chunks.stream().flatMap(List::stream))
+			.extracting(Mailbox::getPartyId)
+			.containsExactlyInAnyOrderElementsOf(partyIds);
+
+		verify(mockPartyIntegration).getLegalIds(MUNICIPALITY_ID, partyIds.subList(0, 1000));
+		verify(mockPartyIntegration).getLegalIds(MUNICIPALITY_ID, partyIds.subList(1000, 2000));
+		verify(mockPartyIntegration).getLegalIds(MUNICIPALITY_ID, partyIds.subList(2000, 2500));
+		verify(mockAvailabilityService, times(3)).getRecipientMailboxesAndCheckAvailability(anyList(), eq(ORGANIZATION_NUMBER));
+		verifyNoInteractions(mockKivraIntegration, mockDigitalMailIntegration);
+	}
 }
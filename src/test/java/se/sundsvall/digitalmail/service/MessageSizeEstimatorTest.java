@@ -0,0 +1,91 @@
+package se.sundsvall.digitalmail.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+import se.sundsvall.dept44.problem.ThrowableProblem;
+import se.sundsvall.digitalmail.api.model.BodyInformation;
+import se.sundsvall.digitalmail.domain.attachment.DecodedAttachment;
+import se.sundsvall.digitalmail.integration.skatteverket.SkatteverketProperties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.mockito.Mockito.when;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.MediaType.TEXT_HTML_VALUE;
+import static org.springframework.http.MediaType.TEXT_PLAIN_VALUE;
+
+@ExtendWith(MockitoExtension.class)
+class MessageSizeEstimatorTest {
+
+	private static final String SUPPLIER_ADDRESS = "https://service.supplier.se/deliver";
+
+	@Mock
+	private SkatteverketProperties propertiesMock;
+
+	private MessageSizeEstimator estimator;
+
+	@BeforeEach
+	void setUp() {
+		when(propertiesMock.messageMaxSize()).thenReturn(1000L);
+		when(propertiesMock.envelopeOverhead()).thenReturn(DataSize.ofBytes(100));
+		when(propertiesMock.supplierEnvelopeOverhead()).thenReturn(Map.of("service.supplier.se", DataSize.ofBytes(50)));
+		estimator = new MessageSizeEstimator(propertiesMock);
+	}
+
+	@Test
+	void estimate() {
+		// 6 bytes of plain text and 300 bytes of attachments are 8 and 400 bytes when base64 encoded
+		final var body = BodyInformation.builder().withContentType(TEXT_PLAIN_VALUE).withBody("åäö").build();
+		final var attachments = List.of(attachment(99), attachment(201));
+
+		assertThat(estimator.estimate(body, attachments, null)).isEqualTo(100 + 8 + 400);
+		assertThat(estimator.estimate(body, attachments, SUPPLIER_ADDRESS)).isEqualTo(100 + 50 + 8 + 400);
+		assertThat(estimator.estimate(body, attachments, "https://other.supplier.se/deliver")).isEqualTo(100 + 8 + 400);
+	}
+
+	@Test
+	void estimateHtmlBody() {
+		final var html = Base64.getEncoder().encodeToString("<html>body</html>".getBytes(StandardCharsets.UTF_8));
+		final var body = BodyInformation.builder().withContentType(TEXT_HTML_VALUE).withBody(html).build();
+
+		assertThat(estimator.estimate(body, null, null)).isEqualTo(100 + html.length());
+	}
+
+	@Test
+	void estimateWithoutBodyOrAttachments() {
+		assertThat(estimator.estimate(null, List.of(), null)).isEqualTo(100);
+	}
+
+	@Test
+	void fits() {
+		// 675 bytes are 900 bytes when base64 encoded, which fits with the overhead but not with the supplier's overhead
+		final var attachments = List.of(attachment(675));
+
+		assertThat(estimator.fits(null, attachments, null)).isTrue();
+		assertThat(estimator.fits(null, attachments, SUPPLIER_ADDRESS)).isFalse();
+	}
+
+	@Test
+	void checkSize() {
+		final var attachments = List.of(attachment(675));
+
+		assertThatNoException().isThrownBy(() -> estimator.checkSize(null, attachments, null));
+		assertThatExceptionOfType(ThrowableProblem.class)
+			.isThrownBy(() -> estimator.checkSize(null, attachments, SUPPLIER_ADDRESS))
+			.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(BAD_REQUEST))
+			.withMessage("Message is too big to be sent as a digital mail.: Size is estimated to: 1050 bytes. Max allowed is: 1000 bytes.");
+	}
+
+	private static DecodedAttachment attachment(final int size) {
+		return new DecodedAttachment("application/pdf", "attachment.pdf", new byte[size]);
+	}
+}
@@ -0,0 +1,347 @@
+package se.sundsvall.digitalmail.service;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import se.sundsvall.dept44.problem.Problem;
+import se.sundsvall.dept44.problem.ThrowableProblem;
+import se.sundsvall.digitalmail.api.model.Mailbox;
+import se.sundsvall.digitalmail.integration.db.ReachabilityJobRepository;
+import se.sundsvall.digitalmail.integration.db.ReachabilityJobResultRepository;
+import se.sundsvall.digitalmail.integration.db.model.ReachabilityJobEntity;
+import se.sundsvall.digitalmail.integration.db.model.ReachabilityJobResultEntity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.http.HttpStatus.BAD_GATEWAY;
+import static se.sundsvall.digitalmail.TestObjectFactory.ORGANIZATION_NUMBER;
+import static se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState.COMPLETED;
+import static se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState.FAILED;
+import static se.sundsvall.digitalmail.domain.reachability.ReachabilityJobState.PENDING;
+
+@ExtendWith(MockitoExtension.class)
+class ReachabilityJobServiceTest {
+
+	private static final String MUNICIPALITY_ID = "2281";
+	private static final String JOB_ID = "b82bd8ac-1507-4d9a-958d-369261eecc15";
+	private static final int MAX_ATTEMPTS = 3;
+
+	@Mock
+	private ReachabilityJobRepository mockJobRepository;
+
+	@Mock
+	private ReachabilityJobResultRepository mockResultRepository;
+
+	@Mock
+	private DigitalMailService mockDigitalMailService;
+
+	@Captor
+	private ArgumentCaptor<ReachabilityJobEntity> jobCaptor;
+
+	@Captor
+	private ArgumentCaptor<List<ReachabilityJobResultEntity>> resultsCaptor;
+
+	@InjectMocks
+	private ReachabilityJobService reachabilityJobService;
+
+	@AfterEach
+	void tearDown() {
+		verifyNoMoreInteractions(mockJobRepository, mockResultRepository, mockDigitalMailService);
+	}
+
+	@Test
+	void testSubmit() {
+		when(mockJobRepository.save(any(ReachabilityJobEntity.class))).thenAnswer(invocation -> {
+			final ReachabilityJobEntity entity = invocation.getArgument(0);
+			entity.setId(JOB_ID);
+			return entity;
+		});
+
+		final var job = reachabilityJobService.submit(List.of("partyId1", "partyId2"), ORGANIZATION_NUMBER, MUNICIPALITY_ID);
+
+		assertThat(job.getJobId()).isEqualTo(JOB_ID);
+		assertThat(job.getState()).isEqualTo(PENDING);
+		assertThat(job.getTotal()).isEqualTo(2);
+		assertThat(job.getProcessed()).isZero();
+
+		verify(mockJobRepository).save(jobCaptor.capture());
+		assertThat(jobCaptor.getValue()).satisfies(entity -> {
+			assertThat(entity.getMunicipalityId()).isEqualTo(MUNICIPALITY_ID);
+			assertThat(entity.getOrganizationNumber()).isEqualTo(ORGANIZATION_NUMBER);
+			assertThat(entity.getPartyIds()).isEqualTo("partyId1\npartyId2");
+			assertThat(entity.getState()).isEqualTo(PENDING);
+		});
+		verifyNoInteractions(mockDigitalMailService);
+	}
+
+	@Test
+	void testGetJob() {
+		final var entity = createPendingJob("partyId1\npartyId2", 1, 0);
+
+		when(mockJobRepository.findByIdAndMunicipalityIdAndOrganizationNumber(JOB_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER)).thenReturn(Optional.of(entity));
+
+		final var job = reachabilityJobService.getJob(JOB_ID, ORGANIZATION_NUMBER, MUNICIPALITY_ID);
+
+		assertThat(job.getJobId()).isEqualTo(JOB_ID);
+		assertThat(job.getState()).isEqualTo(PENDING);
+		assertThat(job.getTotal()).isEqualTo(2);
+		assertThat(job.getProcessed()).isOne();
+
+		verify(mockJobRepository).findByIdAndMunicipalityIdAndOrganizationNumber(JOB_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+	}
+
+	@Test
+	void testGetJobNotFound() {
+		when(mockJobRepository.findByIdAndMunicipalityIdAndOrganizationNumber(JOB_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER)).thenReturn(Optional.empty());
+
+		assertThatThrownBy(() -> reachabilityJobService.getJob(JOB_ID, ORGANIZATION_NUMBER, MUNICIPALITY_ID))
+			.isInstanceOf(ThrowableProblem.class)
+			.hasMessage("Reachability job not found: No reachability job with id '%s' could be found".formatted(JOB_ID));
+
+		verify(mockJobRepository).findByIdAndMunicipalityIdAndOrganizationNumber(JOB_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+	}
+
+	@Test
+	void testGetResults() {
+		final var pageable = PageRequest.of(1, 2, Sort.by("position"));
+		final var result = ReachabilityJobResultEntity.builder()
+			.withJobId(JOB_ID)
+			.withPosition(2)
+			.withPartyId("partyId3")
+			.withSupplier("kivra")
+			.withReachable(true)
+			.build();
+
+		when(mockJobRepository.findByIdAndMunicipalityIdAndOrganizationNumber(JOB_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER)).thenReturn(Optional.of(createPendingJob(null, 3, 0)));
+		when(mockResultRepository.findByJobId(JOB_ID, pageable)).thenReturn(new PageImpl<>(List.of(result), pageable, 3));
+
+		final var results = reachabilityJobService.getResults(JOB_ID, ORGANIZATION_NUMBER, MUNICIPALITY_ID, 1, 2);
+
+		assertThat(results.getPage()).isOne();
+		assertThat(results.getLimit()).isEqualTo(2);
+		assertThat(results.getTotalRecords()).isEqualTo(3);
+		assertThat(results.getTotalPages()).isEqualTo(2);
+		assertThat(results.getMailboxes()).extracting(Mailbox::getPartyId, Mailbox::getSupplier, Mailbox::isReachable)
+			.containsExactly(tuple("partyId3", "kivra", true));
+
+		verify(mockJobRepository).findByIdAndMunicipalityIdAndOrganizationNumber(JOB_ID, MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+		verify(mockResultRepository).findByJobId(JOB_ID, pageable);
+	}
+
+	@Test
+	void testDeleteExpired() {
+		final var retention = Duration.ofDays(7);
+		final var before = OffsetDateTime.now().minus(retention);
+		when(mockJobRepository.deleteByStateInAndModifiedBefore(eq(List.of(COMPLETED, FAILED)), any(OffsetDateTime.class))).thenReturn(2);
+
+		assertThat(reachabilityJobService.deleteExpired(retention)).isEqualTo(2);
+
+		final var modifiedCaptor = ArgumentCaptor.forClass(OffsetDateTime.class);
+		verify(mockJobRepository).deleteByStateInAndModifiedBefore(eq(List.of(COMPLETED, FAILED)), modifiedCaptor.capture());
+		assertThat(modifiedCaptor.getValue()).isBetween(before.minusSeconds(1), OffsetDateTime.now().minus(retention));
+	}
+
+	@Test
+	void testProcessPendingCompletesJob() {
+		final var job = createPendingJob("partyId1\npartyId2\npartyId3", 0, 0);
+
+		when(mockJobRepository.findFirstByStateOrderByCreatedAsc(PENDING)).thenReturn(Optional.of(job), Optional.empty());
+		when(mockDigitalMailService.getMailboxes(anyList(), eq(MUNICIPALITY_ID), eq(ORGANIZATION_NUMBER))).thenAnswer(invocation -> invocation.<List<String>>getArgument(0).stream()
+			.map(partyId -> Mailbox.builder().withPartyId(partyId).withSupplier("kivra").withReachable(true).build())
+			.toList());
+
+		reachabilityJobService.processPending(2, 10, MAX_ATTEMPTS);
+
+		assertThat(job.getState()).isEqualTo(COMPLETED);
+		assertThat(job.getProcessed()).isEqualTo(3);
+		assertThat(job.getPartyIds()).isNull();
+
+		verify(mockJobRepository, times(2)).findFirstByStateOrderByCreatedAsc(PENDING);
+		verify(mockResultRepository).deleteByJobIdAndPositionGreaterThanEqual(JOB_ID, 0);
+		verify(mockDigitalMailService).getMailboxes(List.of("partyId1", "partyId2"), MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+		verify(mockDigitalMailService).getMailboxes(List.of("partyId3"), MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+		verify(mockResultRepository, times(2)).saveAll(resultsCaptor.capture());
+		assertThat(resultsCaptor.getAllValues().stream().flatMap(List::stream))
+			.extracting(ReachabilityJobResultEntity::getJobId, ReachabilityJobResultEntity::getPosition, ReachabilityJobResultEntity::getPartyId)
+			.containsExactly(
+				tuple(JOB_ID, 0, "partyId1"),
+				tuple(JOB_ID, 1, "partyId2"),
+				tuple(JOB_ID, 2, "partyId3"));
+		verify(mockJobRepository).updateProcessed(eq(JOB_ID), eq(2), any(OffsetDateTime.class));
+		verify(mockJobRepository).updateProcessed(eq(JOB_ID), eq(3), any(OffsetDateTime.class));
+		verify(mockJobRepository).save(job);
+	}
+
+	@Test
+	void testProcessPendingResumesFromCheckpoint() {
+		final var job = createPendingJob("partyId1\npartyId2\npartyId3", 2, 0);
+
+		when(mockJobRepository.findFirstByStateOrderByCreatedAsc(PENDING)).thenReturn(Optional.of(job), Optional.empty());
+		when(mockDigitalMailService.getMailboxes(List.of("partyId3"), MUNICIPALITY_ID, ORGANIZATION_NUMBER)).thenReturn(List.of(Mailbox.builder().withPartyId("partyId3").build()));
+
+		reachabilityJobService.processPending(2, 10, MAX_ATTEMPTS);
+
+		assertThat(job.getState()).isEqualTo(COMPLETED);
+
+		verify(mockJobRepository, times(2)).findFirstByStateOrderByCreatedAsc(PENDING);
+		// Results of a chunk stored but not checkpointed before the restart are removed
+		verify(mockResultRepository).deleteByJobIdAndPositionGreaterThanEqual(JOB_ID, 2);
+		verify(mockDigitalMailService).getMailboxes(List.of("partyId3"), MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+		verify(mockResultRepository).saveAll(resultsCaptor.capture());
+		assertThat(resultsCaptor.getValue()).extracting(ReachabilityJobResultEntity::getPosition).containsExactly(2);
+		verify(mockJobRepository).updateProcessed(eq(JOB_ID), eq(3), any(OffsetDateTime.class));
+		verify(mockJobRepository).save(job);
+	}
+
+	@Test
+	void testProcessPendingStopsAfterMaxChunks() {
+		final var job = createPendingJob("partyId1\npartyId2\npartyId3", 0, 0);
+
+		when(mockJobRepository.findFirstByStateOrderByCreatedAsc(PENDING)).thenReturn(Optional.of(job));
+		when(mockDigitalMailService.getMailboxes(anyList(), eq(MUNICIPALITY_ID), eq(ORGANIZATION_NUMBER))).thenReturn(List.of());
+
+		reachabilityJobService.processPending(1, 2, MAX_ATTEMPTS);
+
+		// The job is left pending, to continue on the next execution
+		assertThat(job.getState()).isEqualTo(PENDING);
+		assertThat(job.getProcessed()).isEqualTo(2);
+
+		verify(mockJobRepository).findFirstByStateOrderByCreatedAsc(PENDING);
+		verify(mockResultRepository).deleteByJobIdAndPositionGreaterThanEqual(JOB_ID, 0);
+		verify(mockDigitalMailService, times(2)).getMailboxes(anyList(), eq(MUNICIPALITY_ID), eq(ORGANIZATION_NUMBER));
+		verify(mockResultRepository, times(2)).saveAll(resultsCaptor.capture());
+		// PartyIds without a mailbox still get a result each
+		assertThat(resultsCaptor.getAllValues().stream().flatMap(List::stream))
+			.extracting(ReachabilityJobResultEntity::getPosition, ReachabilityJobResultEntity::getPartyId, ReachabilityJobResultEntity::isReachable)
+			.containsExactly(
+				tuple(0, "partyId1", false),
+				tuple(1, "partyId2", false));
+		verify(mockJobRepository).updateProcessed(eq(JOB_ID), eq(1), any(OffsetDateTime.class));
+		verify(mockJobRepository).updateProcessed(eq(JOB_ID), eq(2), any(OffsetDateTime.class));
+	}
+
+	@Test
+	void testProcessPendingWithMailboxesOutOfOrder() {
+		final var job = createPendingJob("partyId1\npartyId2\npartyId3\npartyId4", 0, 0);
+
+		when(mockJobRepository.findFirstByStateOrderByCreatedAsc(PENDING)).thenReturn(Optional.of(job), Optional.empty());
+		// Mailboxes come back in another order than requested, partyId2 is missing and one mailbox has no partyId
+		when(mockDigitalMailService.getMailboxes(List.of("partyId1", "partyId2", "partyId3"), MUNICIPALITY_ID, ORGANIZATION_NUMBER)).thenReturn(List.of(
+			Mailbox.builder().withPartyId("partyId3").withSupplier("kivra").withReachable(true).build(),
+			Mailbox.builder().withSupplier("kivra").withReachable(true).build(),
+			Mailbox.builder().withPartyId("partyId1").withSupplier("minmyndighetspost").withReachable(true).build(),
+			Mailbox.builder().withPartyId("partyId1").withSupplier("kivra").withReachable(true).build()));
+		when(mockDigitalMailService.getMailboxes(List.of("partyId4"), MUNICIPALITY_ID, ORGANIZATION_NUMBER)).thenReturn(List.of(
+			Mailbox.builder().withPartyId("partyId4").withSupplier("kivra").withReachable(true).build()));
+
+		reachabilityJobService.processPending(3, 10, MAX_ATTEMPTS);
+
+		assertThat(job.getState()).isEqualTo(COMPLETED);
+
+		verify(mockJobRepository, times(2)).findFirstByStateOrderByCreatedAsc(PENDING);
+		verify(mockResultRepository).deleteByJobIdAndPositionGreaterThanEqual(JOB_ID, 0);
+		verify(mockDigitalMailService).getMailboxes(List.of("partyId1", "partyId2", "partyId3"), MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+		verify(mockDigitalMailService).getMailboxes(List.of("partyId4"), MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+		verify(mockResultRepository, times(2)).saveAll(resultsCaptor.capture());
+		// Exactly one result per partyId, at the position it was submitted at
+		assertThat(resultsCaptor.getAllValues().stream().flatMap(List::stream))
+			.extracting(ReachabilityJobResultEntity::getPosition, ReachabilityJobResultEntity::getPartyId, ReachabilityJobResultEntity::getSupplier, ReachabilityJobResultEntity::isReachable)
+			.containsExactly(
+				tuple(0, "partyId1", "minmyndighetspost", true),
+				tuple(1, "partyId2", null, false),
+				tuple(2, "partyId3", "kivra", true),
+				tuple(3, "partyId4", "kivra", true));
+		verify(mockJobRepository).updateProcessed(eq(JOB_ID), eq(3), any(OffsetDateTime.class));
+		verify(mockJobRepository).updateProcessed(eq(JOB_ID), eq(4), any(OffsetDateTime.class));
+		verify(mockJobRepository).save(job);
+	}
+
+	@Test
+	void testProcessPendingWhenChunkFails() {
+		final var job = createPendingJob("partyId1\npartyId2", 0, 0);
+
+		when(mockJobRepository.findFirstByStateOrderByCreatedAsc(PENDING)).thenReturn(Optional.of(job));
+		when(mockDigitalMailService.getMailboxes(anyList(), eq(MUNICIPALITY_ID), eq(ORGANIZATION_NUMBER))).thenThrow(Problem.builder()
+			.withTitle("Bad Gateway")
+			.withDetail("Party is down")
+			.withStatus(BAD_GATEWAY)
+			.build());
+
+		reachabilityJobService.processPending(1, 10, MAX_ATTEMPTS);
+
+		// The job is retried on the next execution
+		assertThat(job.getState()).isEqualTo(PENDING);
+		assertThat(job.getAttempts()).isOne();
+		assertThat(job.getDetail()).isEqualTo("Bad Gateway: Party is down");
+		assertThat(job.getPartyIds()).isNotNull();
+
+		verify(mockJobRepository).findFirstByStateOrderByCreatedAsc(PENDING);
+		verify(mockResultRepository).deleteByJobIdAndPositionGreaterThanEqual(JOB_ID, 0);
+		verify(mockDigitalMailService).getMailboxes(List.of("partyId1"), MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+		verify(mockJobRepository).save(job);
+	}
+
+	@Test
+	void testProcessPendingWhenChunkFailsMaxAttempts() {
+		final var job = createPendingJob("partyId1\npartyId2", 1, MAX_ATTEMPTS - 1);
+
+		when(mockJobRepository.findFirstByStateOrderByCreatedAsc(PENDING)).thenReturn(Optional.of(job));
+		when(mockDigitalMailService.getMailboxes(anyList(), eq(MUNICIPALITY_ID), eq(ORGANIZATION_NUMBER))).thenThrow(new IllegalStateException("Something went wrong"));
+
+		reachabilityJobService.processPending(1, 10, MAX_ATTEMPTS);
+
+		assertThat(job.getState()).isEqualTo(FAILED);
+		assertThat(job.getAttempts()).isEqualTo(MAX_ATTEMPTS);
+		assertThat(job.getProcessed()).isOne();
+		assertThat(job.getPartyIds()).isNull();
+
+		verify(mockJobRepository).findFirstByStateOrderByCreatedAsc(PENDING);
+		verify(mockResultRepository).deleteByJobIdAndPositionGreaterThanEqual(JOB_ID, 1);
+		verify(mockDigitalMailService).getMailboxes(List.of("partyId2"), MUNICIPALITY_ID, ORGANIZATION_NUMBER);
+		verify(mockJobRepository).save(job);
+	}
+
+	@Test
+	void testProcessPendingWithNoPendingJobs() {
+		when(mockJobRepository.findFirstByStateOrderByCreatedAsc(PENDING)).thenReturn(Optional.empty());
+
+		reachabilityJobService.processPending(1000, 10, MAX_ATTEMPTS);
+
+		verify(mockJobRepository).findFirstByStateOrderByCreatedAsc(PENDING);
+		verifyNoInteractions(mockResultRepository, mockDigitalMailService);
+	}
+
+	private static ReachabilityJobEntity createPendingJob(final String partyIds, final int processed, final int attempts) {
+		return ReachabilityJobEntity.builder()
+			.withId(JOB_ID)
+			.withMunicipalityId(MUNICIPALITY_ID)
+			.withOrganizationNumber(ORGANIZATION_NUMBER)
+			.withPartyIds(partyIds)
+			.withTotal(partyIds == null ? 3 : partyIds.split("\n").length)
+			.withProcessed(processed)
+			.withAttempts(attempts)
+			.withState(PENDING)
+			.build();
+	}
+}
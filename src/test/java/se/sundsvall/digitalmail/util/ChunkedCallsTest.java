@@ -0,0 +1,65 @@
+package se.sundsvall.digitalmail.util;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChunkedCallsTest {
+
+	private ExecutorService executor;
+
+	@BeforeEach
+	void setUp() {
+		executor = Executors.newVirtualThreadPerTaskExecutor();
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void callInChunksKeepsChunkOrder() {
+		final var items = IntStream.range(0, 10).boxed().toList();
+
+		final var result = ChunkedCalls.callInChunks(items, 3, 4, executor, chunk -> chunk);
+
+		assertThat(result).containsExactly(List.of(0, 1, 2), List.of(3, 4, 5), List.of(6, 7, 8), List.of(9));
+	}
+
+	@Test
+	void callInChunksOnCallingThreadWhenParallelismIsOne() {
+		final var caller = Thread.currentThread();
+
+		final var result = ChunkedCalls.callInChunks(List.of(1, 2, 3), 1, 1, executor, chunk -> Thread.currentThread() == caller);
+
+		assertThat(result).containsOnly(true);
+	}
+
+	@Test
+	void callInChunksWithNoItems() {
+		assertThat(ChunkedCalls.callInChunks(List.of(), 3, 4, executor, chunk -> chunk)).isEmpty();
+	}
+
+	@Test
+	void callInChunksRethrowsFailureAndStopsStartingChunks() {
+		final var items = IntStream.range(0, 10).boxed().toList();
+		final var calls = new AtomicInteger();
+		final var failure = new IllegalStateException("failure");
+
+		assertThatThrownBy(() -> ChunkedCalls.callInChunks(items, 1, 2, executor, chunk -> {
+			calls.incrementAndGet();
+			throw failure;
+		})).isSameAs(failure);
+
+		assertThat(calls.get()).isLessThanOrEqualTo(2);
+	}
+}
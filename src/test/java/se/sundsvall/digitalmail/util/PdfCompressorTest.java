@@ -1,67 +1,84 @@
 package se.sundsvall.digitalmail.util;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
-import java.util.List;
 import org.junit.jupiter.api.Test;
+import org.openpdf.text.Document;
+import org.openpdf.text.Paragraph;
 import org.openpdf.text.pdf.PdfReader;
+import org.openpdf.text.pdf.PdfWriter;
 import se.sundsvall.digitalmail.TestObjectFactory;
-import se.sundsvall.digitalmail.api.model.File;
+import se.sundsvall.digitalmail.util.PdfCompressor.Decision;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 class PdfCompressorTest {
 
-	private static final String CONTENT_TYPE = "contentType";
 	private static final String VALID_PDF_FILE_NAME = "test.pdf";
 	private static final String INVALID_PDF_FILE_NAME = "invalid.pdf";
+	private static final double MAX_IMAGE_RATIO = 0.9;
 
 	@Test
-	void testPdfFileShouldBeCompressed() {
-		var file = TestObjectFactory.getSamplePdfBase64();
-		var files = List.of(new File(CONTENT_TYPE, file, VALID_PDF_FILE_NAME));
+	void testCompressBytes() {
+		var validPdf = Base64.getDecoder().decode(TestObjectFactory.getSamplePdfBase64());
+		var invalidPdf = "This is not a pdf".getBytes(StandardCharsets.UTF_8);
 
-		PdfCompressor.compress(files);
+		var result = PdfCompressor.compress(VALID_PDF_FILE_NAME, validPdf, 0, MAX_IMAGE_RATIO);
 
-		assertThat(files.getFirst().getBody().length()).isLessThan(file.length());
-		assertThat(files.getFirst().getBody()).isNotEqualTo(file);
-		assertThat(validatePdf(files.getFirst().getBody())).isTrue();
+		assertThat(result.decision()).isEqualTo(Decision.COMPRESSED);
+		assertThat(result.content().length).isLessThan(validPdf.length);
+		assertThat(validatePdf(Base64.getEncoder().encodeToString(result.content()))).isTrue();
+
+		// If compression fails the same content is returned
+		var failed = PdfCompressor.compress(INVALID_PDF_FILE_NAME, invalidPdf, 0, MAX_IMAGE_RATIO);
+
+		assertThat(failed.decision()).isEqualTo(Decision.FAILED);
+		assertThat(failed.content()).isSameAs(invalidPdf);
 	}
 
 	@Test
-	void testFaultyPdfShouldNotBeCompressed() {
-		var file = "This is not a pdf";
-		var files = List.of(new File(CONTENT_TYPE, file, INVALID_PDF_FILE_NAME));
+	void testCompressBytesTooSmall() {
+		var validPdf = Base64.getDecoder().decode(TestObjectFactory.getSamplePdfBase64());
 
-		PdfCompressor.compress(files);
+		var result = PdfCompressor.compress(VALID_PDF_FILE_NAME, validPdf, validPdf.length + 1, MAX_IMAGE_RATIO);
+
+		assertThat(result.decision()).isEqualTo(Decision.TOO_SMALL);
+		assertThat(result.content()).isSameAs(validPdf);
+	}
+
+	@Test
+	void testCompressBytesAlreadyCompressed() {
+		// A fully compressed pdf has filtered streams and a cross-reference stream
+		var output = new ByteArrayOutputStream();
+		try (var document = new Document()) {
+			PdfWriter.getInstance(document, output).setFullCompression();
+			document.open();
+			document.add(new Paragraph("Already compressed"));
+		}
+		var compressedPdf = output.toByteArray();
 
-		assertThat(files.getFirst().getBody()).hasSameSizeAs(file);
-		assertThat(files.getFirst().getBody()).isEqualTo(file);
-		assertThat(validatePdf(files.getFirst().getBody())).isFalse();
+		var result = PdfCompressor.compress(VALID_PDF_FILE_NAME, compressedPdf, 0, MAX_IMAGE_RATIO);
+
+		assertThat(result.decision()).isEqualTo(Decision.ALREADY_COMPRESSED);
+		assertThat(result.content()).isSameAs(compressedPdf);
+	}
+
+	@Test
+	void testInspect() throws Exception {
+		var validPdf = Base64.getDecoder().decode(TestObjectFactory.getSamplePdfBase64());
+
+		try (var pdfReader = new PdfReader(validPdf)) {
+			// The sample pdf has unfiltered streams and no images
+			assertThat(PdfCompressor.inspect(pdfReader, MAX_IMAGE_RATIO)).isNull();
+			// A ratio of zero is always reached
+			assertThat(PdfCompressor.inspect(pdfReader, 0)).isEqualTo(Decision.IMAGE_HEAVY);
+		}
 	}
 
 	@Test
-	void testCompressTwoFiles_oneFails_shouldCompressTheOther() {
-		var validPdf = TestObjectFactory.getSamplePdfBase64();
-		var invalidPdf = "This is not a pdf";
-		var validFile = new File(CONTENT_TYPE, validPdf, VALID_PDF_FILE_NAME);
-		var invalidFile = new File(CONTENT_TYPE, invalidPdf, INVALID_PDF_FILE_NAME);
-		List<File> files = List.of(validFile, invalidFile);
-
-		PdfCompressor.compress(files);
-
-		// Check that one file is compressed while the failed one is not.
-		files.forEach(file -> {
-			if (file.getFilename().equals(VALID_PDF_FILE_NAME)) {
-				assertThat(file.getBody().length()).isLessThan(validPdf.length());
-				assertThat(file.getBody()).isNotEqualTo(validPdf);
-				assertThat(validatePdf(file.getBody())).isTrue();
-			} else {
-				assertThat(file.getBody()).hasSameSizeAs(invalidPdf);
-				assertThat(file.getBody()).isEqualTo(invalidPdf);
-				assertThat(validatePdf(file.getBody())).isFalse();
-			}
-		});
+	void testDecisionTagValue() {
+		assertThat(Decision.ALREADY_COMPRESSED.tagValue()).isEqualTo("already_compressed");
 	}
 
 	// Used to validate that the returned base64 contains a valid pdf.